@@ -18,6 +18,9 @@ package org.openvpms.report;
 
 import org.apache.commons.jxpath.Functions;
 import org.apache.commons.jxpath.JXPathContext;
+import org.apache.commons.jxpath.ri.Parser;
+import org.apache.commons.jxpath.ri.compiler.Expression;
+import org.apache.commons.jxpath.ri.compiler.TreeCompiler;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openvpms.component.business.domain.im.archetype.descriptor.NodeDescriptor;
@@ -27,19 +30,14 @@ import org.openvpms.component.business.domain.im.common.IMObjectReference;
 import org.openvpms.component.business.domain.im.common.Participation;
 import org.openvpms.component.business.domain.im.datatypes.quantity.Money;
 import org.openvpms.component.business.service.archetype.IArchetypeService;
-import org.openvpms.component.business.service.archetype.helper.IMObjectVariables;
 import org.openvpms.component.business.service.archetype.helper.LookupHelper;
 import org.openvpms.component.business.service.archetype.helper.PropertyResolver;
 import org.openvpms.component.business.service.archetype.helper.PropertyResolverException;
 import org.openvpms.component.business.service.lookup.ILookupService;
-import org.openvpms.component.system.common.jxpath.JXPathHelper;
 import org.openvpms.component.system.common.util.PropertySet;
 import org.openvpms.component.system.common.util.PropertyState;
 
 import java.math.BigDecimal;
-import java.text.DateFormat;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
 import java.util.Collection;
 import java.util.Date;
 
@@ -54,7 +52,7 @@ public abstract class AbstractExpressionEvaluator<T> implements ExpressionEvalua
     /**
      * The object.
      */
-    private final T object;
+    private T object;
 
     /**
      * Additional report fields. May be {@code null}.
@@ -72,15 +70,40 @@ public abstract class AbstractExpressionEvaluator<T> implements ExpressionEvalua
     private final ILookupService lookups;
 
     /**
-     * The JXPath extension functions.
+     * The factory for JXPath contexts.
      */
-    private final Functions functions;
+    private ExpressionContextFactory contexts;
 
     /**
      * The JXPath context.
      */
     private JXPathContext context;
 
+    /**
+     * The formatters used by {@link #getFormattedValue(String)}.
+     */
+    private Formatters formatters = Formatters.getDefault();
+
+    /**
+     * The display name cache. May be {@code null}.
+     */
+    private DisplayNameCache names;
+
+    /**
+     * The lookup name cache. May be {@code null}.
+     */
+    private LookupNameCache lookupNames;
+
+    /**
+     * The field accessor cache. May be {@code null}.
+     */
+    private FieldAccessorCache accessors;
+
+    /**
+     * The value returned when an expression fails to evaluate.
+     */
+    private static final String EXPRESSION_ERROR = "Expression Error";
+
     /**
      * The logger.
      */
@@ -102,7 +125,72 @@ public abstract class AbstractExpressionEvaluator<T> implements ExpressionEvalua
         this.fields = fields;
         this.service = service;
         this.lookups = lookups;
-        this.functions = functions;
+        contexts = new ExpressionContextFactory(fields, service, lookups, functions);
+    }
+
+    /**
+     * Sets the cache of field accessors.
+     * <p/>
+     * This avoids determining how to access each field every time it is evaluated. The cache should only be shared
+     * by evaluators with the same fields.
+     *
+     * @param accessors the cache. May be {@code null}
+     */
+    public void setAccessorCache(FieldAccessorCache accessors) {
+        this.accessors = accessors;
+    }
+
+    /**
+     * Sets the formatters used by {@link #getFormattedValue(String)}.
+     * <p/>
+     * By default, values are formatted using the default locale.
+     *
+     * @param formatters the formatters
+     */
+    public void setFormatters(Formatters formatters) {
+        this.formatters = formatters;
+    }
+
+    /**
+     * Sets the cache used to determine the display names of referenced objects.
+     * <p/>
+     * If no cache is set, referenced objects are loaded in order to determine their names.
+     *
+     * @param names the cache. May be {@code null}
+     */
+    public void setNameCache(DisplayNameCache names) {
+        this.names = names;
+    }
+
+    /**
+     * Sets the cache used to determine the names of lookups referred to by lookup nodes.
+     *
+     * @param lookupNames the cache. May be {@code null}
+     */
+    public void setLookupNameCache(LookupNameCache lookupNames) {
+        this.lookupNames = lookupNames;
+    }
+
+    /**
+     * Sets the factory for JXPath contexts.
+     * <p/>
+     * Sharing a factory between evaluators avoids each registering the report fields as variables. It should only be
+     * shared by evaluators with the same fields.
+     *
+     * @param contexts the factory
+     */
+    public void setContextFactory(ExpressionContextFactory contexts) {
+        this.contexts = contexts;
+        context = null;
+    }
+
+    /**
+     * Returns the factory for JXPath contexts.
+     *
+     * @return the factory
+     */
+    public ExpressionContextFactory getContextFactory() {
+        return contexts;
     }
 
     /**
@@ -115,25 +203,57 @@ public abstract class AbstractExpressionEvaluator<T> implements ExpressionEvalua
      */
     public Object getValue(String expression) {
         Object result;
+        FieldAccessor accessor = null;
         try {
-            if (expression.startsWith("[") && expression.endsWith("]")) {
-                String eval = expression.substring(1, expression.length() - 1);
-                result = evaluate(eval);
+            accessor = getAccessor(expression);
+            if (accessor.isFailing()) {
+                // known to fail, so don't evaluate it again
+                accessor.failed(null);
+                result = EXPRESSION_ERROR;
+            } else if (accessor.hasConstant()) {
+                result = accessor.getConstant();
             } else {
-                if (fields != null && fields.exists(expression)) {
-                    result = getFieldValue(expression);
-                } else {
-                    result = getNodeValue(expression);
+                result = getValue(accessor);
+                accessor.succeeded();
+                if (accessors != null) {
+                    // invariant values only need to be evaluated once per report
+                    accessor.setConstant(result);
                 }
             }
         } catch (Exception exception) {
-            log.warn("Failed to evaluate: " + expression, exception);
-            // TODO localise
-            result = "Expression Error";
+            if (accessors != null && accessor != null) {
+                // the failure is reported by FieldAccessorCache.logFailures()
+                if (accessor.failed(exception) && log.isDebugEnabled()) {
+                    log.debug("Failed to evaluate: " + expression, exception);
+                }
+            } else {
+                log.warn("Failed to evaluate: " + expression, exception);
+            }
+            result = EXPRESSION_ERROR;
         }
         return result;
     }
 
+    /**
+     * Evaluates an expression, propagating any failure.
+     * <p/>
+     * Unlike {@link #getValue(String)}, this doesn't record the outcome in the accessor cache: failures aren't
+     * counted, and the values of invariant fields aren't recorded. This allows expressions to be evaluated ahead of
+     * time by another thread, leaving {@link #getValue(String)} to report any failure.
+     *
+     * @param expression the expression
+     * @return the result of the expression
+     * @throws IllegalStateException if the expression is known to fail
+     * @throws Exception             if the expression fails to evaluate
+     */
+    public Object evaluateValue(String expression) throws Exception {
+        FieldAccessor accessor = getAccessor(expression);
+        if (accessor.isFailing()) {
+            throw new IllegalStateException("Expression is known to fail: " + expression);
+        }
+        return accessor.hasConstant() ? accessor.getConstant() : getValue(accessor);
+    }
+
     /**
      * Returns the formatted value of an expression.
      *
@@ -144,13 +264,11 @@ public abstract class AbstractExpressionEvaluator<T> implements ExpressionEvalua
     public String getFormattedValue(String expression) {
         Object value = getValue(expression);
         if (value instanceof Date) {
-            Date date = (Date) value;
-            return DateFormat.getDateInstance(DateFormat.MEDIUM).format(date);
+            return formatters.formatDate((Date) value);
         } else if (value instanceof Money) {
-            return NumberFormat.getCurrencyInstance().format(value);
+            return formatters.formatCurrency((Money) value);
         } else if (value instanceof BigDecimal) {
-            DecimalFormat format = new DecimalFormat("#,##0.00;-#,##0.00");
-            return format.format(value);
+            return formatters.formatDecimal((BigDecimal) value);
         } else if (value instanceof IMObject) {
             return getValue((IMObject) value);
         } else if (value instanceof IMObjectReference) {
@@ -161,27 +279,113 @@ public abstract class AbstractExpressionEvaluator<T> implements ExpressionEvalua
         return null;
     }
 
+    /**
+     * Returns the value of a field, using its accessor.
+     *
+     * @param accessor the field accessor
+     * @return the field value
+     */
+    protected Object getValue(FieldAccessor accessor) {
+        Object result;
+        switch (accessor.getType()) {
+            case EXPRESSION:
+                result = evaluate(accessor.getName());
+                break;
+            case FIELD:
+                result = getFieldValue(accessor.getName());
+                break;
+            default:
+                result = getNodeValue(accessor);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the accessor for an expression.
+     * <p/>
+     * If an accessor cache has been registered, accessors are created once for each archetype and expression.
+     *
+     * @param expression the expression
+     * @return the accessor
+     */
+    protected FieldAccessor getAccessor(String expression) {
+        FieldAccessor result;
+        if (accessors != null) {
+            String shortName = getArchetype();
+            result = accessors.get(shortName, expression);
+            if (result == null) {
+                result = createAccessor(expression);
+                result = accessors.add(shortName, expression, result);
+            }
+        } else {
+            result = createAccessor(expression);
+        }
+        return result;
+    }
+
+    /**
+     * Creates an accessor for an expression.
+     *
+     * @param expression the expression
+     * @return a new accessor
+     */
+    protected FieldAccessor createAccessor(String expression) {
+        FieldAccessor result;
+        if (expression.startsWith("[") && expression.endsWith("]")) {
+            String eval = expression.substring(1, expression.length() - 1);
+            result = FieldAccessor.expression(eval, isInvariant(eval));
+        } else if (fields != null && fields.exists(expression)) {
+            result = FieldAccessor.field(expression);
+        } else {
+            result = FieldAccessor.node(expression);
+        }
+        return result;
+    }
+
+    /**
+     * Determines if a JXPath expression evaluates to the same value for every object.
+     * <p/>
+     * This is the case if the expression only refers to constants and variables. Expressions that refer to the
+     * context node, or that call extension functions, are assumed to vary.
+     *
+     * @param expression the expression, without its enclosing brackets
+     * @return {@code true} if the expression is invariant
+     */
+    protected boolean isInvariant(String expression) {
+        boolean result = false;
+        try {
+            Object parsed = Parser.parseExpression(expression, new TreeCompiler());
+            if (parsed instanceof Expression) {
+                result = !((Expression) parsed).isContextDependent();
+            }
+        } catch (Exception exception) {
+            // invalid expression. This will be reported when it is evaluated
+        }
+        return result;
+    }
+
+    /**
+     * Returns the archetype short name of the object, used to key cached field accessors.
+     *
+     * @return the archetype short name. May be {@code null}
+     */
+    protected String getArchetype() {
+        return null;
+    }
+
     /**
      * Evaluates an expression.
+     * <p/>
+     * Compiled expressions are shared via {@link ExpressionCache#getDefault()}, so that each is only parsed once.
      *
      * @param expression the expression to evaluate
      * @return the value of the expression
      */
     protected Object evaluate(String expression) {
         if (context == null) {
-            context = JXPathHelper.newContext(object, functions);
-            if (fields != null) {
-                IMObjectVariables variables = new IMObjectVariables(service, lookups);
-                for (String name : fields.getNames()) {
-                    Object value = fields.get(name);
-                    if (value != null) {
-                        variables.add(name, value);
-                    }
-                }
-                context.setVariables(variables);
-            }
+            context = contexts.newContext(object);
         }
-        return context.getValue(expression);
+        return ExpressionCache.getDefault().get(expression).getValue(context);
     }
 
     /**
@@ -192,6 +396,18 @@ public abstract class AbstractExpressionEvaluator<T> implements ExpressionEvalua
      */
     protected abstract Object getNodeValue(String name);
 
+    /**
+     * Returns a node value, using its accessor.
+     * <p/>
+     * This implementation delegates to {@link #getNodeValue(String)}.
+     *
+     * @param accessor the node accessor
+     * @return the node value
+     */
+    protected Object getNodeValue(FieldAccessor accessor) {
+        return getNodeValue(accessor.getName());
+    }
+
     /**
      * Returns a field value.
      *
@@ -202,6 +418,18 @@ public abstract class AbstractExpressionEvaluator<T> implements ExpressionEvalua
         return getValue(fields.resolve(name));
     }
 
+    /**
+     * Rebinds the evaluator to a new object.
+     * <p/>
+     * This allows an evaluator to be reused when evaluating the same expressions against successive objects.
+     *
+     * @param object the object
+     */
+    public void setObject(T object) {
+        this.object = object;
+        context = null;
+    }
+
     /**
      * Returns the object.
      *
@@ -255,16 +483,56 @@ public abstract class AbstractExpressionEvaluator<T> implements ExpressionEvalua
 
     /**
      * Helper to return a value for an object, for display purposes.
+     * <p/>
+     * If a {@link DisplayNameCache} has been registered, this is used in preference to loading the object.
      *
      * @param ref the object reference. May be {@code null}
      * @return a value for the object
      */
     protected String getValue(IMObjectReference ref) {
-        IMObject object = null;
-        if (ref != null) {
-            object = service.get(ref);
+        String result;
+        if (ref != null && names != null) {
+            result = names.getName(ref);
+            if (result == null) {
+                result = "";
+            }
+        } else {
+            IMObject object = null;
+            if (ref != null) {
+                object = service.get(ref);
+            }
+            result = getValue(object);
+        }
+        return result;
+    }
+
+    /**
+     * Helper to return the value of a non-collection node.
+     *
+     * @param parent the parent object
+     * @param node   the node descriptor
+     * @return the node value. For lookup nodes, this is the lookup name
+     */
+    protected Object getValue(IMObject parent, NodeDescriptor node) {
+        Object result;
+        if (node.isLookup()) {
+            result = getLookupName(parent, node);
+        } else {
+            result = node.getValue(parent);
         }
-        return getValue(object);
+        return result;
+    }
+
+    /**
+     * Returns the name of the lookup referred to by a lookup node.
+     *
+     * @param parent the parent object
+     * @param node   the lookup node
+     * @return the lookup name. May be {@code null}
+     */
+    protected String getLookupName(IMObject parent, NodeDescriptor node) {
+        return (lookupNames != null) ? lookupNames.getName(parent, node)
+                                     : LookupHelper.getName(service, lookups, node, parent);
     }
 
     /**
@@ -298,7 +566,7 @@ public abstract class AbstractExpressionEvaluator<T> implements ExpressionEvalua
         NodeDescriptor descriptor = state.getNode();
         Object value;
         if (descriptor != null && descriptor.isLookup()) {
-            value = LookupHelper.getName(service, lookups, descriptor, state.getParent());
+            value = getLookupName(state.getParent(), descriptor);
         } else {
             value = state.getValue();
         }
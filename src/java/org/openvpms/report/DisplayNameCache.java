@@ -0,0 +1,256 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openvpms.component.business.domain.im.common.IMObject;
+import org.openvpms.component.business.domain.im.common.IMObjectReference;
+import org.openvpms.component.business.service.archetype.IArchetypeService;
+import org.openvpms.component.system.common.exception.OpenVPMSException;
+import org.openvpms.component.system.common.query.ArchetypeQuery;
+import org.openvpms.component.system.common.query.NodeSelectConstraint;
+import org.openvpms.component.system.common.query.ObjectRefConstraint;
+import org.openvpms.component.system.common.query.ObjectSet;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Caches the display names of objects, keyed on reference.
+ * <p/>
+ * The display name of an object is its name, or its description if it has no name. These are retrieved using a
+ * query that selects just the name and description nodes, rather than loading the object. If the archetype service
+ * is a {@link PrefetchingArchetypeService} and the object has already been retrieved by the current report run, the
+ * name is taken from the object instead.
+ * <p/>
+ * By default, names are cached for the life of the cache, so a cache should only be used for the duration of a
+ * report. Alternatively, a time-to-live may be specified, allowing a cache to be shared by several reports.
+ * <p/>
+ * The no. of cached names is bounded; when the limit is reached, the least recently used name is discarded. Expired
+ * names are discarded as they are encountered.
+ * <p/>
+ * This class is thread safe.
+ *
+ * @author Tim Anderson
+ */
+public class DisplayNameCache {
+
+    /**
+     * The archetype service.
+     */
+    private final IArchetypeService service;
+
+    /**
+     * The time, in milliseconds, that names are cached for, or {@code <= 0} to cache them indefinitely.
+     */
+    private final long ttl;
+
+    /**
+     * The maximum no. of names to cache.
+     */
+    private final int maxSize;
+
+    /**
+     * The cached names, keyed on reference, in least-recently-used order.
+     */
+    private final Map<IMObjectReference, Entry> names;
+
+    /**
+     * The default maximum no. of names to cache.
+     */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /**
+     * The logger.
+     */
+    private static final Log log = LogFactory.getLog(DisplayNameCache.class);
+
+
+    /**
+     * Constructs a {@link DisplayNameCache} that caches names indefinitely.
+     *
+     * @param service the archetype service
+     */
+    public DisplayNameCache(IArchetypeService service) {
+        this(service, 0);
+    }
+
+    /**
+     * Constructs a {@link DisplayNameCache} that caches up to {@link #DEFAULT_MAX_SIZE} names.
+     *
+     * @param service the archetype service
+     * @param ttl     the time, in milliseconds, that names are cached for, or {@code <= 0} to cache them indefinitely
+     */
+    public DisplayNameCache(IArchetypeService service, long ttl) {
+        this(service, ttl, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructs a {@link DisplayNameCache}.
+     *
+     * @param service the archetype service
+     * @param ttl     the time, in milliseconds, that names are cached for, or {@code <= 0} to cache them indefinitely
+     * @param maxSize the maximum no. of names to cache
+     */
+    public DisplayNameCache(IArchetypeService service, long ttl, int maxSize) {
+        this.service = service;
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+        names = new LinkedHashMap<IMObjectReference, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<IMObjectReference, Entry> eldest) {
+                return size() > DisplayNameCache.this.maxSize || isExpired(eldest.getValue());
+            }
+        };
+    }
+
+    /**
+     * Returns the display name of an object.
+     *
+     * @param reference the object reference
+     * @return the object's name, or its description if it has no name. May be {@code null}
+     */
+    public String getName(IMObjectReference reference) {
+        Entry entry;
+        synchronized (names) {
+            entry = names.get(reference);
+        }
+        if (entry == null || isExpired(entry)) {
+            // retrieve outside the lock. Concurrent retrievals of the same name are harmless
+            long expiry = (ttl > 0) ? System.currentTimeMillis() + ttl : 0;
+            entry = new Entry(retrieve(reference), expiry);
+            synchronized (names) {
+                names.put(reference, entry);
+            }
+        }
+        return entry.name;
+    }
+
+    /**
+     * Returns the no. of cached names.
+     *
+     * @return the no. of cached names
+     */
+    public int size() {
+        synchronized (names) {
+            return names.size();
+        }
+    }
+
+    /**
+     * Removes all cached names.
+     */
+    public void clear() {
+        synchronized (names) {
+            names.clear();
+        }
+    }
+
+    /**
+     * Retrieves the display name of an object.
+     *
+     * @param reference the object reference
+     * @return the object's name, or its description if it has no name. May be {@code null}
+     */
+    protected String retrieve(IMObjectReference reference) {
+        IMObject cached = (service instanceof PrefetchingArchetypeService)
+                          ? ((PrefetchingArchetypeService) service).getCached(reference) : null;
+        return (cached != null) ? getName(cached.getName(), cached.getDescription()) : query(reference);
+    }
+
+    /**
+     * Queries the display name of an object.
+     *
+     * @param reference the object reference
+     * @return the object's name, or its description if it has no name. May be {@code null}
+     */
+    private String query(IMObjectReference reference) {
+        String result;
+        try {
+            ArchetypeQuery query = new ArchetypeQuery(new ObjectRefConstraint("o", reference));
+            query.add(new NodeSelectConstraint("o.name"));
+            query.add(new NodeSelectConstraint("o.description"));
+            query.setMaxResults(1);
+            List<ObjectSet> sets = service.getObjects(query).getResults();
+            if (!sets.isEmpty()) {
+                ObjectSet set = sets.get(0);
+                result = getName((String) set.get("o.name"), (String) set.get("o.description"));
+            } else {
+                result = null;
+            }
+        } catch (OpenVPMSException exception) {
+            // the archetype may not have name and description nodes, so fall back to loading the object
+            if (log.isDebugEnabled()) {
+                log.debug("Failed to query name of " + reference + ": " + exception.getMessage(), exception);
+            }
+            IMObject object = service.get(reference);
+            result = (object != null) ? getName(object.getName(), object.getDescription()) : null;
+        }
+        return result;
+    }
+
+    /**
+     * Determines if an entry has expired.
+     *
+     * @param entry the entry
+     * @return {@code true} if the entry has expired
+     */
+    private boolean isExpired(Entry entry) {
+        return ttl > 0 && entry.expiry < System.currentTimeMillis();
+    }
+
+    /**
+     * Returns a display name, given a name and description.
+     *
+     * @param name        the name. May be {@code null}
+     * @param description the description. May be {@code null}
+     * @return the name, or the description if the name is {@code null}
+     */
+    private String getName(String name, String description) {
+        return (name != null) ? name : description;
+    }
+
+    /**
+     * A cached name.
+     */
+    private static class Entry {
+
+        /**
+         * The name. May be {@code null}.
+         */
+        private final String name;
+
+        /**
+         * The time when the entry expires, if a time-to-live is in use.
+         */
+        private final long expiry;
+
+        /**
+         * Constructs an {@link Entry}.
+         *
+         * @param name   the name. May be {@code null}
+         * @param expiry the time when the entry expires
+         */
+        public Entry(String name, long expiry) {
+            this.name = name;
+            this.expiry = expiry;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.apache.commons.io.IOUtils;
+import org.openvpms.archetype.rules.doc.DocumentHandler;
+import org.openvpms.component.business.domain.im.common.IMObjectReference;
+import org.openvpms.component.business.domain.im.document.Document;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A bounded cache of document content, used to avoid decompressing the same images each time they are rendered in
+ * a report.
+ * <p/>
+ * Content is keyed on document reference and version, so a document that is updated is read again. When the total
+ * size of the cached content exceeds the limit, the least recently used content is discarded. Content larger than
+ * the limit is never cached.
+ * <p/>
+ * The returned content must not be modified.
+ * <p/>
+ * This class is thread safe.
+ *
+ * @author Tim Anderson
+ */
+public class DocumentContentCache {
+
+    /**
+     * The cached content, in least-recently-used order.
+     */
+    private final Map<Key, byte[]> contents = new LinkedHashMap<Key, byte[]>(16, 0.75f, true);
+
+    /**
+     * The maximum no. of bytes to cache.
+     */
+    private final long maxBytes;
+
+    /**
+     * The no. of bytes currently cached.
+     */
+    private long bytes;
+
+    /**
+     * The default maximum no. of bytes to cache.
+     */
+    public static final long DEFAULT_SIZE = 10 * 1024 * 1024;
+
+
+    /**
+     * Constructs a {@link DocumentContentCache} with a limit of {@link #DEFAULT_SIZE} bytes.
+     */
+    public DocumentContentCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Constructs a {@link DocumentContentCache}.
+     *
+     * @param maxBytes the maximum no. of bytes to cache
+     */
+    public DocumentContentCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the content of a document, reading it if it isn't cached.
+     * <p/>
+     * Unsaved documents are not cached.
+     *
+     * @param document the document
+     * @param handler  the handler to read the document content
+     * @return the document content
+     * @throws IOException for any I/O error
+     */
+    public byte[] getContent(Document document, DocumentHandler handler) throws IOException {
+        Key key = (!document.isNew()) ? new Key(document.getObjectReference(), document.getVersion()) : null;
+        byte[] result = null;
+        if (key != null) {
+            synchronized (contents) {
+                result = contents.get(key);
+            }
+        }
+        if (result == null) {
+            // read outside the lock. Concurrent reads of the same document are harmless
+            InputStream stream = handler.getContent(document);
+            try {
+                result = IOUtils.toByteArray(stream);
+            } finally {
+                IOUtils.closeQuietly(stream);
+            }
+            if (key != null && result.length <= maxBytes) {
+                add(key, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the no. of cached documents.
+     *
+     * @return the no. of cached documents
+     */
+    public int size() {
+        synchronized (contents) {
+            return contents.size();
+        }
+    }
+
+    /**
+     * Returns the no. of bytes cached.
+     *
+     * @return the no. of bytes cached
+     */
+    public long getBytes() {
+        synchronized (contents) {
+            return bytes;
+        }
+    }
+
+    /**
+     * Removes all cached content.
+     */
+    public void clear() {
+        synchronized (contents) {
+            contents.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Adds content to the cache, discarding the least recently used content if the limit is exceeded.
+     *
+     * @param key     the document key
+     * @param content the document content
+     */
+    private void add(Key key, byte[] content) {
+        synchronized (contents) {
+            byte[] existing = contents.put(key, content);
+            if (existing != null) {
+                bytes -= existing.length;
+            }
+            bytes += content.length;
+            Iterator<byte[]> iterator = contents.values().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                bytes -= iterator.next().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Cache key.
+     */
+    private static class Key {
+
+        /**
+         * The document reference.
+         */
+        private final IMObjectReference reference;
+
+        /**
+         * The document version.
+         */
+        private final long version;
+
+        /**
+         * Constructs a {@link Key}.
+         *
+         * @param reference the document reference
+         * @param version   the document version
+         */
+        public Key(IMObjectReference reference, long version) {
+            this.reference = reference;
+            this.version = version;
+        }
+
+        /**
+         * Indicates whether some other object is "equal to" this one.
+         *
+         * @param obj the reference object with which to compare.
+         * @return {@code true} if this object is the same as the obj
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return version == other.version && reference.equals(other.reference);
+        }
+
+        /**
+         * Returns a hash code value for the object.
+         *
+         * @return a hash code value for this object
+         */
+        @Override
+        public int hashCode() {
+            return reference.hashCode();
+        }
+    }
+}
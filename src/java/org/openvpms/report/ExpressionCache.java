@@ -0,0 +1,118 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.apache.commons.jxpath.CompiledExpression;
+import org.apache.commons.jxpath.JXPathContext;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A bounded cache of compiled JXPath expressions, keyed on expression text.
+ * <p/>
+ * This avoids parsing the same expression each time it is evaluated. When the cache is full, the least recently used
+ * expression is discarded.
+ * <p/>
+ * This class is thread safe.
+ *
+ * @author Tim Anderson
+ */
+public class ExpressionCache {
+
+    /**
+     * The compiled expressions, in least-recently-used order.
+     */
+    private final Map<String, CompiledExpression> expressions;
+
+    /**
+     * The default maximum no. of expressions to cache.
+     */
+    public static final int DEFAULT_SIZE = 1000;
+
+    /**
+     * The default cache.
+     */
+    private static final ExpressionCache DEFAULT = new ExpressionCache(DEFAULT_SIZE);
+
+
+    /**
+     * Constructs an {@link ExpressionCache}.
+     *
+     * @param size the maximum no. of expressions to cache
+     */
+    public ExpressionCache(final int size) {
+        expressions = new LinkedHashMap<String, CompiledExpression>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledExpression> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * Returns the default cache.
+     *
+     * @return the default cache
+     */
+    public static ExpressionCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the compiled form of an expression, compiling it if it isn't cached.
+     *
+     * @param expression the expression
+     * @return the compiled expression
+     * @throws org.apache.commons.jxpath.JXPathException if the expression is invalid
+     */
+    public CompiledExpression get(String expression) {
+        CompiledExpression result;
+        synchronized (expressions) {
+            result = expressions.get(expression);
+        }
+        if (result == null) {
+            // compile outside the lock. Concurrent compilations of the same expression are harmless
+            result = JXPathContext.compile(expression);
+            synchronized (expressions) {
+                expressions.put(expression, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the no. of cached expressions.
+     *
+     * @return the no. of cached expressions
+     */
+    public int size() {
+        synchronized (expressions) {
+            return expressions.size();
+        }
+    }
+
+    /**
+     * Removes all cached expressions.
+     */
+    public void clear() {
+        synchronized (expressions) {
+            expressions.clear();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.apache.commons.jxpath.Functions;
+import org.apache.commons.jxpath.JXPathContext;
+import org.openvpms.component.business.service.archetype.IArchetypeService;
+import org.openvpms.component.business.service.archetype.helper.IMObjectVariables;
+import org.openvpms.component.business.service.lookup.ILookupService;
+import org.openvpms.component.system.common.jxpath.JXPathHelper;
+import org.openvpms.component.system.common.util.PropertySet;
+
+
+/**
+ * Creates the JXPath contexts used to evaluate report expressions.
+ * <p/>
+ * The extension functions and the variables derived from the report fields are registered once, in a shared parent
+ * context. Each object is evaluated in a child of this context, so the variables don't need to be rebuilt for each
+ * object.
+ * <p/>
+ * The parent context is not modified once it has been created, so a factory may be shared by all of the evaluators
+ * of a report, including those on different threads.
+ *
+ * @author Tim Anderson
+ */
+public class ExpressionContextFactory {
+
+    /**
+     * Additional report fields. May be {@code null}.
+     */
+    private final PropertySet fields;
+
+    /**
+     * The archetype service.
+     */
+    private final IArchetypeService service;
+
+    /**
+     * The lookup service.
+     */
+    private final ILookupService lookups;
+
+    /**
+     * The JXPath extension functions.
+     */
+    private final Functions functions;
+
+    /**
+     * The parent context. Created on demand.
+     */
+    private JXPathContext parent;
+
+
+    /**
+     * Constructs an {@link ExpressionContextFactory}.
+     *
+     * @param fields    additional report fields, to be declared as variables. May be {@code null}
+     * @param service   the archetype service
+     * @param lookups   the lookup service
+     * @param functions the JXPath extension functions
+     */
+    public ExpressionContextFactory(PropertySet fields, IArchetypeService service, ILookupService lookups,
+                                    Functions functions) {
+        this.fields = fields;
+        this.service = service;
+        this.lookups = lookups;
+        this.functions = functions;
+    }
+
+    /**
+     * Creates a context to evaluate expressions against an object.
+     *
+     * @param object the object
+     * @return a new context
+     */
+    public JXPathContext newContext(Object object) {
+        return JXPathContext.newContext(getParent(), object);
+    }
+
+    /**
+     * Returns the parent context, creating it if required.
+     *
+     * @return the parent context
+     */
+    protected synchronized JXPathContext getParent() {
+        if (parent == null) {
+            JXPathContext context = JXPathHelper.newContext(new Object(), functions);
+            if (fields != null) {
+                IMObjectVariables variables = new IMObjectVariables(service, lookups);
+                for (String name : fields.getNames()) {
+                    Object value = fields.get(name);
+                    if (value != null) {
+                        variables.add(name, value);
+                    }
+                }
+                context.setVariables(variables);
+            }
+            parent = context;
+        }
+        return parent;
+    }
+}
@@ -54,4 +54,46 @@ public class ExpressionEvaluatorFactory {
         throw new ReportException(NoExpressionEvaluatorForType, object.getClass().getName());
     }
 
+    /**
+     * Creates a new evaluator for the supplied object.
+     *
+     * @param object      the object
+     * @param fields      a map of additional field names and their values, to pass to the report. May be {@code null}
+     * @param service     the archetype service
+     * @param lookups     the lookup service
+     * @param functions   the JXPath extension functions
+     * @param formatters  the formatters used to format values
+     * @param lookupNames the cache of lookup names. May be {@code null}
+     * @return a new evaluator for the object
+     */
+    public static ExpressionEvaluator create(Object object, Map<String, Object> fields, IArchetypeService service,
+                                             ILookupService lookups, Functions functions, Formatters formatters,
+                                             LookupNameCache lookupNames) {
+        return create(object, fields, service, lookups, functions, formatters, null, lookupNames);
+    }
+
+    /**
+     * Creates a new evaluator for the supplied object.
+     *
+     * @param object      the object
+     * @param fields      a map of additional field names and their values, to pass to the report. May be {@code null}
+     * @param service     the archetype service
+     * @param lookups     the lookup service
+     * @param functions   the JXPath extension functions
+     * @param formatters  the formatters used to format values
+     * @param names       the cache of display names of referenced objects. May be {@code null}
+     * @param lookupNames the cache of lookup names. May be {@code null}
+     * @return a new evaluator for the object
+     */
+    public static ExpressionEvaluator create(Object object, Map<String, Object> fields, IArchetypeService service,
+                                             ILookupService lookups, Functions functions, Formatters formatters,
+                                             DisplayNameCache names, LookupNameCache lookupNames) {
+        AbstractExpressionEvaluator<?> result
+                = (AbstractExpressionEvaluator<?>) create(object, fields, service, lookups, functions);
+        result.setFormatters(formatters);
+        result.setNameCache(names);
+        result.setLookupNameCache(lookupNames);
+        return result;
+    }
+
 }
@@ -0,0 +1,356 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.openvpms.component.business.domain.im.archetype.descriptor.NodeDescriptor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Describes how an {@link ExpressionEvaluator} should access a report field.
+ * <p/>
+ * Accessors are determined once for each archetype and field name, so that the form of the field doesn't need to be
+ * re-examined each time it is evaluated.
+ *
+ * @author Tim Anderson
+ * @see FieldAccessorCache
+ */
+public class FieldAccessor {
+
+    /**
+     * The type of access.
+     */
+    public enum Type {
+        EXPRESSION,   // a JXPath expression, evaluated against the object
+        FIELD,        // a report field, supplied to the evaluator
+        NODE          // a node, or node path
+    }
+
+    /**
+     * The type of access.
+     */
+    private final Type type;
+
+    /**
+     * The expression, field name, or node path.
+     */
+    private final String name;
+
+    /**
+     * The node descriptor, for simple nodes. May be {@code null}.
+     */
+    private final NodeDescriptor node;
+
+    /**
+     * The name of the object that the node path is relative to, for {@code ObjectSet} fields. May be {@code null}.
+     */
+    private final String objectName;
+
+    /**
+     * The node path relative to the object, for {@code ObjectSet} fields. May be {@code null}.
+     */
+    private final String nodePath;
+
+    /**
+     * The no. of times the field has failed to evaluate.
+     */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * The no. of times the field has failed to evaluate, since it was last evaluated successfully.
+     */
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    /**
+     * The exception raised by the first failure. May be {@code null}.
+     */
+    private volatile Throwable failure;
+
+    /**
+     * Determines if the field has ever evaluated successfully.
+     */
+    private volatile boolean succeeded;
+
+    /**
+     * Determines if the value of the field is the same for every object.
+     */
+    private final boolean invariant;
+
+    /**
+     * The value of an invariant field, once evaluated.
+     */
+    private volatile Object constant;
+
+    /**
+     * Determines if {@link #constant} has been set.
+     */
+    private volatile boolean hasConstant;
+
+    /**
+     * The no. of consecutive failures, without any success, after which a field is considered to be failing.
+     */
+    public static final int FAILURE_THRESHOLD = 10;
+
+
+    /**
+     * Constructs a {@link FieldAccessor}.
+     *
+     * @param type the type of access
+     * @param name the expression, field name, or node path
+     * @param node the node descriptor, for simple nodes. May be {@code null}
+     */
+    private FieldAccessor(Type type, String name, NodeDescriptor node) {
+        this(type, name, node, null, null, false);
+    }
+
+    /**
+     * Constructs a {@link FieldAccessor}.
+     *
+     * @param type       the type of access
+     * @param name       the expression, field name, or node path
+     * @param node       the node descriptor, for simple nodes. May be {@code null}
+     * @param objectName the name of the object that the node path is relative to. May be {@code null}
+     * @param nodePath   the node path relative to the object. May be {@code null}
+     * @param invariant  if {@code true}, the value of the field is the same for every object
+     */
+    private FieldAccessor(Type type, String name, NodeDescriptor node, String objectName, String nodePath,
+                          boolean invariant) {
+        this.type = type;
+        this.name = name;
+        this.node = node;
+        this.objectName = objectName;
+        this.nodePath = nodePath;
+        this.invariant = invariant;
+    }
+
+    /**
+     * Returns the type of access.
+     *
+     * @return the type of access
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the name.
+     * <p/>
+     * This is the JXPath expression without its enclosing brackets for {@link Type#EXPRESSION}, the field name for
+     * {@link Type#FIELD}, or the node path for {@link Type#NODE}.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the node descriptor, for simple nodes.
+     *
+     * @return the node descriptor, or {@code null} if the node must be resolved from its path
+     */
+    public NodeDescriptor getNode() {
+        return node;
+    }
+
+    /**
+     * Returns the name of the object that the node path is relative to, for {@code ObjectSet} fields.
+     *
+     * @return the object name, or {@code null} if the path hasn't been split
+     */
+    public String getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * Returns the node path relative to the object, for {@code ObjectSet} fields.
+     *
+     * @return the node path. This is empty if the field refers to the object itself, or {@code null} if the path
+     *         hasn't been split
+     */
+    public String getNodePath() {
+        return nodePath;
+    }
+
+    /**
+     * Determines if the value of the field is the same for every object.
+     * <p/>
+     * This is the case for report fields, and expressions that don't refer to the object being evaluated.
+     *
+     * @return {@code true} if the value of the field is the same for every object
+     */
+    public boolean isInvariant() {
+        return invariant;
+    }
+
+    /**
+     * Determines if the value of an invariant field has been recorded.
+     *
+     * @return {@code true} if the value has been recorded
+     */
+    public boolean hasConstant() {
+        return hasConstant;
+    }
+
+    /**
+     * Returns the value of an invariant field.
+     *
+     * @return the value. May be {@code null}
+     */
+    public Object getConstant() {
+        return constant;
+    }
+
+    /**
+     * Records the value of an invariant field, so that it doesn't need to be evaluated again.
+     * <p/>
+     * This is ignored if the field isn't invariant.
+     *
+     * @param value the value. May be {@code null}
+     */
+    public void setConstant(Object value) {
+        if (invariant) {
+            constant = value;
+            hasConstant = true;
+        }
+    }
+
+    /**
+     * Records a successful evaluation of the field.
+     */
+    public void succeeded() {
+        if (!succeeded) {
+            succeeded = true;
+        }
+        if (consecutiveFailures.get() != 0) {
+            consecutiveFailures.set(0);
+        }
+    }
+
+    /**
+     * Records a failure to evaluate the field.
+     *
+     * @param exception the cause of the failure. May be {@code null} if the evaluation was skipped because the field
+     *                  is known to fail
+     * @return {@code true} if this is the first failure
+     */
+    public boolean failed(Throwable exception) {
+        if (failure == null && exception != null) {
+            failure = exception;
+        }
+        if (exception != null) {
+            consecutiveFailures.incrementAndGet();
+        }
+        return failures.incrementAndGet() == 1;
+    }
+
+    /**
+     * Determines if the field is known to fail.
+     * <p/>
+     * This is the case if it has failed {@link #FAILURE_THRESHOLD} times in a row, and has never succeeded. A single
+     * failure isn't sufficient, as it may be due to the data being evaluated rather than the field itself. Fields
+     * that have succeeded are always evaluated.
+     *
+     * @return {@code true} if the field is known to fail
+     */
+    public boolean isFailing() {
+        return !succeeded && consecutiveFailures.get() >= FAILURE_THRESHOLD;
+    }
+
+    /**
+     * Returns the no. of times the field has failed to evaluate.
+     *
+     * @return the no. of failures
+     */
+    public int getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Returns the exception raised by the first failure.
+     *
+     * @return the exception, or {@code null} if the field hasn't failed
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Creates an accessor for a JXPath expression.
+     *
+     * @param expression the expression, without its enclosing brackets
+     * @return a new accessor
+     */
+    public static FieldAccessor expression(String expression) {
+        return expression(expression, false);
+    }
+
+    /**
+     * Creates an accessor for a JXPath expression.
+     *
+     * @param expression the expression, without its enclosing brackets
+     * @param invariant  if {@code true}, the expression doesn't refer to the object being evaluated
+     * @return a new accessor
+     */
+    public static FieldAccessor expression(String expression, boolean invariant) {
+        return new FieldAccessor(Type.EXPRESSION, expression, null, null, null, invariant);
+    }
+
+    /**
+     * Creates an accessor for a report field.
+     *
+     * @param name the field name
+     * @return a new accessor
+     */
+    public static FieldAccessor field(String name) {
+        return new FieldAccessor(Type.FIELD, name, null, null, null, true);
+    }
+
+    /**
+     * Creates an accessor for a node path.
+     *
+     * @param path the node path
+     * @return a new accessor
+     */
+    public static FieldAccessor node(String path) {
+        return node(path, null);
+    }
+
+    /**
+     * Creates an accessor for a node.
+     *
+     * @param path the node path
+     * @param node the node descriptor, if the node can be read directly. May be {@code null}
+     * @return a new accessor
+     */
+    public static FieldAccessor node(String path, NodeDescriptor node) {
+        return new FieldAccessor(Type.NODE, path, node);
+    }
+
+    /**
+     * Creates an accessor for a node path that has been split into an object name and a path relative to it.
+     *
+     * @param path       the node path
+     * @param objectName the name of the object that the node path is relative to
+     * @param nodePath   the node path relative to the object. Empty if the path refers to the object itself
+     * @return a new accessor
+     */
+    public static FieldAccessor node(String path, String objectName, String nodePath) {
+        return new FieldAccessor(Type.NODE, path, null, objectName, nodePath, false);
+    }
+}
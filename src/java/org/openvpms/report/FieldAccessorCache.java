@@ -0,0 +1,133 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Caches {@link FieldAccessor}s by archetype and field name.
+ * <p/>
+ * As accessors depend on the report fields supplied to an evaluator, a cache should only be shared by evaluators
+ * with the same fields, typically those used to fill a single report.
+ * <p/>
+ * The cache also acts as a negative cache: once a field fails to evaluate, evaluators skip it for the remainder of
+ * the report, unless it has previously succeeded. Failures are reported once, via {@link #logFailures()}.
+ *
+ * @author Tim Anderson
+ */
+public class FieldAccessorCache {
+
+    /**
+     * The accessors, keyed on archetype short name, and then field name.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, FieldAccessor>> accessors
+            = new ConcurrentHashMap<String, ConcurrentMap<String, FieldAccessor>>();
+
+    /**
+     * The maximum no. of failing fields to report.
+     */
+    private static final int MAX_FAILURES_LOGGED = 10;
+
+    /**
+     * The logger.
+     */
+    private static final Log log = LogFactory.getLog(FieldAccessorCache.class);
+
+
+    /**
+     * Returns the accessor for a field.
+     *
+     * @param shortName the archetype short name. May be {@code null}
+     * @param field     the field name
+     * @return the accessor, or {@code null} if none has been cached
+     */
+    public FieldAccessor get(String shortName, String field) {
+        Map<String, FieldAccessor> map = accessors.get(getKey(shortName));
+        return (map != null) ? map.get(field) : null;
+    }
+
+    /**
+     * Caches the accessor for a field, if none is already cached.
+     * <p/>
+     * If another thread has already cached an accessor for the field, this is returned instead, so that all
+     * evaluators record their failures against the same accessor.
+     *
+     * @param shortName the archetype short name. May be {@code null}
+     * @param field     the field name
+     * @param accessor  the accessor
+     * @return the cached accessor
+     */
+    public FieldAccessor add(String shortName, String field, FieldAccessor accessor) {
+        String key = getKey(shortName);
+        ConcurrentMap<String, FieldAccessor> map = accessors.get(key);
+        if (map == null) {
+            ConcurrentMap<String, FieldAccessor> newMap = new ConcurrentHashMap<String, FieldAccessor>();
+            map = accessors.putIfAbsent(key, newMap);
+            if (map == null) {
+                map = newMap;
+            }
+        }
+        FieldAccessor existing = map.putIfAbsent(field, accessor);
+        return (existing != null) ? existing : accessor;
+    }
+
+    /**
+     * Logs the fields that failed to evaluate.
+     * <p/>
+     * A single warning is logged for each failing field, with the no. of failures and the first exception. At most
+     * {@value #MAX_FAILURES_LOGGED} fields are reported.
+     *
+     * @return the no. of fields that failed
+     */
+    public int logFailures() {
+        int count = 0;
+        for (Map.Entry<String, ConcurrentMap<String, FieldAccessor>> entry : accessors.entrySet()) {
+            for (FieldAccessor accessor : entry.getValue().values()) {
+                int failures = accessor.getFailures();
+                if (failures != 0) {
+                    if (count < MAX_FAILURES_LOGGED) {
+                        String archetype = entry.getKey();
+                        log.warn("Failed to evaluate: " + accessor.getName()
+                                 + (archetype.isEmpty() ? "" : " for " + archetype) + ", " + failures
+                                 + " time(s)", accessor.getFailure());
+                    }
+                    ++count;
+                }
+            }
+        }
+        if (count > MAX_FAILURES_LOGGED) {
+            log.warn((count - MAX_FAILURES_LOGGED) + " other field(s) failed to evaluate");
+        }
+        return count;
+    }
+
+    /**
+     * Returns the key for an archetype short name.
+     *
+     * @param shortName the archetype short name. May be {@code null}
+     * @return the key
+     */
+    private String getKey(String shortName) {
+        return (shortName != null) ? shortName : "";
+    }
+}
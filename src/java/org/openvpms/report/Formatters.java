@@ -0,0 +1,231 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import java.math.BigDecimal;
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.Format;
+import java.text.NumberFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Formats values for display in reports.
+ * <p/>
+ * As {@code java.text} formats aren't thread safe, formats are cached per thread, keyed on type and locale. This
+ * avoids creating new formats for each value formatted.
+ *
+ * @author Tim Anderson
+ */
+public class Formatters {
+
+    /**
+     * The locale, or {@code null} to use the default locale.
+     */
+    private final Locale locale;
+
+    /**
+     * The pattern used to format decimals.
+     */
+    public static final String DECIMAL_PATTERN = "#,##0.00;-#,##0.00";
+
+    /**
+     * The formatters that use the default locale.
+     */
+    private static final Formatters DEFAULT = new Formatters();
+
+    /**
+     * The formats for the current thread, keyed on type and locale.
+     */
+    private static final ThreadLocal<Map<FormatKey, Format>> formats = new ThreadLocal<Map<FormatKey, Format>>() {
+        @Override
+        protected Map<FormatKey, Format> initialValue() {
+            return new HashMap<FormatKey, Format>();
+        }
+    };
+
+    /**
+     * The format types.
+     */
+    private enum Type {
+        DATE, CURRENCY, DECIMAL
+    }
+
+
+    /**
+     * Constructs a {@link Formatters} that uses the default locale.
+     */
+    public Formatters() {
+        this(null);
+    }
+
+    /**
+     * Constructs a {@link Formatters}.
+     *
+     * @param locale the locale, or {@code null} to use the default locale
+     */
+    public Formatters(Locale locale) {
+        this.locale = locale;
+    }
+
+    /**
+     * Returns the formatters that use the default locale.
+     *
+     * @return the default formatters
+     */
+    public static Formatters getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the locale.
+     *
+     * @return the locale
+     */
+    public Locale getLocale() {
+        return (locale != null) ? locale : Locale.getDefault();
+    }
+
+    /**
+     * Formats a date, using the medium date style.
+     *
+     * @param date the date
+     * @return the formatted date
+     */
+    public String formatDate(Date date) {
+        return getFormat(Type.DATE).format(date);
+    }
+
+    /**
+     * Formats a currency amount.
+     *
+     * @param amount the amount
+     * @return the formatted amount
+     */
+    public String formatCurrency(Number amount) {
+        return getFormat(Type.CURRENCY).format(amount);
+    }
+
+    /**
+     * Formats a decimal using {@link #DECIMAL_PATTERN}.
+     *
+     * @param value the value
+     * @return the formatted value
+     */
+    public String formatDecimal(BigDecimal value) {
+        return getFormat(Type.DECIMAL).format(value);
+    }
+
+    /**
+     * Returns a format for the current thread, creating it if required.
+     *
+     * @param type the format type
+     * @return the format
+     */
+    private Format getFormat(Type type) {
+        Locale current = getLocale();
+        Map<FormatKey, Format> map = formats.get();
+        FormatKey key = new FormatKey(type, current);
+        Format result = map.get(key);
+        if (result == null) {
+            result = createFormat(type, current);
+            map.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a format.
+     *
+     * @param type   the format type
+     * @param locale the locale
+     * @return a new format
+     */
+    private Format createFormat(Type type, Locale locale) {
+        Format result;
+        switch (type) {
+            case DATE:
+                result = DateFormat.getDateInstance(DateFormat.MEDIUM, locale);
+                break;
+            case CURRENCY:
+                result = NumberFormat.getCurrencyInstance(locale);
+                break;
+            default:
+                result = new DecimalFormat(DECIMAL_PATTERN, DecimalFormatSymbols.getInstance(locale));
+        }
+        return result;
+    }
+
+    /**
+     * Key for cached formats.
+     */
+    private static class FormatKey {
+
+        /**
+         * The format type.
+         */
+        private final Type type;
+
+        /**
+         * The locale.
+         */
+        private final Locale locale;
+
+        /**
+         * Constructs a {@link FormatKey}.
+         *
+         * @param type   the format type
+         * @param locale the locale
+         */
+        public FormatKey(Type type, Locale locale) {
+            this.type = type;
+            this.locale = locale;
+        }
+
+        /**
+         * Indicates whether some other object is "equal to" this one.
+         *
+         * @param obj the reference object with which to compare
+         * @return {@code true} if this object is the same as the obj argument
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (obj instanceof FormatKey) {
+                FormatKey other = (FormatKey) obj;
+                return type == other.type && locale.equals(other.locale);
+            }
+            return false;
+        }
+
+        /**
+         * Returns a hash code value for the object.
+         *
+         * @return a hash code value for this object
+         */
+        @Override
+        public int hashCode() {
+            return type.hashCode() * 31 + locale.hashCode();
+        }
+    }
+}
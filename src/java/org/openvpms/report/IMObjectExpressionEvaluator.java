@@ -17,8 +17,11 @@
 package org.openvpms.report;
 
 import org.apache.commons.jxpath.Functions;
+import org.openvpms.component.business.domain.im.archetype.descriptor.ArchetypeDescriptor;
+import org.openvpms.component.business.domain.im.archetype.descriptor.NodeDescriptor;
 import org.openvpms.component.business.domain.im.common.IMObject;
 import org.openvpms.component.business.service.archetype.IArchetypeService;
+import org.openvpms.component.business.service.archetype.helper.DescriptorHelper;
 import org.openvpms.component.business.service.archetype.helper.NodeResolver;
 import org.openvpms.component.business.service.archetype.helper.ResolvingPropertySet;
 import org.openvpms.component.business.service.lookup.ILookupService;
@@ -78,6 +81,17 @@ public class IMObjectExpressionEvaluator extends AbstractExpressionEvaluator<IMO
         this.resolver = resolver;
     }
 
+    /**
+     * Rebinds the evaluator to a new object.
+     *
+     * @param object the object
+     */
+    @Override
+    public void setObject(IMObject object) {
+        super.setObject(object);
+        resolver = null;
+    }
+
     /**
      * Returns a node value.
      *
@@ -91,4 +105,50 @@ public class IMObjectExpressionEvaluator extends AbstractExpressionEvaluator<IMO
         return getValue(name, resolver);
     }
 
+    /**
+     * Returns a node value, using its accessor.
+     * <p/>
+     * Simple nodes are read directly from the object, bypassing the node resolver.
+     *
+     * @param accessor the node accessor
+     * @return the node value
+     */
+    @Override
+    protected Object getNodeValue(FieldAccessor accessor) {
+        NodeDescriptor node = accessor.getNode();
+        return (node != null) ? getValue(getObject(), node) : getNodeValue(accessor.getName());
+    }
+
+    /**
+     * Creates an accessor for an expression.
+     * <p/>
+     * Expressions that refer to a non-collection node of the object's archetype are associated with the node
+     * descriptor, so that they can be read directly.
+     *
+     * @param expression the expression
+     * @return a new accessor
+     */
+    @Override
+    protected FieldAccessor createAccessor(String expression) {
+        FieldAccessor result = super.createAccessor(expression);
+        if (result.getType() == FieldAccessor.Type.NODE && expression.indexOf('.') == -1) {
+            ArchetypeDescriptor archetype = DescriptorHelper.getArchetypeDescriptor(getObject(), getService());
+            NodeDescriptor node = (archetype != null) ? archetype.getNodeDescriptor(expression) : null;
+            if (node != null && !node.isCollection()) {
+                result = FieldAccessor.node(expression, node);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the archetype short name of the object, used to key cached field accessors.
+     *
+     * @return the archetype short name
+     */
+    @Override
+    protected String getArchetype() {
+        return getObject().getArchetypeId().getShortName();
+    }
+
 }
@@ -0,0 +1,201 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.openvpms.component.business.domain.im.archetype.descriptor.NodeDescriptor;
+import org.openvpms.component.business.domain.im.common.IMObject;
+import org.openvpms.component.business.service.archetype.AbstractArchetypeServiceListener;
+import org.openvpms.component.business.service.archetype.IArchetypeService;
+import org.openvpms.component.business.service.archetype.IArchetypeServiceListener;
+import org.openvpms.component.business.service.archetype.helper.DescriptorHelper;
+import org.openvpms.component.business.service.archetype.helper.LookupHelper;
+import org.openvpms.component.business.service.lookup.ILookupService;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Caches the names of lookups referred to by lookup nodes, keyed on archetype, node and lookup code.
+ * <p/>
+ * The cache is cleared whenever a lookup is saved or removed, so it may be shared by all reports.
+ *
+ * @author Tim Anderson
+ */
+public class LookupNameCache implements DisposableBean {
+
+    /**
+     * The archetype service.
+     */
+    private final IArchetypeService service;
+
+    /**
+     * The lookup service.
+     */
+    private final ILookupService lookups;
+
+    /**
+     * The lookup archetypes that are being listened to.
+     */
+    private final String[] shortNames;
+
+    /**
+     * The cached names, keyed on archetype, node and code.
+     */
+    private final Map<Key, String> names = new ConcurrentHashMap<Key, String>();
+
+    /**
+     * Listener to clear the cache when lookups change.
+     */
+    private final IArchetypeServiceListener listener;
+
+    /**
+     * Placeholder for lookup codes that have no corresponding lookup.
+     */
+    private static final String NO_NAME = new String();
+
+
+    /**
+     * Constructs a {@link LookupNameCache}.
+     *
+     * @param service the archetype service
+     * @param lookups the lookup service
+     */
+    public LookupNameCache(IArchetypeService service, ILookupService lookups) {
+        this.service = service;
+        this.lookups = lookups;
+        shortNames = DescriptorHelper.getShortNames("lookup.*", false, service);
+        listener = new AbstractArchetypeServiceListener() {
+            @Override
+            public void saved(IMObject object) {
+                clear();
+            }
+
+            @Override
+            public void removed(IMObject object) {
+                clear();
+            }
+        };
+        for (String shortName : shortNames) {
+            service.addListener(shortName, listener);
+        }
+    }
+
+    /**
+     * Returns the name of the lookup referred to by a lookup node.
+     *
+     * @param parent the parent object
+     * @param node   the lookup node
+     * @return the lookup name. May be {@code null}
+     */
+    public String getName(IMObject parent, NodeDescriptor node) {
+        String result;
+        Object code = node.getValue(parent);
+        if (code != null) {
+            Key key = new Key(parent.getArchetypeId().getShortName(), node.getName(), code);
+            result = names.get(key);
+            if (result == null) {
+                result = LookupHelper.getName(service, lookups, node, parent);
+                names.put(key, (result != null) ? result : NO_NAME);
+            } else if (result == NO_NAME) {
+                result = null;
+            }
+        } else {
+            result = LookupHelper.getName(service, lookups, node, parent);
+        }
+        return result;
+    }
+
+    /**
+     * Removes all cached names.
+     */
+    public void clear() {
+        names.clear();
+    }
+
+    /**
+     * Stops listening for lookup changes.
+     */
+    @Override
+    public void destroy() {
+        for (String shortName : shortNames) {
+            service.removeListener(shortName, listener);
+        }
+    }
+
+    /**
+     * Cache key.
+     */
+    private static class Key {
+
+        /**
+         * The parent archetype short name.
+         */
+        private final String shortName;
+
+        /**
+         * The node name.
+         */
+        private final String node;
+
+        /**
+         * The lookup code.
+         */
+        private final Object code;
+
+        /**
+         * Constructs a {@link Key}.
+         *
+         * @param shortName the parent archetype short name
+         * @param node      the node name
+         * @param code      the lookup code
+         */
+        public Key(String shortName, String node, Object code) {
+            this.shortName = shortName;
+            this.node = node;
+            this.code = code;
+        }
+
+        /**
+         * Indicates whether some other object is "equal to" this one.
+         *
+         * @param obj the reference object with which to compare
+         * @return {@code true} if this object is the same as the obj argument
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (obj instanceof Key) {
+                Key other = (Key) obj;
+                return shortName.equals(other.shortName) && node.equals(other.node) && code.equals(other.code);
+            }
+            return false;
+        }
+
+        /**
+         * Returns a hash code value for the object.
+         *
+         * @return a hash code value for this object
+         */
+        @Override
+        public int hashCode() {
+            return (shortName.hashCode() * 31 + node.hashCode()) * 31 + code.hashCode();
+        }
+    }
+}
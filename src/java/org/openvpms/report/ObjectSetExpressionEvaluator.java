@@ -26,7 +26,9 @@ import org.openvpms.component.business.service.lookup.ILookupService;
 import org.openvpms.component.system.common.query.ObjectSet;
 import org.openvpms.component.system.common.util.PropertySet;
 
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Set;
 
 
 /**
@@ -43,6 +45,11 @@ import java.util.Map;
  */
 public class ObjectSetExpressionEvaluator extends AbstractExpressionEvaluator<ObjectSet> {
 
+    /**
+     * The node resolvers for the objects in the set, keyed on object.
+     */
+    private final Map<IMObject, NodeResolver> resolvers = new IdentityHashMap<IMObject, NodeResolver>();
+
     /**
      * Constructs a {@link ObjectSetExpressionEvaluator}.
      *
@@ -71,6 +78,81 @@ public class ObjectSetExpressionEvaluator extends AbstractExpressionEvaluator<Ob
         super(set, fields, service, lookups, functions);
     }
 
+    /**
+     * Rebinds the evaluator to a new object set.
+     *
+     * @param set the object set
+     */
+    @Override
+    public void setObject(ObjectSet set) {
+        super.setObject(set);
+        resolvers.clear();
+    }
+
+    /**
+     * Returns a node value, using its accessor.
+     * <p/>
+     * If the accessor's path has been split into an object name and node path, these are used directly. If the
+     * object isn't present in the set, or the path hasn't been split, this falls back to
+     * {@link #getNodeValue(String)}.
+     *
+     * @param accessor the node accessor
+     * @return the node value
+     */
+    @Override
+    protected Object getNodeValue(FieldAccessor accessor) {
+        Object result;
+        String objectName = accessor.getObjectName();
+        ObjectSet set = getObject();
+        if (objectName == null) {
+            result = getNodeValue(accessor.getName());
+        } else {
+            result = set.get(objectName);
+            if (result instanceof IMObject) {
+                String nodePath = accessor.getNodePath();
+                if (!nodePath.isEmpty()) {
+                    result = getValue(nodePath, getResolver((IMObject) result));
+                }
+            } else if (result == null && !set.getNames().contains(objectName)) {
+                // the set doesn't have the same names as that used to create the accessor
+                result = getNodeValue(accessor.getName());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates an accessor for an expression.
+     * <p/>
+     * Node paths are split into the name of an object in the set, and the path of a node relative to it, using the
+     * names in the current set. Sets returned by the same query have the same names, so this only needs to be done
+     * once per report.
+     *
+     * @param expression the expression
+     * @return a new accessor
+     */
+    @Override
+    protected FieldAccessor createAccessor(String expression) {
+        FieldAccessor result = super.createAccessor(expression);
+        if (result.getType() == FieldAccessor.Type.NODE) {
+            Set<String> names = getObject().getNames();
+            if (names.contains(expression)) {
+                result = FieldAccessor.node(expression, expression, "");
+            } else {
+                int index = expression.indexOf('.');
+                while (index != -1) {
+                    String objectName = expression.substring(0, index);
+                    if (names.contains(objectName)) {
+                        result = FieldAccessor.node(expression, objectName, expression.substring(index + 1));
+                        break;
+                    }
+                    index = expression.indexOf('.', index + 1);
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns a node value.
      *
@@ -88,8 +170,7 @@ public class ObjectSetExpressionEvaluator extends AbstractExpressionEvaluator<Ob
                 object = set.get(objectName);
                 if (object instanceof IMObject) {
                     if (!StringUtils.isEmpty(nodeName)) {
-                        NodeResolver resolver = new NodeResolver((IMObject) object, getService());
-                        object = getValue(nodeName, resolver);
+                        object = getValue(nodeName, getResolver((IMObject) object));
                         break;
                     }
                 } else {
@@ -110,4 +191,21 @@ public class ObjectSetExpressionEvaluator extends AbstractExpressionEvaluator<Ob
         return object;
     }
 
+    /**
+     * Returns a node resolver for an object in the set.
+     * <p/>
+     * Resolvers are reused until the evaluator is rebound to another set.
+     *
+     * @param object the object
+     * @return the node resolver
+     */
+    private NodeResolver getResolver(IMObject object) {
+        NodeResolver resolver = resolvers.get(object);
+        if (resolver == null) {
+            resolver = new NodeResolver(object, getService());
+            resolvers.put(object, resolver);
+        }
+        return resolver;
+    }
+
 }
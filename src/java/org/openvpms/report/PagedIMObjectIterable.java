@@ -0,0 +1,60 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.openvpms.component.business.domain.im.common.IMObject;
+import org.openvpms.component.business.service.archetype.IArchetypeService;
+import org.openvpms.component.system.common.query.IArchetypeQuery;
+import org.openvpms.component.system.common.query.IPage;
+import org.springframework.transaction.PlatformTransactionManager;
+
+
+/**
+ * An {@code Iterable} over the results of an {@link IArchetypeQuery} that returns {@link IMObject}s, retrieving
+ * them a page at a time.
+ *
+ * @author Tim Anderson
+ * @see PagedQueryIterable
+ */
+public class PagedIMObjectIterable extends PagedQueryIterable<IMObject> {
+
+    /**
+     * Constructs a {@link PagedIMObjectIterable}.
+     *
+     * @param service            the archetype service
+     * @param query              the query
+     * @param pageSize           the no. of results to retrieve in each page
+     * @param transactionManager the transaction manager used to retrieve the next page in the background. May be
+     *                           {@code null} to retrieve pages on demand
+     * @param limit              the maximum no. of results to return, or {@code <= 0} to return all results
+     */
+    public PagedIMObjectIterable(IArchetypeService service, IArchetypeQuery query, int pageSize,
+                                 PlatformTransactionManager transactionManager, int limit) {
+        super(service, query, pageSize, transactionManager, limit);
+    }
+
+    /**
+     * Executes the query.
+     *
+     * @param query the query
+     * @return the page of results
+     */
+    @Override
+    protected IPage<IMObject> query(IArchetypeQuery query) {
+        return getService().get(query);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.openvpms.component.business.service.archetype.IArchetypeService;
+import org.openvpms.component.system.common.query.IArchetypeQuery;
+import org.openvpms.component.system.common.query.IPage;
+import org.openvpms.component.system.common.query.ObjectSet;
+import org.springframework.transaction.PlatformTransactionManager;
+
+
+/**
+ * An {@code Iterable} over the results of an {@link IArchetypeQuery} that returns {@link ObjectSet}s, retrieving
+ * them a page at a time.
+ * <p/>
+ * This enables reports to be generated over large result sets without holding all of the results in memory.
+ *
+ * @author Tim Anderson
+ * @see PagedQueryIterable
+ */
+public class PagedObjectSetIterable extends PagedQueryIterable<ObjectSet> {
+
+    /**
+     * Constructs a {@link PagedObjectSetIterable} that retrieves pages of {@link #DEFAULT_PAGE_SIZE} results, on
+     * demand.
+     *
+     * @param service the archetype service
+     * @param query   the query
+     */
+    public PagedObjectSetIterable(IArchetypeService service, IArchetypeQuery query) {
+        this(service, query, DEFAULT_PAGE_SIZE, null);
+    }
+
+    /**
+     * Constructs a {@link PagedObjectSetIterable}.
+     *
+     * @param service            the archetype service
+     * @param query              the query
+     * @param pageSize           the no. of results to retrieve in each page
+     * @param transactionManager the transaction manager used to retrieve the next page in the background. May be
+     *                           {@code null} to retrieve pages on demand
+     */
+    public PagedObjectSetIterable(IArchetypeService service, IArchetypeQuery query, int pageSize,
+                                  PlatformTransactionManager transactionManager) {
+        super(service, query, pageSize, transactionManager, 0);
+    }
+
+    /**
+     * Executes the query.
+     *
+     * @param query the query
+     * @return the page of results
+     */
+    @Override
+    protected IPage<ObjectSet> query(IArchetypeQuery query) {
+        return getService().getObjects(query);
+    }
+}
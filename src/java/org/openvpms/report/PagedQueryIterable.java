@@ -0,0 +1,345 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.openvpms.component.business.service.archetype.IArchetypeService;
+import org.openvpms.component.system.common.query.IArchetypeQuery;
+import org.openvpms.component.system.common.query.IPage;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * An {@code Iterable} over the results of an {@link IArchetypeQuery}, retrieving them a page at a time.
+ * <p/>
+ * This enables reports to be generated over large result sets without holding all of the results in memory. At most
+ * two pages are held at once: the page being iterated, and the next page, which is optionally retrieved in the
+ * background while the current page is being processed.
+ * <p/>
+ * Background retrieval is only performed if a transaction manager is supplied. Each page is then retrieved in its own
+ * read-only transaction, with the security context of the thread iterating the results. {@link #close()} should be
+ * invoked if iteration is abandoned, to cancel any page still being retrieved.
+ * <p/>
+ * Each call to {@link #iterator()} re-executes the query, so that data sources can be rewound.
+ * <p/>
+ * The query's first result and maximum results are managed by this class, and must not be changed while it is in use.
+ *
+ * @author Tim Anderson
+ */
+public abstract class PagedQueryIterable<T> implements Iterable<T>, Closeable {
+
+    /**
+     * The archetype service.
+     */
+    private final IArchetypeService service;
+
+    /**
+     * The query.
+     */
+    private final IArchetypeQuery query;
+
+    /**
+     * The no. of results to retrieve in each page.
+     */
+    private final int pageSize;
+
+    /**
+     * The template used to retrieve pages in the background, or {@code null} if pages are retrieved on demand.
+     */
+    private final TransactionTemplate template;
+
+    /**
+     * The pages being retrieved in the background.
+     */
+    private final Set<Future<List<T>>> pending = new HashSet<Future<List<T>>>();
+
+    /**
+     * The maximum no. of results to return, or {@code <= 0} to return all results.
+     */
+    private final int limit;
+
+    /**
+     * The default page size.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    /**
+     * The executor used to retrieve pages in the background.
+     */
+    private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "PagedQueryIterable");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+
+    /**
+     * Constructs a {@link PagedQueryIterable}.
+     *
+     * @param service            the archetype service
+     * @param query              the query
+     * @param pageSize           the no. of results to retrieve in each page
+     * @param transactionManager the transaction manager used to retrieve the next page in the background. May be
+     *                           {@code null} to retrieve pages on demand
+     * @param limit              the maximum no. of results to return, or {@code <= 0} to return all results
+     */
+    public PagedQueryIterable(IArchetypeService service, IArchetypeQuery query, int pageSize,
+                              PlatformTransactionManager transactionManager, int limit) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Argument 'pageSize' must be > 0");
+        }
+        this.service = service;
+        this.query = query;
+        this.pageSize = pageSize;
+        this.limit = limit;
+        if (transactionManager != null) {
+            template = new TransactionTemplate(transactionManager);
+            template.setReadOnly(true);
+        } else {
+            template = null;
+        }
+    }
+
+    /**
+     * Returns an iterator over the query results.
+     * <p/>
+     * This re-executes the query.
+     *
+     * @return a new iterator
+     */
+    public Iterator<T> iterator() {
+        return new PagedIterator();
+    }
+
+    /**
+     * Cancels any page being retrieved in the background.
+     * <p/>
+     * Iterators that haven't been exhausted must not be used after this is invoked.
+     */
+    public void close() {
+        List<Future<List<T>>> futures;
+        synchronized (pending) {
+            futures = new ArrayList<Future<List<T>>>(pending);
+            pending.clear();
+        }
+        for (Future<List<T>> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Returns the archetype service.
+     *
+     * @return the archetype service
+     */
+    protected IArchetypeService getService() {
+        return service;
+    }
+
+    /**
+     * Retrieves a page of results.
+     * <p/>
+     * This is synchronized on the query, as the query is shared by all iterators.
+     *
+     * @param firstResult the index of the first result to retrieve
+     * @return the page results
+     */
+    protected List<T> getPage(int firstResult) {
+        synchronized (query) {
+            query.setFirstResult(firstResult);
+            query.setMaxResults(getMaxResults(firstResult));
+            query.setCountResults(false);
+            IPage<T> page = query(query);
+            return page.getResults();
+        }
+    }
+
+    /**
+     * Executes the query.
+     *
+     * @param query the query
+     * @return the page of results
+     */
+    protected abstract IPage<T> query(IArchetypeQuery query);
+
+    /**
+     * Starts retrieving a page in the background.
+     * <p/>
+     * The page is retrieved in a read-only transaction, with the security context of the caller.
+     *
+     * @param firstResult the index of the first result to retrieve
+     * @return the pending page results
+     */
+    private Future<List<T>> submit(final int firstResult) {
+        final SecurityContext context = SecurityContextHolder.getContext();
+        Future<List<T>> result = executor.submit(new Callable<List<T>>() {
+            public List<T> call() throws Exception {
+                SecurityContextHolder.setContext(context);
+                try {
+                    return template.execute(new TransactionCallback<List<T>>() {
+                        public List<T> doInTransaction(TransactionStatus status) {
+                            return getPage(firstResult);
+                        }
+                    });
+                } finally {
+                    SecurityContextHolder.clearContext();
+                }
+            }
+        });
+        synchronized (pending) {
+            pending.add(result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the maximum no. of results to retrieve for the page starting at the specified result.
+     *
+     * @param firstResult the index of the first result of the page
+     * @return the maximum no. of results to retrieve
+     */
+    private int getMaxResults(int firstResult) {
+        return (limit > 0) ? Math.min(pageSize, limit - firstResult) : pageSize;
+    }
+
+    /**
+     * Iterates over the pages of the query results.
+     */
+    private class PagedIterator implements Iterator<T> {
+
+        /**
+         * The iterator over the current page. May be {@code null}.
+         */
+        private Iterator<T> current;
+
+        /**
+         * The next page, if it is being retrieved in the background. May be {@code null}.
+         */
+        private Future<List<T>> next;
+
+        /**
+         * The index of the first result of the next page.
+         */
+        private int firstResult;
+
+        /**
+         * Determines if the last page has been retrieved.
+         */
+        private boolean last;
+
+        /**
+         * Returns {@code true} if the iteration has more elements.
+         *
+         * @return {@code true} if the iterator has more elements
+         */
+        public boolean hasNext() {
+            while ((current == null || !current.hasNext()) && !last) {
+                advance();
+            }
+            return current != null && current.hasNext();
+        }
+
+        /**
+         * Returns the next element in the iteration.
+         *
+         * @return the next element in the iteration
+         * @throws NoSuchElementException if the iteration has no more elements
+         */
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        /**
+         * Not supported.
+         *
+         * @throws UnsupportedOperationException if invoked
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Moves to the next page, and starts retrieving the page after it if prefetching is enabled and the limit
+         * hasn't been reached.
+         */
+        private void advance() {
+            List<T> results = (next != null) ? get(next) : getPage(firstResult);
+            next = null;
+            int maxResults = getMaxResults(firstResult);
+            firstResult += maxResults;
+            if (results.size() < maxResults || (limit > 0 && firstResult >= limit)) {
+                last = true;
+            } else if (template != null) {
+                next = submit(firstResult);
+            }
+            current = results.iterator();
+        }
+
+        /**
+         * Waits for a page being retrieved in the background.
+         *
+         * @param future the page
+         * @return the page results
+         * @throws ReportException if the page could not be retrieved
+         */
+        private List<T> get(Future<List<T>> future) {
+            synchronized (pending) {
+                pending.remove(future);
+            }
+            try {
+                return future.get();
+            } catch (InterruptedException exception) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new ReportException(exception, ReportException.ErrorCode.FailedToGenerateReport,
+                                          exception.getMessage());
+            } catch (ExecutionException exception) {
+                Throwable cause = exception.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new ReportException(cause, ReportException.ErrorCode.FailedToGenerateReport,
+                                          cause.getMessage());
+            }
+        }
+    }
+}
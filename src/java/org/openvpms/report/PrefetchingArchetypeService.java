@@ -0,0 +1,229 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openvpms.component.business.domain.im.common.IMObject;
+import org.openvpms.component.business.domain.im.common.IMObjectReference;
+import org.openvpms.component.business.service.archetype.IArchetypeService;
+import org.openvpms.component.business.service.archetype.ReadOnlyArchetypeService;
+import org.openvpms.component.system.common.query.ArchetypeQuery;
+import org.openvpms.component.system.common.query.Constraints;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * A read-only archetype service that supports batched retrieval of objects by reference.
+ * <p/>
+ * Objects are retrieved via {@link #prefetch(Collection)} using one query per archetype, rather than one query per
+ * reference. These, and any objects subsequently retrieved via {@link #get(IMObjectReference)}, are held in an identity
+ * map for the duration of a report run, delimited by {@link #begin()} and {@link #end()}. References that don't
+ * resolve are also recorded, so they aren't queried again.
+ * <p/>
+ * The identity map is bound to the thread that started the run, so concurrent runs sharing the service don't see
+ * each other's objects. Outside of a run, objects are retrieved from the underlying service, and nothing is cached.
+ *
+ * @author Tim Anderson
+ */
+public class PrefetchingArchetypeService extends ReadOnlyArchetypeService {
+
+    /**
+     * The objects retrieved by the current thread's run, keyed on reference. References that don't resolve are mapped
+     * to {@link #MISSING}.
+     */
+    private final ThreadLocal<Map<IMObjectReference, Object>> objects
+            = new ThreadLocal<Map<IMObjectReference, Object>>();
+
+    /**
+     * The no. of rows that data sources should prefetch references for at a time.
+     */
+    private final int window;
+
+    /**
+     * Placeholder for references that don't resolve.
+     */
+    private static final Object MISSING = new Object();
+
+    /**
+     * The maximum no. of ids to include in a single query.
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * The logger.
+     */
+    private static final Log log = LogFactory.getLog(PrefetchingArchetypeService.class);
+
+
+    /**
+     * Constructs a {@link PrefetchingArchetypeService}.
+     *
+     * @param service the service to delegate to
+     * @param window  the no. of rows that data sources should prefetch references for at a time
+     */
+    public PrefetchingArchetypeService(IArchetypeService service, int window) {
+        super(service);
+        this.window = window;
+    }
+
+    /**
+     * Returns the no. of rows that data sources should prefetch references for at a time.
+     *
+     * @return the prefetch window
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Starts a report run on the current thread.
+     * <p/>
+     * If a run has already been started by the current thread, this is a no-op.
+     *
+     * @return {@code true} if a run was started, in which case {@link #end()} must be invoked when it completes,
+     *         or {@code false} if one was already in progress
+     */
+    public boolean begin() {
+        boolean result = false;
+        if (objects.get() == null) {
+            objects.set(new HashMap<IMObjectReference, Object>());
+            result = true;
+        }
+        return result;
+    }
+
+    /**
+     * Ends the report run on the current thread, discarding the objects it retrieved.
+     */
+    public void end() {
+        objects.remove();
+    }
+
+    /**
+     * Retrieves an object given its reference.
+     * <p/>
+     * Within a run, objects that have already been retrieved are returned without querying the underlying service.
+     *
+     * @param reference the object reference
+     * @return the corresponding object, or {@code null} if none is found
+     */
+    @Override
+    public IMObject get(IMObjectReference reference) {
+        IMObject result;
+        Map<IMObjectReference, Object> map = objects.get();
+        Object value = (map != null) ? map.get(reference) : null;
+        if (value == MISSING) {
+            result = null;
+        } else if (value != null) {
+            result = (IMObject) value;
+        } else {
+            result = super.get(reference);
+            if (map != null && reference != null) {
+                map.put(reference, (result != null) ? result : MISSING);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns an object retrieved by the current thread's run, without querying the underlying service.
+     *
+     * @param reference the object reference
+     * @return the object, or {@code null} if it hasn't been retrieved, doesn't exist, or there is no run in progress
+     */
+    public IMObject getCached(IMObjectReference reference) {
+        Map<IMObjectReference, Object> map = objects.get();
+        Object value = (map != null) ? map.get(reference) : null;
+        return (value != MISSING) ? (IMObject) value : null;
+    }
+
+    /**
+     * Retrieves objects in batches, making them available to {@link #get(IMObjectReference)}.
+     * <p/>
+     * References to objects that have already been retrieved, or that haven't been saved, are ignored.
+     * <p/>
+     * This is a no-op outside of a run.
+     *
+     * @param references the references of the objects to retrieve
+     */
+    public void prefetch(Collection<IMObjectReference> references) {
+        Map<IMObjectReference, Object> map = objects.get();
+        if (map == null) {
+            return;
+        }
+        Map<String, Set<IMObjectReference>> refs = new HashMap<String, Set<IMObjectReference>>();
+        for (IMObjectReference reference : references) {
+            if (reference != null && !reference.isNew() && !map.containsKey(reference)) {
+                String shortName = reference.getArchetypeId().getShortName();
+                Set<IMObjectReference> set = refs.get(shortName);
+                if (set == null) {
+                    set = new LinkedHashSet<IMObjectReference>();
+                    refs.put(shortName, set);
+                }
+                set.add(reference);
+            }
+        }
+        for (Map.Entry<String, Set<IMObjectReference>> entry : refs.entrySet()) {
+            List<IMObjectReference> list = new ArrayList<IMObjectReference>(entry.getValue());
+            for (int i = 0; i < list.size(); i += BATCH_SIZE) {
+                List<IMObjectReference> batch = list.subList(i, Math.min(i + BATCH_SIZE, list.size()));
+                prefetch(entry.getKey(), batch, map);
+            }
+        }
+    }
+
+    /**
+     * Retrieves a batch of objects of the same archetype.
+     *
+     * @param shortName  the archetype short name
+     * @param references the object references
+     * @param map        the identity map to add the objects to. References that don't resolve are added as missing
+     */
+    private void prefetch(String shortName, List<IMObjectReference> references, Map<IMObjectReference, Object> map) {
+        Object[] ids = new Object[references.size()];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = references.get(i).getId();
+        }
+        ArchetypeQuery query = new ArchetypeQuery(shortName, false, false);
+        query.add(Constraints.in("id", ids));
+        query.setMaxResults(ArchetypeQuery.ALL_RESULTS);
+        List<IMObject> results = get(query).getResults();
+        Set<Long> found = new HashSet<Long>();
+        for (IMObject object : results) {
+            map.put(object.getObjectReference(), object);
+            found.add(object.getId());
+        }
+        for (IMObjectReference reference : references) {
+            if (!found.contains(reference.getId())) {
+                map.put(reference, MISSING);
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Prefetched " + results.size() + " of " + ids.length + " " + shortName);
+        }
+    }
+
+}
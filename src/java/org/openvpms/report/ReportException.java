@@ -51,6 +51,10 @@ public class ReportException extends OpenVPMSException {
         NoTemplateForArchetype,
         UnsupportedTemplate,
         NoPagesToPrint,
+        MaxPagesExceeded,
+        MaxRowsExceeded,
+        InvalidSortCriteria,
+        FailedToSortCollection,
     }
 
     /**
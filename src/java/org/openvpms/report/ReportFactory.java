@@ -28,10 +28,15 @@ import org.openvpms.component.business.service.archetype.ReadOnlyArchetypeServic
 import org.openvpms.component.business.service.archetype.helper.DescriptorHelper;
 import org.openvpms.component.business.service.lookup.ILookupService;
 import org.openvpms.component.system.common.query.ObjectSet;
+import org.openvpms.report.jasper.AbstractJasperIMReport;
 import org.openvpms.report.jasper.TemplatedJasperIMObjectReport;
 import org.openvpms.report.jasper.TemplatedJasperObjectSetReport;
+import org.openvpms.report.jasper.export.ExporterRegistry;
 import org.openvpms.report.msword.MsWordIMReport;
 import org.openvpms.report.openoffice.OpenOfficeIMReport;
+import org.openvpms.report.print.PrintSpooler;
+import org.openvpms.report.print.PrinterRegistry;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import static org.openvpms.report.ReportException.ErrorCode.NoTemplateForArchetype;
 import static org.openvpms.report.ReportException.ErrorCode.UnsupportedTemplate;
@@ -64,6 +69,71 @@ public class ReportFactory {
      */
     private final ArchetypeFunctionsFactory factory;
 
+    /**
+     * The maximum no. of pages that Jasper reports may generate, or {@code <= 0} if there is no limit.
+     */
+    private int maxPages;
+
+    /**
+     * The maximum no. of rows that Jasper reports may read, or {@code <= 0} if there is no limit.
+     */
+    private int maxRows;
+
+    /**
+     * The spooler used to print reports asynchronously. May be {@code null}.
+     */
+    private PrintSpooler spooler;
+
+    /**
+     * The printer registry. May be {@code null}.
+     */
+    private PrinterRegistry printers;
+
+    /**
+     * Determines if OpenOffice reports are printed via PDF.
+     */
+    private boolean printViaPDF;
+
+    /**
+     * The registry used to locate Jasper report exporters.
+     */
+    private ExporterRegistry exporters = ExporterRegistry.getDefault();
+
+    /**
+     * The no. of rows that Jasper reports prefetch referenced objects for, or {@code <= 0} to disable prefetching.
+     */
+    private int prefetchWindow;
+
+    /**
+     * The formatters used by OpenOffice reports.
+     */
+    private Formatters formatters = Formatters.getDefault();
+
+    /**
+     * The display name cache shared by Jasper reports. May be {@code null}.
+     */
+    private DisplayNameCache names;
+
+    /**
+     * The lookup name cache shared by all reports. May be {@code null}.
+     */
+    private LookupNameCache lookupNames;
+
+    /**
+     * The document content cache shared by Jasper reports. May be {@code null}.
+     */
+    private DocumentContentCache contents;
+
+    /**
+     * The no. of rows that Jasper reports evaluate in a background thread, or {@code <= 0} to disable.
+     */
+    private int pipelineSize;
+
+    /**
+     * The transaction manager used by Jasper reports that evaluate rows in a background thread. May be {@code null}.
+     */
+    private PlatformTransactionManager transactionManager;
+
     /**
      * Constructs an {@link ReportFactory}.
      *
@@ -80,6 +150,134 @@ public class ReportFactory {
         this.factory = factory;
     }
 
+    /**
+     * Sets the maximum no. of pages that Jasper reports may generate.
+     *
+     * @param maxPages the maximum no. of pages, or {@code <= 0} if there is no limit
+     */
+    public void setMaxPages(int maxPages) {
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * Sets the maximum no. of rows that Jasper reports may read.
+     *
+     * @param maxRows the maximum no. of rows, or {@code <= 0} if there is no limit
+     */
+    public void setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Sets the spooler used to print reports asynchronously.
+     *
+     * @param spooler the spooler. May be {@code null} to print synchronously
+     */
+    public void setPrintSpooler(PrintSpooler spooler) {
+        this.spooler = spooler;
+    }
+
+    /**
+     * Sets the printer registry, used to avoid enumerating print services each time a Jasper report is printed.
+     *
+     * @param printers the printer registry. May be {@code null}
+     */
+    public void setPrinterRegistry(PrinterRegistry printers) {
+        this.printers = printers;
+    }
+
+    /**
+     * Determines if OpenOffice reports are printed by exporting them to PDF, and sending the PDF to the printer.
+     * <p/>
+     * This frees OpenOffice connections for rendering, but requires printers that accept PDF.
+     *
+     * @param printViaPDF if {@code true}, print via PDF, otherwise print using OpenOffice
+     */
+    public void setPrintViaPDF(boolean printViaPDF) {
+        this.printViaPDF = printViaPDF;
+    }
+
+    /**
+     * Sets the registry used to locate Jasper report exporters.
+     *
+     * @param exporters the exporter registry
+     */
+    public void setExporterRegistry(ExporterRegistry exporters) {
+        this.exporters = exporters;
+    }
+
+    /**
+     * Sets the formatters used to format OpenOffice user field values.
+     *
+     * @param formatters the formatters
+     */
+    public void setFormatters(Formatters formatters) {
+        this.formatters = formatters;
+    }
+
+    /**
+     * Sets the cache used by Jasper and OpenOffice reports to determine the display names of referenced objects.
+     * <p/>
+     * The cache should have a time-to-live, as it is shared by all reports. If none is set, each report uses its own
+     * cache.
+     *
+     * @param names the cache. May be {@code null}
+     */
+    public void setNameCache(DisplayNameCache names) {
+        this.names = names;
+    }
+
+    /**
+     * Sets the cache used to determine the names of lookups referred to by lookup nodes.
+     * <p/>
+     * This is shared by Jasper and OpenOffice reports.
+     *
+     * @param lookupNames the cache. May be {@code null}
+     */
+    public void setLookupNameCache(LookupNameCache lookupNames) {
+        this.lookupNames = lookupNames;
+    }
+
+    /**
+     * Sets the cache used by Jasper reports to read the content of document fields, such as images.
+     * <p/>
+     * If none is set, each report uses its own cache.
+     *
+     * @param contents the cache. May be {@code null}
+     */
+    public void setContentCache(DocumentContentCache contents) {
+        this.contents = contents;
+    }
+
+    /**
+     * Sets the no. of rows that Jasper reports prefetch referenced objects for.
+     * <p/>
+     * When enabled, objects referred to by report fields are retrieved in batches for each window of rows, rather
+     * than one query per row. The retrieved objects are only held for the duration of each fill.
+     *
+     * @param window the no. of rows, or {@code <= 0} to disable prefetching
+     */
+    public void setPrefetchWindow(int window) {
+        this.prefetchWindow = window;
+    }
+
+    /**
+     * Sets the no. of rows that Jasper reports retrieve and evaluate in a background thread, ahead of the fill
+     * thread.
+     * <p/>
+     * This overlaps object retrieval with report layout, for reports over objects read from a query. Objects held
+     * in memory are always evaluated by the thread filling the report. The background thread runs with the security
+     * context of the thread filling the report, and retrieves and evaluates each row in its own read-only
+     * transaction.
+     *
+     * @param size               the no. of rows, or {@code <= 0} to disable
+     * @param transactionManager the transaction manager. May be {@code null} if {@code size <= 0}
+     */
+    public void setPipeline(int size, PlatformTransactionManager transactionManager) {
+        this.pipelineSize = size;
+        this.transactionManager = transactionManager;
+    }
+
     /**
      * Creates a new report.
      *
@@ -91,9 +289,10 @@ public class ReportFactory {
         String name = template.getName();
         Report report;
         if (name.endsWith(DocFormats.JRXML_EXT)) {
-            IArchetypeService serviceProxy = proxy(service);
+            IArchetypeService serviceProxy = createService();
             Functions functions = factory.create(serviceProxy);
-            report = new TemplatedJasperIMObjectReport(template, serviceProxy, lookups, handlers, functions);
+            report = configure(new TemplatedJasperIMObjectReport(template, serviceProxy, lookups, handlers,
+                                                                 functions));
         } else {
             throw new ReportException(UnsupportedTemplate, name);
         }
@@ -111,14 +310,15 @@ public class ReportFactory {
     public IMReport<IMObject> createIMObjectReport(Document template) {
         String name = template.getName();
         IMReport<IMObject> report;
-        IArchetypeService serviceProxy = proxy(service);
+        IArchetypeService serviceProxy = createService();
         Functions functions = factory.create(serviceProxy);
         if (name.endsWith(DocFormats.JRXML_EXT)) {
-            report = new TemplatedJasperIMObjectReport(template, serviceProxy, lookups, handlers, functions);
+            report = configure(new TemplatedJasperIMObjectReport(template, serviceProxy, lookups, handlers,
+                                                                 functions));
         } else if (name.endsWith(DocFormats.ODT_EXT)) {
-            report = new OpenOfficeIMReport<IMObject>(template, serviceProxy, lookups, handlers, functions);
+            report = configure(new OpenOfficeIMReport<IMObject>(template, serviceProxy, lookups, handlers, functions));
         } else if (name.endsWith(DocFormats.DOC_EXT)) {
-            report = new MsWordIMReport<IMObject>(template, serviceProxy, lookups, handlers, functions);
+            report = configure(new MsWordIMReport<IMObject>(template, serviceProxy, lookups, handlers, functions));
         } else {
             throw new ReportException(UnsupportedTemplate, name);
         }
@@ -154,18 +354,69 @@ public class ReportFactory {
     public IMReport<ObjectSet> createObjectSetReport(Document template) {
         String name = template.getName();
         IMReport<ObjectSet> report;
-        IArchetypeService serviceProxy = proxy(service);
+        IArchetypeService serviceProxy = createService();
         Functions functions = factory.create(serviceProxy);
         if (name.endsWith(DocFormats.JRXML_EXT)) {
-            report = new TemplatedJasperObjectSetReport(template, serviceProxy, lookups, handlers, functions);
+            report = configure(new TemplatedJasperObjectSetReport(template, serviceProxy, lookups, handlers,
+                                                                  functions));
         } else if (name.endsWith(DocFormats.ODT_EXT)) {
-            report = new OpenOfficeIMReport<ObjectSet>(template, serviceProxy, lookups, handlers, functions);
+            report = configure(new OpenOfficeIMReport<ObjectSet>(template, serviceProxy, lookups, handlers,
+                                                                 functions));
         } else {
             throw new ReportException(UnsupportedTemplate, name);
         }
         return report;
     }
 
+    /**
+     * Applies the page and row limits, print spooler, printer registry, exporters and caches to a Jasper report.
+     *
+     * @param report the report
+     * @return the report
+     */
+    private <T extends AbstractJasperIMReport<?>> T configure(T report) {
+        report.setMaxPages(maxPages);
+        report.setMaxRows(maxRows);
+        report.setPrintSpooler(spooler);
+        report.setPrinterRegistry(printers);
+        report.setExporterRegistry(exporters);
+        report.setNameCache(names);
+        report.setLookupNameCache(lookupNames);
+        report.setContentCache(contents);
+        report.setPipeline(pipelineSize, transactionManager);
+        return report;
+    }
+
+    /**
+     * Applies the print spooler, printer registry, PDF printing option, formatters and name caches to an OpenOffice
+     * report.
+     *
+     * @param report the report
+     * @return the report
+     */
+    private <T extends OpenOfficeIMReport<?>> T configure(T report) {
+        report.setPrintSpooler(spooler);
+        report.setPrinterRegistry(printers);
+        report.setPrintViaPDF(printViaPDF);
+        report.setFormatters(formatters);
+        report.setNameCache(names);
+        report.setLookupNameCache(lookupNames);
+        return report;
+    }
+
+    /**
+     * Creates the archetype service for a report.
+     *
+     * @return the proxied service, wrapped to support prefetching if it is enabled
+     */
+    private IArchetypeService createService() {
+        IArchetypeService result = proxy(service);
+        if (prefetchWindow > 0) {
+            result = new PrefetchingArchetypeService(result, prefetchWindow);
+        }
+        return result;
+    }
+
     /**
      * Creates a proxy for the archetype service.
      *
@@ -24,6 +24,11 @@ import org.openvpms.archetype.rules.doc.DocumentHandlers;
 import org.openvpms.component.business.domain.im.common.IMObject;
 import org.openvpms.component.business.service.archetype.IArchetypeService;
 import org.openvpms.component.business.service.lookup.ILookupService;
+import org.openvpms.report.DisplayNameCache;
+import org.openvpms.report.DocumentContentCache;
+import org.openvpms.report.ExpressionContextFactory;
+import org.openvpms.report.FieldAccessorCache;
+import org.openvpms.report.LookupNameCache;
 
 
 /**
@@ -53,6 +58,36 @@ public abstract class AbstractIMObjectDataSource implements JRDataSource {
      */
     private final Functions functions;
 
+    /**
+     * The fill governor. May be {@code null}.
+     */
+    private FillGovernor governor;
+
+    /**
+     * The field accessor cache.
+     */
+    private FieldAccessorCache accessors = new FieldAccessorCache();
+
+    /**
+     * The factory for JXPath contexts. May be {@code null}.
+     */
+    private ExpressionContextFactory contexts;
+
+    /**
+     * The display name cache. May be {@code null}.
+     */
+    private DisplayNameCache names;
+
+    /**
+     * The lookup name cache. May be {@code null}.
+     */
+    private LookupNameCache lookupNames;
+
+    /**
+     * The document content cache. May be {@code null}.
+     */
+    private DocumentContentCache contents;
+
 
     /**
      * Constructs an {@link AbstractIMObjectDataSource}.
@@ -93,12 +128,149 @@ public abstract class AbstractIMObjectDataSource implements JRDataSource {
      * Returns a data source for a collection node.
      *
      * @param name      the collection node name
-     * @param sortNodes the list of nodes to sort on
+     * @param sortNodes the list of nodes to sort on, in the form supported by {@link SortCriteria}
      * @return the data source
      * @throws JRException for any error
      */
     public abstract JRRewindableDataSource getDataSource(String name, String[] sortNodes) throws JRException;
 
+    /**
+     * Returns a data source for a collection node, limiting the no. of objects returned.
+     * <p/>
+     * This is intended for large collections, and for subreports that only display the first few objects, e.g.
+     * the last 10 visits.
+     *
+     * @param name      the collection node name
+     * @param sortNodes the list of nodes to sort on, in the form supported by {@link SortCriteria}
+     * @param limit     the maximum no. of objects to return, or {@code <= 0} to return all objects
+     * @return the data source
+     * @throws JRException for any error
+     */
+    public abstract JRRewindableDataSource getDataSource(String name, String[] sortNodes, int limit)
+            throws JRException;
+
+    /**
+     * Sets the governor used to limit the no. of rows read.
+     * <p/>
+     * This is propagated to data sources created via {@link #getDataSource} and {@link #getExpressionDataSource}.
+     *
+     * @param governor the governor. May be {@code null}
+     */
+    public void setGovernor(FillGovernor governor) {
+        this.governor = governor;
+    }
+
+    /**
+     * Returns the governor used to limit the no. of rows read.
+     *
+     * @return the governor. May be {@code null}
+     */
+    public FillGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * Sets the cache of field accessors.
+     * <p/>
+     * This is propagated to data sources created via {@link #getDataSource} and {@link #getExpressionDataSource}, so
+     * that a single cache is used for a report.
+     *
+     * @param accessors the cache
+     */
+    public void setAccessorCache(FieldAccessorCache accessors) {
+        this.accessors = accessors;
+    }
+
+    /**
+     * Returns the cache of field accessors.
+     *
+     * @return the cache
+     */
+    public FieldAccessorCache getAccessorCache() {
+        return accessors;
+    }
+
+    /**
+     * Sets the factory for JXPath contexts.
+     * <p/>
+     * This is propagated to data sources created via {@link #getDataSource} and {@link #getExpressionDataSource}, so
+     * that the report fields are only registered as variables once for a report.
+     *
+     * @param contexts the factory
+     */
+    public void setContextFactory(ExpressionContextFactory contexts) {
+        this.contexts = contexts;
+    }
+
+    /**
+     * Returns the factory for JXPath contexts.
+     *
+     * @return the factory. May be {@code null}
+     */
+    public ExpressionContextFactory getContextFactory() {
+        return contexts;
+    }
+
+    /**
+     * Sets the cache used to determine the display names of referenced objects.
+     * <p/>
+     * This is propagated to data sources created via {@link #getDataSource} and {@link #getExpressionDataSource}.
+     *
+     * @param names the cache. May be {@code null}
+     */
+    public void setNameCache(DisplayNameCache names) {
+        this.names = names;
+    }
+
+    /**
+     * Returns the cache used to determine the display names of referenced objects.
+     *
+     * @return the cache. May be {@code null}
+     */
+    public DisplayNameCache getNameCache() {
+        return names;
+    }
+
+    /**
+     * Sets the cache used to determine the names of lookups referred to by lookup nodes.
+     * <p/>
+     * This is propagated to data sources created via {@link #getDataSource} and {@link #getExpressionDataSource}.
+     *
+     * @param lookupNames the cache. May be {@code null}
+     */
+    public void setLookupNameCache(LookupNameCache lookupNames) {
+        this.lookupNames = lookupNames;
+    }
+
+    /**
+     * Returns the cache used to determine the names of lookups referred to by lookup nodes.
+     *
+     * @return the cache. May be {@code null}
+     */
+    public LookupNameCache getLookupNameCache() {
+        return lookupNames;
+    }
+
+    /**
+     * Sets the cache used to read the content of document fields.
+     * <p/>
+     * This is propagated to data sources created via {@link #getDataSource} and {@link #getExpressionDataSource}.
+     *
+     * @param contents the cache. May be {@code null}
+     */
+    public void setContentCache(DocumentContentCache contents) {
+        this.contents = contents;
+    }
+
+    /**
+     * Returns the cache used to read the content of document fields.
+     *
+     * @return the cache. May be {@code null}
+     */
+    public DocumentContentCache getContentCache() {
+        return contents;
+    }
+
     /**
      * Returns the archetype service.
      *
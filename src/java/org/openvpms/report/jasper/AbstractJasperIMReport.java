@@ -16,6 +16,7 @@
 
 package org.openvpms.report.jasper;
 
+import net.sf.jasperreports.engine.DefaultJasperReportsContext;
 import net.sf.jasperreports.engine.JRDataSource;
 import net.sf.jasperreports.engine.JRException;
 import net.sf.jasperreports.engine.JRExpression;
@@ -25,33 +26,14 @@ import net.sf.jasperreports.engine.JasperCompileManager;
 import net.sf.jasperreports.engine.JasperFillManager;
 import net.sf.jasperreports.engine.JasperPrint;
 import net.sf.jasperreports.engine.JasperReport;
-import net.sf.jasperreports.engine.ReportContext;
-import net.sf.jasperreports.engine.export.JRCsvExporter;
-import net.sf.jasperreports.engine.export.JRPdfExporter;
-import net.sf.jasperreports.engine.export.JRPrintServiceExporter;
-import net.sf.jasperreports.engine.export.JRRtfExporter;
-import net.sf.jasperreports.engine.export.JRTextExporter;
-import net.sf.jasperreports.engine.export.JRXlsExporter;
-import net.sf.jasperreports.engine.export.JRXmlExporter;
+import net.sf.jasperreports.engine.fill.JRBaseFiller;
 import net.sf.jasperreports.engine.fill.JREvaluator;
+import net.sf.jasperreports.engine.fill.JRFiller;
 import net.sf.jasperreports.engine.query.JRQueryExecuter;
-import net.sf.jasperreports.export.Exporter;
-import net.sf.jasperreports.export.ExporterConfiguration;
-import net.sf.jasperreports.export.ExporterInput;
-import net.sf.jasperreports.export.OutputStreamExporterOutput;
-import net.sf.jasperreports.export.ReportExportConfiguration;
-import net.sf.jasperreports.export.SimpleCsvExporterConfiguration;
-import net.sf.jasperreports.export.SimpleExporterInput;
-import net.sf.jasperreports.export.SimpleOutputStreamExporterOutput;
-import net.sf.jasperreports.export.SimplePrintServiceExporterConfiguration;
-import net.sf.jasperreports.export.SimpleWriterExporterOutput;
-import net.sf.jasperreports.export.SimpleXlsReportConfiguration;
-import net.sf.jasperreports.export.WriterExporterOutput;
 import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.commons.jxpath.Functions;
 import org.apache.commons.lang.ObjectUtils;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 import org.openvpms.archetype.rules.doc.DocumentArchetypes;
 import org.openvpms.archetype.rules.doc.DocumentException;
 import org.openvpms.archetype.rules.doc.DocumentHandler;
@@ -60,22 +42,25 @@ import org.openvpms.component.business.domain.im.document.Document;
 import org.openvpms.component.business.service.archetype.ArchetypeServiceException;
 import org.openvpms.component.business.service.archetype.IArchetypeService;
 import org.openvpms.component.business.service.lookup.ILookupService;
+import org.openvpms.report.DisplayNameCache;
+import org.openvpms.report.DocumentContentCache;
 import org.openvpms.report.DocFormats;
+import org.openvpms.report.FieldAccessorCache;
+import org.openvpms.report.LookupNameCache;
 import org.openvpms.report.ParameterType;
+import org.openvpms.report.PrefetchingArchetypeService;
 import org.openvpms.report.PrintProperties;
 import org.openvpms.report.ReportException;
+import org.openvpms.report.jasper.export.ExporterRegistry;
+import org.openvpms.report.jasper.export.ReportExporter;
+import org.openvpms.report.print.PrintSpooler;
+import org.openvpms.report.print.PrinterRegistry;
+import org.springframework.transaction.PlatformTransactionManager;
 
-import javax.print.attribute.HashPrintRequestAttributeSet;
-import javax.print.attribute.HashPrintServiceAttributeSet;
-import javax.print.attribute.PrintRequestAttributeSet;
-import javax.print.attribute.PrintServiceAttributeSet;
-import javax.print.attribute.standard.Copies;
-import javax.print.attribute.standard.MediaSizeName;
-import javax.print.attribute.standard.MediaTray;
-import javax.print.attribute.standard.OrientationRequested;
-import javax.print.attribute.standard.PrinterName;
-import javax.print.attribute.standard.Sides;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.sql.Connection;
 import java.util.Collections;
@@ -123,15 +108,59 @@ public abstract class AbstractJasperIMReport<T> implements JasperIMReport<T> {
     private final Functions functions;
 
     /**
-     * The supported mime types.
+     * The maximum no. of pages that may be generated, or {@code <= 0} if there is no limit.
      */
-    private static final String[] MIME_TYPES = {DocFormats.PDF_TYPE, DocFormats.RTF_TYPE, DocFormats.XLS_TYPE,
-                                                DocFormats.CSV_TYPE, DocFormats.TEXT_TYPE};
+    private int maxPages;
 
     /**
-     * The logger.
+     * The maximum no. of rows that may be read, or {@code <= 0} if there is no limit.
      */
-    private static final Log log = LogFactory.getLog(AbstractJasperIMReport.class);
+    private int maxRows;
+
+    /**
+     * The print spooler. May be {@code null}.
+     */
+    private PrintSpooler spooler;
+
+    /**
+     * The printer registry. May be {@code null}.
+     */
+    private PrinterRegistry printers;
+
+    /**
+     * The exporters.
+     */
+    private ExporterRegistry exporters = ExporterRegistry.getDefault();
+
+    /**
+     * The display name cache shared between reports. May be {@code null}.
+     */
+    private DisplayNameCache names;
+
+    /**
+     * The lookup name cache. May be {@code null}.
+     */
+    private LookupNameCache lookupNames;
+
+    /**
+     * The document content cache shared between reports. May be {@code null}.
+     */
+    private DocumentContentCache contents;
+
+    /**
+     * The no. of rows to evaluate ahead of the fill thread, or {@code <= 0} to evaluate rows in the fill thread.
+     */
+    private int pipelineSize;
+
+    /**
+     * The transaction manager used when rows are evaluated in a background thread. May be {@code null}.
+     */
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * The size above which the output of streaming exporters is spooled to disk rather than held in memory.
+     */
+    private static final int SPOOL_THRESHOLD = 1024 * 1024;
 
 
     /**
@@ -209,6 +238,8 @@ public abstract class AbstractJasperIMReport<T> implements JasperIMReport<T> {
 
     /**
      * Returns the supported mime types for report documents.
+     * <p/>
+     * These are the mime types of the exporters in the {@link #setExporterRegistry exporter registry}.
      *
      * @return the supported mime types
      * @throws ReportException           for any report error
@@ -216,7 +247,7 @@ public abstract class AbstractJasperIMReport<T> implements JasperIMReport<T> {
      */
     @Override
     public String[] getMimeTypes() {
-        return MIME_TYPES;
+        return exporters.getMimeTypes();
     }
 
     /**
@@ -252,14 +283,13 @@ public abstract class AbstractJasperIMReport<T> implements JasperIMReport<T> {
         if (parameters != null) {
             properties.putAll(parameters);
         }
-        if (mimeType.equals(DocFormats.CSV_TYPE) || mimeType.equals(DocFormats.XLS_TYPE)) {
-            properties.put(JRParameter.IS_IGNORE_PAGINATION, true);
-        }
+        setPagination(properties, mimeType);
         JasperReport report = getReport();
         JRQueryExecuter executer = null;
         try {
-            executer = initDataSource(properties, fields, report);
-            JasperPrint print = JasperFillManager.fillReport(report, properties);
+            FillGovernor governor = createGovernor();
+            executer = initDataSource(properties, fields, report, governor);
+            JasperPrint print = fill(report, properties, null, governor);
             document = export(print, properties, mimeType);
         } catch (JRException exception) {
             throw new ReportException(exception, FailedToGenerateReport, exception.getMessage());
@@ -333,9 +363,7 @@ public abstract class AbstractJasperIMReport<T> implements JasperIMReport<T> {
         Document document;
         parameters = (parameters != null) ? new HashMap<String, Object>(parameters) : new HashMap<String, Object>();
         try {
-            if (mimeType.equals(DocFormats.CSV_TYPE) || mimeType.equals(DocFormats.XLS_TYPE)) {
-                parameters.put(JRParameter.IS_IGNORE_PAGINATION, true);
-            }
+            setPagination(parameters, mimeType);
             JasperPrint print = report(objects, parameters, fields);
             document = export(print, parameters, mimeType);
         } catch (JRException exception) {
@@ -357,9 +385,7 @@ public abstract class AbstractJasperIMReport<T> implements JasperIMReport<T> {
     public void generate(Iterable<T> objects, Map<String, Object> parameters, Map<String, Object> fields,
                          String mimeType, OutputStream stream) {
         try {
-            if (mimeType.equals(DocFormats.CSV_TYPE) || mimeType.equals(DocFormats.XLS_TYPE)) {
-                parameters.put(JRParameter.IS_IGNORE_PAGINATION, true);
-            }
+            setPagination(parameters, mimeType);
             JasperPrint report = report(objects, parameters, fields);
             export(report, stream, parameters, mimeType);
         } catch (JRException exception) {
@@ -384,8 +410,9 @@ public abstract class AbstractJasperIMReport<T> implements JasperIMReport<T> {
         }
         JRQueryExecuter executer = null;
         try {
-            executer = initDataSource(params, fields, report);
-            JasperPrint print = JasperFillManager.fillReport(getReport(), params);
+            FillGovernor governor = createGovernor();
+            executer = initDataSource(params, fields, report, governor);
+            JasperPrint print = fill(report, params, null, governor);
             print(print, properties);
         } catch (JRException exception) {
             throw new ReportException(exception, FailedToGenerateReport, exception.getMessage());
@@ -454,13 +481,168 @@ public abstract class AbstractJasperIMReport<T> implements JasperIMReport<T> {
     public JasperPrint report(Iterable<T> objects, Map<String, Object> parameters, Map<String, Object> fields)
             throws JRException {
         JRDataSource source = createDataSource(objects, fields);
+        FillGovernor governor = createGovernor();
+        DisplayNameCache cache = (names != null) ? names : new DisplayNameCache(service);
+        FieldAccessorCache accessors = null;
+        if (source instanceof AbstractIMObjectDataSource) {
+            accessors = ((AbstractIMObjectDataSource) source).getAccessorCache();
+            ((AbstractIMObjectDataSource) source).setGovernor(governor);
+            ((AbstractIMObjectDataSource) source).setNameCache(cache);
+            ((AbstractIMObjectDataSource) source).setLookupNameCache(lookupNames);
+            ((AbstractIMObjectDataSource) source).setContentCache(
+                    (contents != null) ? contents : new DocumentContentCache());
+        } else if (source instanceof ObjectSetDataSource) {
+            accessors = ((ObjectSetDataSource) source).getAccessorCache();
+            ((ObjectSetDataSource) source).setGovernor(governor);
+            ((ObjectSetDataSource) source).setNameCache(cache);
+            ((ObjectSetDataSource) source).setLookupNameCache(lookupNames);
+        }
+        if (source instanceof IMObjectCollectionDataSource && pipelineSize > 0 && transactionManager != null) {
+            ((IMObjectCollectionDataSource) source).setPipeline(getReport().getFields(), pipelineSize,
+                                                                transactionManager);
+        }
         HashMap<String, Object> properties = new HashMap<String, Object>(getDefaultParameters());
         if (parameters != null) {
             properties.putAll(parameters);
         }
         properties.put("dataSource", source);  // custom data source name, to avoid casting
         properties.put(JRParameter.REPORT_DATA_SOURCE, source);
-        return JasperFillManager.fillReport(getReport(), properties, source);
+        try {
+            return fill(getReport(), properties, source, governor);
+        } finally {
+            if (source instanceof IMObjectCollectionDataSource) {
+                // stop any background evaluation of rows, and delete any external sort files, if the fill was
+                // abandoned
+                ((IMObjectCollectionDataSource) source).close();
+            } else if (source instanceof IMObjectDataSource) {
+                ((IMObjectDataSource) source).close();
+            }
+            if (accessors != null) {
+                // report any fields that failed to evaluate once, rather than for every row
+                accessors.logFailures();
+            }
+        }
+    }
+
+    /**
+     * Sets the maximum no. of pages that may be generated.
+     * <p/>
+     * If exceeded, report generation is aborted with a {@link ReportException}.
+     *
+     * @param maxPages the maximum no. of pages, or {@code <= 0} if there is no limit
+     */
+    public void setMaxPages(int maxPages) {
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * Returns the maximum no. of pages that may be generated.
+     *
+     * @return the maximum no. of pages, or {@code <= 0} if there is no limit
+     */
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    /**
+     * Sets the maximum no. of rows that may be read, across the report and its sub-reports.
+     * <p/>
+     * If exceeded, report generation is aborted with a {@link ReportException}.
+     *
+     * @param maxRows the maximum no. of rows, or {@code <= 0} if there is no limit
+     */
+    public void setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Returns the maximum no. of rows that may be read.
+     *
+     * @return the maximum no. of rows, or {@code <= 0} if there is no limit
+     */
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    /**
+     * Registers a spooler to print reports asynchronously.
+     * <p/>
+     * When set, the print methods return once the report has been filled; printer errors are reported to the
+     * spooler's listeners rather than the caller.
+     *
+     * @param spooler the spooler. May be {@code null} to print synchronously
+     */
+    public void setPrintSpooler(PrintSpooler spooler) {
+        this.spooler = spooler;
+    }
+
+    /**
+     * Registers a printer registry, used to avoid enumerating print services each time a report is printed.
+     *
+     * @param printers the printer registry. May be {@code null}
+     */
+    public void setPrinterRegistry(PrinterRegistry printers) {
+        this.printers = printers;
+    }
+
+    /**
+     * Sets the registry used to locate exporters.
+     *
+     * @param exporters the exporter registry
+     */
+    public void setExporterRegistry(ExporterRegistry exporters) {
+        this.exporters = exporters;
+    }
+
+    /**
+     * Sets the cache used to determine the display names of referenced objects.
+     * <p/>
+     * This allows a cache with a time-to-live to be shared between reports. If none is set, each report uses its own
+     * cache.
+     *
+     * @param names the cache. May be {@code null}
+     */
+    public void setNameCache(DisplayNameCache names) {
+        this.names = names;
+    }
+
+    /**
+     * Sets the cache used to determine the names of lookups referred to by lookup nodes.
+     *
+     * @param lookupNames the cache. May be {@code null}
+     */
+    public void setLookupNameCache(LookupNameCache lookupNames) {
+        this.lookupNames = lookupNames;
+    }
+
+    /**
+     * Sets the cache used to read the content of document fields, such as images.
+     * <p/>
+     * This allows images such as practice logos to be shared between reports. If none is set, each report uses its
+     * own cache.
+     *
+     * @param contents the cache. May be {@code null}
+     */
+    public void setContentCache(DocumentContentCache contents) {
+        this.contents = contents;
+    }
+
+    /**
+     * Sets the no. of rows to retrieve and evaluate in a background thread, ahead of the fill thread.
+     * <p/>
+     * This only applies to reports over objects read from a query, such as a
+     * {@link org.openvpms.report.PagedIMObjectIterable}. Objects held in memory may belong to the fill thread's
+     * session, so they are always evaluated by the fill thread.
+     * <p/>
+     * The background thread runs with the security context of the fill thread, and retrieves and evaluates each row
+     * in its own read-only transaction.
+     *
+     * @param size               the no. of rows, or {@code <= 0} to evaluate rows in the fill thread
+     * @param transactionManager the transaction manager. May be {@code null} if {@code size <= 0}
+     */
+    public void setPipeline(int size, PlatformTransactionManager transactionManager) {
+        this.pipelineSize = size;
+        this.transactionManager = transactionManager;
     }
 
     /**
@@ -517,6 +699,82 @@ public abstract class AbstractJasperIMReport<T> implements JasperIMReport<T> {
         return new HashMap<String, Object>();
     }
 
+    /**
+     * Fills a report.
+     *
+     * @param report     the report to fill
+     * @param parameters the report parameters
+     * @param dataSource the data source. If {@code null}, the data source will be determined from the parameters
+     * @param governor   the governor to limit the no. of pages and rows. May be {@code null}
+     * @return the filled report
+     * @throws ReportException if a limit is exceeded
+     * @throws JRException     for any other error
+     */
+    protected JasperPrint fill(JasperReport report, Map<String, Object> parameters, JRDataSource dataSource,
+                               FillGovernor governor) throws JRException {
+        // objects prefetched during the fill are only held until it completes
+        PrefetchingArchetypeService prefetcher = (service instanceof PrefetchingArchetypeService)
+                                                 ? (PrefetchingArchetypeService) service : null;
+        boolean run = prefetcher != null && prefetcher.begin();
+        try {
+            return doFill(report, parameters, dataSource, governor);
+        } finally {
+            if (run) {
+                prefetcher.end();
+            }
+        }
+    }
+
+    /**
+     * Fills a report.
+     *
+     * @param report     the report to fill
+     * @param parameters the report parameters
+     * @param dataSource the data source. If {@code null}, the data source will be determined from the parameters
+     * @param governor   the governor to limit the no. of pages and rows. May be {@code null}
+     * @return the filled report
+     * @throws ReportException if a limit is exceeded
+     * @throws JRException     for any other error
+     */
+    private JasperPrint doFill(JasperReport report, Map<String, Object> parameters, JRDataSource dataSource,
+                               FillGovernor governor) throws JRException {
+        JasperPrint result;
+        if (governor == null) {
+            if (dataSource != null) {
+                result = JasperFillManager.fillReport(report, parameters, dataSource);
+            } else {
+                result = JasperFillManager.fillReport(report, parameters);
+            }
+        } else {
+            JRBaseFiller filler = JRFiller.createFiller(DefaultJasperReportsContext.getInstance(), report);
+            filler.addFillListener(governor);
+            try {
+                if (dataSource != null) {
+                    result = filler.fill(parameters, dataSource);
+                } else {
+                    result = filler.fill(parameters);
+                }
+            } catch (JRException exception) {
+                // JasperReports may wrap the exception raised by the governor, so rethrow it if a limit was exceeded
+                governor.check();
+                throw exception;
+            } catch (RuntimeException exception) {
+                governor.check();
+                throw exception;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a governor to limit the no. of pages and rows, if limits have been specified.
+     *
+     * @return a new governor, or {@code null} if there are no limits
+     */
+    protected FillGovernor createGovernor() {
+        return (maxPages > 0 || maxRows > 0) ? new FillGovernor(maxPages, maxRows) : null;
+    }
+
     /**
      * Converts a report to a document.
      *
@@ -529,15 +787,43 @@ public abstract class AbstractJasperIMReport<T> implements JasperIMReport<T> {
      */
     protected Document export(JasperPrint report, Map<String, Object> parameters, String mimeType) {
         Document document;
+        ReportExporter exporter = getExporter(mimeType);
+        String name = report.getName() + "." + exporter.getExtension();
         try {
-            ByteArrayOutputStream output = new ByteArrayOutputStream(2048);
-            String ext = export(report, output, parameters, mimeType);
-            byte[] data = output.toByteArray();
-
-            String name = report.getName() + "." + ext;
             DocumentHandler handler = handlers.get(name, DocumentArchetypes.DEFAULT_DOCUMENT, mimeType);
-            ByteArrayInputStream stream = new ByteArrayInputStream(data);
-            document = handler.create(name, stream, mimeType, data.length);
+            if (exporter.isStreaming()) {
+                // spool large output to disk rather than holding it in memory
+                DeferredFileOutputStream output = new DeferredFileOutputStream(SPOOL_THRESHOLD, "openvpms", ".tmp",
+                                                                               null);
+                try {
+                    exporter.export(report, output, parameters);
+                    output.close();
+                    if (output.isInMemory()) {
+                        byte[] data = output.getData();
+                        document = handler.create(name, new ByteArrayInputStream(data), mimeType, data.length);
+                    } else {
+                        File file = output.getFile();
+                        InputStream stream = new FileInputStream(file);
+                        try {
+                            document = handler.create(name, stream, mimeType, (int) file.length());
+                        } finally {
+                            stream.close();
+                        }
+                    }
+                } finally {
+                    output.close();
+                    File file = output.getFile();
+                    if (file != null && !file.delete()) {
+                        file.deleteOnExit();
+                    }
+                }
+            } else {
+                ByteArrayOutputStream output = new ByteArrayOutputStream(2048);
+                exporter.export(report, output, parameters);
+                byte[] data = output.toByteArray();
+                ByteArrayInputStream stream = new ByteArrayInputStream(data);
+                document = handler.create(name, stream, mimeType, data.length);
+            }
         } catch (DocumentException exception) {
             throw new ReportException(exception, FailedToGenerateReport, exception.getMessage());
         } catch (JRException exception) {
@@ -560,151 +846,43 @@ public abstract class AbstractJasperIMReport<T> implements JasperIMReport<T> {
      */
     protected String export(JasperPrint report, OutputStream stream, Map<String, Object> parameters,
                             String mimeType) throws JRException {
-        String ext;
-        if (DocFormats.PDF_TYPE.equals(mimeType)) {
-            exportToPDF(report, stream);
-            ext = DocFormats.PDF_EXT;
-        } else if (DocFormats.RTF_TYPE.equals(mimeType)) {
-            exportToRTF(report, stream);
-            ext = DocFormats.RTF_EXT;
-        } else if (DocFormats.XLS_TYPE.equals(mimeType)) {
-            exportToXLS(report, stream);
-            ext = DocFormats.XLS_EXT;
-        } else if (DocFormats.CSV_TYPE.equals(mimeType)) {
-            exportToCSV(report, stream);
-            ext = DocFormats.CSV_EXT;
-        } else if (DocFormats.XML_TYPE.equals(mimeType)) {
-            exportToXML(report, stream);
-            ext = DocFormats.XML_EXT;
-        } else if (DocFormats.TEXT_TYPE.equals(mimeType)) {
-            exportToText(report, stream, parameters);
-            ext = DocFormats.TEXT_EXT;
-        } else {
-            throw new ReportException(UnsupportedMimeType, mimeType);
-        }
-        return ext;
+        ReportExporter exporter = getExporter(mimeType);
+        exporter.export(report, stream, parameters);
+        return exporter.getExtension();
     }
 
     /**
-     * Exports a generated jasper report to PDF.
+     * Returns the exporter for a mime type.
      *
-     * @param report the report
-     * @param stream the stream to write to
-     * @throws JRException if the export fails
+     * @param mimeType the mime type
+     * @return the exporter
+     * @throws ReportException if the mime type is not supported
      */
-    private void exportToPDF(JasperPrint report, OutputStream stream) throws JRException {
-        exportStream(report, stream, new JRPdfExporter());
-    }
-
-    /**
-     * Exports a generated jasper report to an RTF stream.
-     *
-     * @param report the report
-     * @param stream the stream to write to
-     * @throws JRException if the export fails
-     */
-    private void exportToRTF(JasperPrint report, OutputStream stream) throws JRException {
-        exportWriter(report, stream, new JRRtfExporter());
-    }
-
-    /**
-     * Exports a generated jasper report to a stream as XLS.
-     *
-     * @param report the report
-     * @param stream the stream to write to
-     * @throws JRException if the export fails
-     */
-    private void exportToXLS(JasperPrint report, OutputStream stream) throws JRException {
-        JRXlsExporter exporter = new JRXlsExporter();
-        SimpleXlsReportConfiguration configuration = new SimpleXlsReportConfiguration();
-        configuration.setDetectCellType(true);
-        configuration.setWhitePageBackground(false);
-        configuration.setIgnorePageMargins(true);
-        configuration.setCollapseRowSpan(true);
-        configuration.setRemoveEmptySpaceBetweenRows(true);
-        configuration.setRemoveEmptySpaceBetweenColumns(true);
-        exporter.setConfiguration(configuration);
-        exportStream(report, stream, exporter);
-    }
-
-    /**
-     * Exports a generated jasper report to a stream as CSV.
-     *
-     * @param report the report
-     * @param stream the stream to write to
-     * @throws JRException if the export fails
-     */
-    private void exportToCSV(JasperPrint report, OutputStream stream) throws JRException {
-        JRCsvExporter exporter = new JRCsvExporter();
-        SimpleCsvExporterConfiguration configuration = new SimpleCsvExporterConfiguration();
-        configuration.setFieldDelimiter(",");
-        configuration.setRecordDelimiter("\n");
-        exporter.setConfiguration(configuration);
-        exportWriter(report, stream, exporter);
-    }
-
-    /**
-     * Exports a generated jasper report to a stream as XML.
-     *
-     * @param report the report
-     * @param stream the stream to write to
-     * @throws JRException if the export fails
-     */
-    private void exportToXML(JasperPrint report, OutputStream stream) throws JRException {
-        exportWriter(report, stream, new JRXmlExporter());
-    }
-
-    /**
-     * Exports a generated jasper report to a stream as plain text.
-     *
-     * @param report the report
-     * @param stream the stream to write to
-     * @throws JRException if the export fails
-     */
-    private void exportToText(JasperPrint report, OutputStream stream, Map<String, Object> parameters)
-            throws JRException {
-        JRTextExporter exporter = new JRTextExporter();
-        ReportContext context = JasperReportHelper.createReportContext(parameters);
-        exporter.setReportContext(context);
-        exportWriter(report, stream, exporter);
-    }
-
-    /**
-     * Exports a report using a stream.
-     *
-     * @param report   the report to export
-     * @param stream   the stream to export to
-     * @param exporter the exporter
-     * @throws JRException if the export fails
-     */
-    private void exportStream(JasperPrint report, OutputStream stream,
-                              Exporter<ExporterInput, ? extends ReportExportConfiguration,
-                                      ? extends ExporterConfiguration, OutputStreamExporterOutput> exporter)
-            throws JRException {
-        exporter.setExporterInput(new SimpleExporterInput(report));
-        exporter.setExporterOutput(new SimpleOutputStreamExporterOutput(stream));
-        exporter.exportReport();
+    protected ReportExporter getExporter(String mimeType) {
+        ReportExporter exporter = exporters.get(mimeType);
+        if (exporter == null) {
+            throw new ReportException(UnsupportedMimeType, mimeType);
+        }
+        return exporter;
     }
 
     /**
-     * Exports a report using a writer.
+     * Disables pagination if the exporter for a mime type doesn't require it.
      *
-     * @param report   the report to export
-     * @param stream   the underlying stream to export to
-     * @param exporter the exporter
-     * @throws JRException if the export fails
+     * @param parameters the report parameters
+     * @param mimeType   the mime type that the report will be exported to
      */
-    private void exportWriter(JasperPrint report, OutputStream stream,
-                              Exporter<ExporterInput, ? extends ReportExportConfiguration,
-                                      ? extends ExporterConfiguration, WriterExporterOutput> exporter)
-            throws JRException {
-        exporter.setExporterInput(new SimpleExporterInput(report));
-        exporter.setExporterOutput(new SimpleWriterExporterOutput(stream));
-        exporter.exportReport();
+    private void setPagination(Map<String, Object> parameters, String mimeType) {
+        ReportExporter exporter = exporters.get(mimeType);
+        if (exporter != null && !exporter.isPaginated()) {
+            parameters.put(JRParameter.IS_IGNORE_PAGINATION, true);
+        }
     }
 
     /**
      * Prints a {@code JasperPrint} to a printer.
+     * <p/>
+     * If a {@link PrintSpooler} has been registered, the report is queued for printing and this returns immediately.
      *
      * @param print      the object to print
      * @param properties the print properties
@@ -715,51 +893,12 @@ public abstract class AbstractJasperIMReport<T> implements JasperIMReport<T> {
         if (print.getPages().isEmpty()) {
             throw new ReportException(NoPagesToPrint);
         }
-        if (log.isDebugEnabled()) {
-            log.debug("PrinterName: " + properties.getPrinterName());
-        }
-
-        JRPrintServiceExporter exporter = new JRPrintServiceExporter();
-        exporter.setExporterInput(new SimpleExporterInput(print));
-        PrintRequestAttributeSet aset = new HashPrintRequestAttributeSet();
-        aset.add(new Copies(properties.getCopies()));
-        MediaSizeName mediaSize = properties.getMediaSize();
-        OrientationRequested orientation = properties.getOrientation();
-        MediaTray tray = properties.getMediaTray();
-        Sides sides = properties.getSides();
-        if (mediaSize != null) {
-            if (log.isDebugEnabled()) {
-                log.debug("MediaSizeName: " + mediaSize);
-            }
-            aset.add(mediaSize);
-        }
-        if (orientation != null) {
-            if (log.isDebugEnabled()) {
-                log.debug("Orientation: " + orientation);
-            }
-            aset.add(orientation);
-        }
-        if (tray != null) {
-            if (log.isDebugEnabled()) {
-                log.debug("MediaTray: " + tray);
-            }
-            aset.add(tray);
-        }
-        if (sides != null) {
-            if (log.isDebugEnabled()) {
-                log.debug("Sides: " + sides);
-            }
-            aset.add(sides);
+        JasperPrintJob job = new JasperPrintJob(print, properties, printers);
+        if (spooler != null) {
+            spooler.submit(job);
+        } else {
+            job.print();
         }
-        SimplePrintServiceExporterConfiguration printConfiguration = new SimplePrintServiceExporterConfiguration();
-        printConfiguration.setPrintRequestAttributeSet(aset);
-        // set the printer name
-        PrintServiceAttributeSet serviceAttributeSet = new HashPrintServiceAttributeSet();
-        serviceAttributeSet.add(new PrinterName(properties.getPrinterName(), null));
-        printConfiguration.setPrintServiceAttributeSet(serviceAttributeSet);
-        exporter.setConfiguration(printConfiguration);
-        // print it
-        exporter.exportReport();
     }
 
     /**
@@ -778,17 +917,19 @@ public abstract class AbstractJasperIMReport<T> implements JasperIMReport<T> {
     /**
      * Initialises a JDBC data source, if required.
      *
-     * @param params the report parameters
-     * @param fields a map of additional field names and their values, to pass to the report. May be {@code null}
-     * @param report the report
+     * @param params   the report parameters
+     * @param fields   a map of additional field names and their values, to pass to the report. May be {@code null}
+     * @param report   the report
+     * @param governor the governor used to limit the no. of rows read. May be {@code null}
      * @throws JRException if the data source cannot be created
      */
-    private JRQueryExecuter initDataSource(Map<String, Object> params, Map<String, Object> fields, JasperReport report)
+    private JRQueryExecuter initDataSource(Map<String, Object> params, Map<String, Object> fields, JasperReport report,
+                                           FillGovernor governor)
             throws JRException {
         JRQueryExecuter executer = null;
         Connection connection = (Connection) params.get(JRParameter.REPORT_CONNECTION);
         if (connection != null) {
-            executer = new JDBCQueryExecuter(report.getMainDataset(), params, fields, service);
+            executer = new JDBCQueryExecuter(report.getMainDataset(), params, fields, service, governor);
             JRDataSource dataSource = executer.createDatasource();
             params.put(JRParameter.REPORT_DATA_SOURCE, dataSource);
         }
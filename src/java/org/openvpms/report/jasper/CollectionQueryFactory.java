@@ -0,0 +1,123 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper;
+
+import org.openvpms.component.business.domain.im.archetype.descriptor.ArchetypeDescriptor;
+import org.openvpms.component.business.domain.im.archetype.descriptor.NodeDescriptor;
+import org.openvpms.component.business.domain.im.common.IMObject;
+import org.openvpms.component.business.service.archetype.IArchetypeService;
+import org.openvpms.component.business.service.archetype.helper.DescriptorHelper;
+import org.openvpms.component.system.common.query.ArchetypeQuery;
+import org.openvpms.component.system.common.query.Constraints;
+import org.openvpms.component.system.common.query.IArchetypeQuery;
+
+import java.util.List;
+
+
+/**
+ * Creates queries to retrieve the objects of a collection node from the database, rather than loading them via the
+ * parent object.
+ * <p/>
+ * This is only supported for collections of relationships and participations, where the relationship or
+ * participation refers back to the parent via a node that can be constrained. Sorting is performed by the query, so
+ * the sort nodes must be persistent nodes of each archetype in the collection. Null values are ordered by the
+ * database, which sorts them low; i.e. first when ascending, and last when descending. Sort criteria that specify
+ * any other null ordering cannot be queried.
+ *
+ * @author Tim Anderson
+ */
+class CollectionQueryFactory {
+
+    /**
+     * Creates a query for the objects of a collection node.
+     *
+     * @param parent     the parent object
+     * @param descriptor the collection node descriptor
+     * @param criteria   the sort criteria
+     * @param service    the archetype service
+     * @return a new query, or {@code null} if the collection cannot be queried
+     */
+    public static IArchetypeQuery create(IMObject parent, NodeDescriptor descriptor, SortCriteria criteria,
+                                         IArchetypeService service) {
+        if (parent.isNew()) {
+            return null;
+        }
+        String node = getParentNode(descriptor.getPath());
+        if (node == null) {
+            return null;
+        }
+        String filter = descriptor.getFilter();
+        String[] shortNames = (filter != null) ? new String[]{filter} : descriptor.getArchetypeRange();
+        if (shortNames == null || shortNames.length == 0) {
+            return null;
+        }
+        List<ArchetypeDescriptor> archetypes = DescriptorHelper.getArchetypeDescriptors(shortNames, service);
+        if (archetypes.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < criteria.size(); ++i) {
+            if (criteria.isNullsFirst(i) != criteria.isAscending(i) || !isSortable(criteria.getNode(i), archetypes)) {
+                return null;
+            }
+        }
+        ArchetypeQuery query = new ArchetypeQuery(shortNames, false, false);
+        query.add(Constraints.eq(node, parent.getObjectReference()));
+        for (int i = 0; i < criteria.size(); ++i) {
+            query.add(Constraints.sort(criteria.getNode(i), criteria.isAscending(i)));
+        }
+        query.add(Constraints.sort("id"));
+        return query;
+    }
+
+    /**
+     * Returns the name of the node that refers to the parent, for a collection path.
+     *
+     * @param path the collection path
+     * @return the node name, or {@code null} if the collection cannot be queried
+     */
+    private static String getParentNode(String path) {
+        String result = null;
+        if ("/sourceActRelationships".equals(path) || "/sourceEntityRelationships".equals(path)) {
+            result = "source";
+        } else if ("/targetActRelationships".equals(path) || "/targetEntityRelationships".equals(path)) {
+            result = "target";
+        } else if ("/participations".equals(path)) {
+            result = "act";
+        }
+        return result;
+    }
+
+    /**
+     * Determines if a node can be sorted on by a query.
+     *
+     * @param name       the node name
+     * @param archetypes the archetypes being queried
+     * @return {@code true} if the node is a persistent node of each archetype
+     */
+    private static boolean isSortable(String name, List<ArchetypeDescriptor> archetypes) {
+        if (name.indexOf('.') != -1) {
+            return false;
+        }
+        for (ArchetypeDescriptor archetype : archetypes) {
+            NodeDescriptor node = archetype.getNodeDescriptor(name);
+            if (node == null || node.isDerived() || node.isCollection()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openvpms.component.business.domain.im.common.IMObjectReference;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+
+/**
+ * Sorts object references on their sort keys, spilling sorted runs to temporary files when the no. of references
+ * exceeds that which may be held in memory.
+ * <p/>
+ * References are added via {@link #add}. Once all have been added, {@link #iterator()} merges the runs, returning the
+ * references in sort order. The sort is stable, i.e. references with equal keys are returned in the order they were
+ * added.
+ * <p/>
+ * Sort keys that aren't {@code Serializable} can't be written to a run. If the references don't fit in memory, such
+ * keys are treated as {@code null}.
+ * <p/>
+ * {@link #close()} must be invoked to delete the temporary files.
+ *
+ * @author Tim Anderson
+ */
+class ExternalSort {
+
+    /**
+     * The comparator for sort keys.
+     */
+    private final Comparator<Entry> comparator;
+
+    /**
+     * The maximum no. of references to hold in memory.
+     */
+    private final int runSize;
+
+    /**
+     * The references not yet written to a run.
+     */
+    private final List<Entry> buffer = new ArrayList<Entry>();
+
+    /**
+     * The runs written to temporary files.
+     */
+    private final List<Run> runs = new ArrayList<Run>();
+
+    /**
+     * The no. of references added.
+     */
+    private long count;
+
+    /**
+     * The default maximum no. of references to hold in memory.
+     */
+    public static final int DEFAULT_RUN_SIZE = 10000;
+
+    /**
+     * The logger.
+     */
+    private static final Log log = LogFactory.getLog(ExternalSort.class);
+
+
+    /**
+     * Constructs an {@link ExternalSort}.
+     *
+     * @param criteria the sort criteria
+     * @param runSize  the maximum no. of references to hold in memory
+     */
+    public ExternalSort(SortCriteria criteria, int runSize) {
+        final Comparator<Object[]> keys = criteria.getComparator();
+        comparator = new Comparator<Entry>() {
+            public int compare(Entry o1, Entry o2) {
+                int result = keys.compare(o1.keys, o2.keys);
+                if (result == 0) {
+                    result = (o1.sequence < o2.sequence) ? -1 : (o1.sequence == o2.sequence) ? 0 : 1;
+                }
+                return result;
+            }
+        };
+        this.runSize = Math.max(runSize, 1);
+    }
+
+    /**
+     * Adds a reference.
+     *
+     * @param keys      the sort keys for the referenced object, in the order of the sort criteria
+     * @param reference the object reference
+     * @throws IOException if a run cannot be written
+     */
+    public void add(Object[] keys, IMObjectReference reference) throws IOException {
+        buffer.add(new Entry(keys, reference, count++));
+        if (buffer.size() >= runSize) {
+            spill();
+        }
+    }
+
+    /**
+     * Returns the no. of runs written to temporary files.
+     *
+     * @return the no. of runs
+     */
+    public int getRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Returns the references in sort order.
+     * <p/>
+     * No more references may be added once this has been invoked.
+     *
+     * @return the references
+     * @throws IOException if the runs cannot be read
+     */
+    public Iterator<IMObjectReference> iterator() throws IOException {
+        Iterator<IMObjectReference> result;
+        if (runs.isEmpty()) {
+            // everything fits in memory
+            Collections.sort(buffer, comparator);
+            final Iterator<Entry> iterator = buffer.iterator();
+            result = new Iterator<IMObjectReference>() {
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                public IMObjectReference next() {
+                    return iterator.next().reference;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        } else {
+            if (!buffer.isEmpty()) {
+                spill();
+            }
+            result = new MergeIterator();
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the temporary files.
+     */
+    public void close() {
+        for (Run run : runs) {
+            run.close();
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    /**
+     * Sorts the buffered references and writes them to a temporary file.
+     * <p/>
+     * Keys that aren't {@code Serializable} are replaced with {@code null} prior to sorting, so that the run is
+     * ordered consistently with the keys read back from it.
+     *
+     * @throws IOException for any I/O error
+     */
+    private void spill() throws IOException {
+        for (Entry entry : buffer) {
+            Object[] keys = entry.keys;
+            for (int i = 0; i < keys.length; ++i) {
+                if (!(keys[i] instanceof Serializable)) {
+                    keys[i] = null;
+                }
+            }
+        }
+        Collections.sort(buffer, comparator);
+        File file = File.createTempFile("ExternalSort", ".run");
+        Run run = new Run(file, buffer.size());
+        runs.add(run);
+        ObjectOutputStream stream = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (Entry entry : buffer) {
+                stream.writeObject(entry.keys);
+                stream.writeObject(entry.reference);
+                stream.writeLong(entry.sequence);
+                stream.reset(); // don't retain references to written objects
+            }
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * An object reference, and its sort keys.
+     */
+    private static class Entry {
+
+        /**
+         * The sort keys.
+         */
+        private final Object[] keys;
+
+        /**
+         * The object reference.
+         */
+        private final IMObjectReference reference;
+
+        /**
+         * The order that the reference was added in, used to make the sort stable.
+         */
+        private final long sequence;
+
+        /**
+         * Constructs an {@link Entry}.
+         *
+         * @param keys      the sort keys
+         * @param reference the object reference
+         * @param sequence  the order that the reference was added in
+         */
+        public Entry(Object[] keys, IMObjectReference reference, long sequence) {
+            this.keys = keys;
+            this.reference = reference;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * A sorted run, written to a temporary file.
+     */
+    private static class Run {
+
+        /**
+         * The file.
+         */
+        private final File file;
+
+        /**
+         * The no. of entries in the run.
+         */
+        private final int size;
+
+        /**
+         * The stream used to read the run. May be {@code null}.
+         */
+        private ObjectInputStream stream;
+
+        /**
+         * The no. of entries read.
+         */
+        private int read;
+
+        /**
+         * Constructs a {@link Run}.
+         *
+         * @param file the file
+         * @param size the no. of entries in the run
+         */
+        public Run(File file, int size) {
+            this.file = file;
+            this.size = size;
+        }
+
+        /**
+         * Reads the next entry.
+         *
+         * @return the next entry, or {@code null} if there are no more entries
+         * @throws IOException for any I/O error
+         */
+        public Entry next() throws IOException {
+            Entry result = null;
+            if (read < size) {
+                if (stream == null) {
+                    stream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+                }
+                try {
+                    Object[] keys = (Object[]) stream.readObject();
+                    IMObjectReference reference = (IMObjectReference) stream.readObject();
+                    long sequence = stream.readLong();
+                    result = new Entry(keys, reference, sequence);
+                } catch (ClassNotFoundException exception) {
+                    throw new IOException("Failed to read " + file + ": " + exception.getMessage());
+                }
+                ++read;
+            }
+            if (read == size) {
+                IOUtils.closeQuietly(stream);
+                stream = null;
+            }
+            return result;
+        }
+
+        /**
+         * Closes the run, deleting its file.
+         */
+        public void close() {
+            IOUtils.closeQuietly(stream);
+            stream = null;
+            if (file.exists() && !file.delete()) {
+                log.warn("Failed to delete " + file);
+            }
+        }
+    }
+
+    /**
+     * Merges the runs.
+     */
+    private class MergeIterator implements Iterator<IMObjectReference> {
+
+        /**
+         * The head entry of each run, ordered on sort key.
+         */
+        private final PriorityQueue<Head> heads;
+
+        /**
+         * Constructs a {@link MergeIterator}.
+         *
+         * @throws IOException if the runs cannot be read
+         */
+        public MergeIterator() throws IOException {
+            heads = new PriorityQueue<Head>(runs.size(), new Comparator<Head>() {
+                public int compare(Head o1, Head o2) {
+                    return comparator.compare(o1.entry, o2.entry);
+                }
+            });
+            for (Run run : runs) {
+                Entry entry = run.next();
+                if (entry != null) {
+                    heads.add(new Head(run, entry));
+                }
+            }
+        }
+
+        /**
+         * Returns {@code true} if the iteration has more elements.
+         *
+         * @return {@code true} if the iterator has more elements
+         */
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        /**
+         * Returns the next element in the iteration.
+         *
+         * @return the next element in the iteration
+         * @throws NoSuchElementException if the iteration has no more elements
+         * @throws IllegalStateException  if a run cannot be read
+         */
+        public IMObjectReference next() {
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            IMObjectReference result = head.entry.reference;
+            try {
+                Entry entry = head.run.next();
+                if (entry != null) {
+                    heads.add(new Head(head.run, entry));
+                }
+            } catch (IOException exception) {
+                throw new IllegalStateException(exception.getMessage(), exception);
+            }
+            return result;
+        }
+
+        /**
+         * Not supported.
+         *
+         * @throws UnsupportedOperationException if invoked
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * The current entry of a run.
+     */
+    private static class Head {
+
+        /**
+         * The run.
+         */
+        private final Run run;
+
+        /**
+         * The entry.
+         */
+        private final Entry entry;
+
+        /**
+         * Constructs a {@link Head}.
+         *
+         * @param run   the run
+         * @param entry the entry
+         */
+        public Head(Run run, Entry entry) {
+            this.run = run;
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper;
+
+import org.apache.commons.io.IOUtils;
+import org.openvpms.component.business.domain.im.common.IMObject;
+import org.openvpms.component.business.domain.im.common.IMObjectReference;
+import org.openvpms.component.business.service.archetype.IArchetypeService;
+import org.openvpms.component.system.common.query.ArchetypeQuery;
+import org.openvpms.component.system.common.query.Constraints;
+import org.openvpms.report.ReportException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static org.openvpms.report.ReportException.ErrorCode.FailedToSortCollection;
+
+
+/**
+ * An {@code Iterable} that sorts the objects of another using an {@link ExternalSort}.
+ * <p/>
+ * Only the sort keys and references of the objects are retained; objects are retrieved in batches as they are
+ * iterated over. Objects that have been removed since the sort are skipped.
+ * <p/>
+ * Each call to {@link #iterator()} re-iterates the source objects. The temporary files used by the sort are deleted
+ * once an iterator is exhausted, or when {@link #close()} is invoked. The latter must be invoked if iteration is
+ * abandoned.
+ *
+ * @author Tim Anderson
+ */
+class ExternallySortedIterable implements Iterable<IMObject>, Closeable {
+
+    /**
+     * The objects to sort.
+     */
+    private final Iterable<IMObject> source;
+
+    /**
+     * The sort criteria.
+     */
+    private final SortCriteria criteria;
+
+    /**
+     * The maximum no. of references to hold in memory.
+     */
+    private final int runSize;
+
+    /**
+     * The archetype service.
+     */
+    private final IArchetypeService service;
+
+    /**
+     * The sorts that haven't been closed.
+     */
+    private final List<ExternalSort> sorts = new ArrayList<ExternalSort>();
+
+    /**
+     * The no. of objects to retrieve at a time.
+     */
+    private static final int BATCH_SIZE = 100;
+
+
+    /**
+     * Constructs an {@link ExternallySortedIterable}.
+     *
+     * @param source   the objects to sort
+     * @param criteria the sort criteria
+     * @param runSize  the maximum no. of references to hold in memory
+     * @param service  the archetype service
+     */
+    public ExternallySortedIterable(Iterable<IMObject> source, SortCriteria criteria, int runSize,
+                                    IArchetypeService service) {
+        this.source = source;
+        this.criteria = criteria;
+        this.runSize = runSize;
+        this.service = service;
+    }
+
+    /**
+     * Returns an iterator over the sorted objects.
+     *
+     * @return the iterator
+     * @throws ReportException if the objects cannot be sorted
+     */
+    public Iterator<IMObject> iterator() {
+        final ExternalSort sort = new ExternalSort(criteria, runSize);
+        final Iterator<IMObjectReference> references;
+        boolean sorted = false;
+        try {
+            for (IMObject object : source) {
+                Object[] keys = new Object[criteria.size()];
+                for (int i = 0; i < keys.length; ++i) {
+                    keys[i] = IMObjectCollectionDataSource.getSortKey(object, criteria.getNode(i), service);
+                }
+                sort.add(keys, object.getObjectReference());
+            }
+            references = sort.iterator();
+            sorted = true;
+        } catch (IOException exception) {
+            throw new ReportException(exception, FailedToSortCollection, exception.getMessage());
+        } finally {
+            if (!sorted) {
+                sort.close();
+            }
+        }
+        synchronized (sorts) {
+            sorts.add(sort);
+        }
+
+        return new Iterator<IMObject>() {
+            private Iterator<IMObject> batch;
+
+            public boolean hasNext() {
+                while ((batch == null || !batch.hasNext()) && references.hasNext()) {
+                    batch = retrieve(references).iterator();
+                }
+                boolean result = batch != null && batch.hasNext();
+                if (!result) {
+                    close(sort);
+                }
+                return result;
+            }
+
+            public IMObject next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.next();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Deletes the temporary files of any iterator that hasn't been exhausted, and closes the source objects if they
+     * are {@code Closeable}.
+     * <p/>
+     * Such iterators must not be used again.
+     */
+    public void close() {
+        if (source instanceof Closeable) {
+            IOUtils.closeQuietly((Closeable) source);
+        }
+        List<ExternalSort> list;
+        synchronized (sorts) {
+            list = new ArrayList<ExternalSort>(sorts);
+            sorts.clear();
+        }
+        for (ExternalSort sort : list) {
+            sort.close();
+        }
+    }
+
+    /**
+     * Closes a sort, deleting its temporary files.
+     *
+     * @param sort the sort
+     */
+    private void close(ExternalSort sort) {
+        synchronized (sorts) {
+            sorts.remove(sort);
+        }
+        sort.close();
+    }
+
+    /**
+     * Retrieves the objects for the next batch of references.
+     * <p/>
+     * Objects of the same archetype are retrieved in a single query.
+     *
+     * @param references the sorted references
+     * @return the objects, in sort order. Objects that no longer exist are excluded
+     */
+    private List<IMObject> retrieve(Iterator<IMObjectReference> references) {
+        List<IMObjectReference> batch = new ArrayList<IMObjectReference>();
+        Map<String, List<Object>> ids = new LinkedHashMap<String, List<Object>>();
+        while (batch.size() < BATCH_SIZE && references.hasNext()) {
+            IMObjectReference reference = references.next();
+            batch.add(reference);
+            String shortName = reference.getArchetypeId().getShortName();
+            List<Object> list = ids.get(shortName);
+            if (list == null) {
+                list = new ArrayList<Object>();
+                ids.put(shortName, list);
+            }
+            list.add(reference.getId());
+        }
+        Map<String, Map<Long, IMObject>> objects = new HashMap<String, Map<Long, IMObject>>();
+        for (Map.Entry<String, List<Object>> entry : ids.entrySet()) {
+            ArchetypeQuery query = new ArchetypeQuery(entry.getKey(), false, false);
+            query.add(Constraints.in("id", entry.getValue().toArray()));
+            query.setMaxResults(ArchetypeQuery.ALL_RESULTS);
+            Map<Long, IMObject> map = new HashMap<Long, IMObject>();
+            for (IMObject object : service.get(query).getResults()) {
+                map.put(object.getId(), object);
+            }
+            objects.put(entry.getKey(), map);
+        }
+        List<IMObject> result = new ArrayList<IMObject>();
+        for (IMObjectReference reference : batch) {
+            IMObject object = objects.get(reference.getArchetypeId().getShortName()).get(reference.getId());
+            if (object != null) {
+                result.add(object);
+            }
+        }
+        return result;
+    }
+}
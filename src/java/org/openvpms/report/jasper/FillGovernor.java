@@ -0,0 +1,152 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper;
+
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.fill.FillListener;
+import org.openvpms.report.ReportException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.openvpms.report.ReportException.ErrorCode.MaxPagesExceeded;
+import static org.openvpms.report.ReportException.ErrorCode.MaxRowsExceeded;
+
+
+/**
+ * Limits the no. of pages and rows that may be generated when filling a report.
+ * <p/>
+ * A single instance is shared by the filler and all of the data sources of a report run. Rows are counted across
+ * the master report and its sub-reports.
+ * <p/>
+ * Once a limit is exceeded, the fill is aborted by throwing a {@link ReportException}. As JasperReports may wrap
+ * exceptions raised during the fill, {@link #check()} should be invoked on fill failure to rethrow the original.
+ *
+ * @author Tim Anderson
+ */
+public class FillGovernor implements FillListener {
+
+    /**
+     * The maximum no. of pages, or {@code <= 0} if there is no limit.
+     */
+    private final int maxPages;
+
+    /**
+     * The maximum no. of rows, or {@code <= 0} if there is no limit.
+     */
+    private final int maxRows;
+
+    /**
+     * The no. of rows read.
+     */
+    private final AtomicInteger rows = new AtomicInteger();
+
+    /**
+     * The exception raised when a limit was exceeded. May be {@code null}.
+     */
+    private volatile ReportException exception;
+
+
+    /**
+     * Constructs a {@link FillGovernor}.
+     *
+     * @param maxPages the maximum no. of pages, or {@code <= 0} if there is no limit
+     * @param maxRows  the maximum no. of rows, or {@code <= 0} if there is no limit
+     */
+    public FillGovernor(int maxPages, int maxRows) {
+        this.maxPages = maxPages;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Invoked by data sources each time a row is read.
+     *
+     * @throws ReportException if the maximum no. of rows has been exceeded
+     */
+    public void next() {
+        check();
+        if (maxRows > 0 && rows.incrementAndGet() > maxRows) {
+            abort(new ReportException(MaxRowsExceeded, maxRows));
+        }
+    }
+
+    /**
+     * Returns the no. of rows read.
+     *
+     * @return the no. of rows read
+     */
+    public int getRows() {
+        return rows.get();
+    }
+
+    /**
+     * Invoked when a page is generated.
+     *
+     * @param jasperPrint the report being filled
+     * @param pageIndex   the index of the generated page
+     * @throws ReportException if the maximum no. of pages has been exceeded
+     */
+    @Override
+    public void pageGenerated(JasperPrint jasperPrint, int pageIndex) {
+        check();
+        if (maxPages > 0 && pageIndex >= maxPages) {
+            abort(new ReportException(MaxPagesExceeded, maxPages));
+        }
+    }
+
+    /**
+     * Invoked when a page is updated.
+     *
+     * @param jasperPrint the report being filled
+     * @param pageIndex   the index of the updated page
+     */
+    @Override
+    public void pageUpdated(JasperPrint jasperPrint, int pageIndex) {
+        // no-op
+    }
+
+    /**
+     * Determines if a limit has been exceeded.
+     *
+     * @return {@code true} if a limit has been exceeded
+     */
+    public boolean isExceeded() {
+        return exception != null;
+    }
+
+    /**
+     * Rethrows the exception raised when a limit was exceeded, if any.
+     *
+     * @throws ReportException if a limit has been exceeded
+     */
+    public void check() {
+        ReportException result = exception;
+        if (result != null) {
+            throw result;
+        }
+    }
+
+    /**
+     * Aborts the fill.
+     *
+     * @param exception the exception to throw
+     * @throws ReportException always
+     */
+    private void abort(ReportException exception) {
+        this.exception = exception;
+        throw exception;
+    }
+}
@@ -19,9 +19,7 @@ package org.openvpms.report.jasper;
 import net.sf.jasperreports.engine.JRException;
 import net.sf.jasperreports.engine.JRField;
 import net.sf.jasperreports.engine.JRRewindableDataSource;
-import org.apache.commons.collections.ComparatorUtils;
-import org.apache.commons.collections.Transformer;
-import org.apache.commons.collections.comparators.TransformingComparator;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.jxpath.Functions;
 import org.openvpms.archetype.rules.doc.DocumentHandlers;
 import org.openvpms.component.business.domain.im.archetype.descriptor.NodeDescriptor;
@@ -30,12 +28,24 @@ import org.openvpms.component.business.service.archetype.IArchetypeService;
 import org.openvpms.component.business.service.archetype.helper.NodeResolver;
 import org.openvpms.component.business.service.lookup.ILookupService;
 import org.openvpms.component.system.common.util.PropertySet;
+import org.openvpms.report.DisplayNameCache;
+import org.openvpms.report.DocumentContentCache;
+import org.openvpms.report.ExpressionContextFactory;
+import org.openvpms.report.FieldAccessorCache;
+import org.openvpms.report.LookupNameCache;
+import org.openvpms.report.PagedQueryIterable;
+import org.openvpms.report.PrefetchingArchetypeService;
 import org.openvpms.report.ReportException;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
 
 
 /**
@@ -61,7 +71,7 @@ public class IMObjectCollectionDataSource extends AbstractIMObjectDataSource imp
     private final PropertySet fields;
 
     /**
-     * The current object.
+     * The data source for the current object. This is rebound to each object in turn.
      */
     private IMObjectDataSource current;
 
@@ -70,6 +80,41 @@ public class IMObjectCollectionDataSource extends AbstractIMObjectDataSource imp
      */
     private String displayName;
 
+    /**
+     * Prefetches referenced objects, if the archetype service supports it. May be {@code null}.
+     */
+    private final ReferencePrefetcher prefetcher;
+
+    /**
+     * The index of the current row.
+     */
+    private int index = -1;
+
+    /**
+     * The index of the first row that hasn't been prefetched.
+     */
+    private int prefetched;
+
+    /**
+     * The fields to evaluate in the background, or {@code null} if rows aren't pipelined.
+     */
+    private JRField[] pipelineFields;
+
+    /**
+     * The maximum no. of rows to evaluate ahead of the fill thread.
+     */
+    private int pipelineSize;
+
+    /**
+     * The transaction manager used by the pipeline.
+     */
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * The pipeline, if rows are being evaluated in the background.
+     */
+    private RowPipeline pipeline;
+
 
     /**
      * Constructs a {@link IMObjectCollectionDataSource} for a collection node.
@@ -81,20 +126,45 @@ public class IMObjectCollectionDataSource extends AbstractIMObjectDataSource imp
      * @param lookups    the lookup service
      * @param handlers   the document handlers
      * @param functions  the JXPath extension functions
-     * @param sortNodes  the sort nodes
+     * @param sortNodes  the sort nodes, in the form supported by {@link SortCriteria}. The first is the primary key
+     * @throws ReportException if the sort nodes are invalid
      */
     public IMObjectCollectionDataSource(IMObject parent, PropertySet fields, NodeDescriptor descriptor,
                                         IArchetypeService service, ILookupService lookups, DocumentHandlers handlers,
                                         Functions functions, String... sortNodes) {
+        this(parent, fields, descriptor, service, lookups, handlers, functions, 0, sortNodes);
+    }
+
+    /**
+     * Constructs a {@link IMObjectCollectionDataSource} for a collection node, limiting the no. of objects returned.
+     *
+     * @param parent     the parent object
+     * @param fields     additional report fields. These override any in the report. May be {@code null}
+     * @param descriptor the collection descriptor
+     * @param service    the archetype service
+     * @param lookups    the lookup service
+     * @param handlers   the document handlers
+     * @param functions  the JXPath extension functions
+     * @param limit      the maximum no. of objects to return, after sorting, or {@code <= 0} to return all objects
+     * @param sortNodes  the sort nodes, in the form supported by {@link SortCriteria}. The first is the primary key
+     * @throws ReportException if the sort nodes are invalid
+     */
+    public IMObjectCollectionDataSource(IMObject parent, PropertySet fields, NodeDescriptor descriptor,
+                                        IArchetypeService service, ILookupService lookups, DocumentHandlers handlers,
+                                        Functions functions, int limit, String... sortNodes) {
         super(service, lookups, handlers, functions);
         List<IMObject> values = descriptor.getChildren(parent);
-        for (String sortNode : sortNodes) {
-            sort(values, sortNode);
+        if (sortNodes.length != 0) {
+            values = sort(values, new SortCriteria(sortNodes), limit);
+        } else if (limit > 0 && limit < values.size()) {
+            values = new ArrayList<IMObject>(values.subList(0, limit));
         }
         collection = values;
         iterator = collection.iterator();
         this.fields = fields;
         displayName = descriptor.getDisplayName();
+        prefetcher = createPrefetcher(service, collection);
+        setContextFactory(new ExpressionContextFactory(fields, service, lookups, functions));
     }
 
     /**
@@ -113,33 +183,191 @@ public class IMObjectCollectionDataSource extends AbstractIMObjectDataSource imp
         collection = objects;
         iterator = collection.iterator();
         this.fields = fields;
+        prefetcher = createPrefetcher(service, collection);
+        setContextFactory(new ExpressionContextFactory(fields, service, lookups, functions));
+    }
+
+    /**
+     * Sets the display name for the collection, returned by the <em>collectionDisplayName</em> field.
+     *
+     * @param displayName the display name. May be {@code null}
+     */
+    void setDisplayName(String displayName) {
+        this.displayName = displayName;
+    }
+
+    /**
+     * Determines if the objects are held in memory, rather than being read from a query.
+     *
+     * @return {@code true} if the objects are held in memory
+     */
+    boolean isMaterialized() {
+        return collection instanceof List;
+    }
+
+    /**
+     * Determines if the objects are read from a query as they are iterated, rather than being supplied by the caller.
+     *
+     * @return {@code true} if the objects are read from a query
+     */
+    boolean isQueried() {
+        return collection instanceof PagedQueryIterable || collection instanceof ExternallySortedIterable;
+    }
+
+    /**
+     * Creates a new data source over the same objects, positioned before the first.
+     * <p/>
+     * This avoids re-reading and re-sorting the objects when the same collection is requested more than once.
+     *
+     * @return a new data source
+     * @throws IllegalStateException if the objects aren't {@link #isMaterialized() materialized}
+     */
+    IMObjectCollectionDataSource newView() {
+        if (!isMaterialized()) {
+            throw new IllegalStateException("Cannot create a view of a collection that isn't held in memory");
+        }
+        IMObjectCollectionDataSource result = new IMObjectCollectionDataSource(
+                collection, fields, getArchetypeService(), getLookupService(), getDocumentHandlers(), getFunctions());
+        result.setDisplayName(displayName);
+        return result;
     }
 
     /**
      * Tries to position the cursor on the next element in the data source.
      *
      * @return true if there is a next record, false otherwise
+     * @throws ReportException if the maximum no. of rows has been exceeded
      */
     public boolean next() {
-        boolean result = iterator.hasNext();
+        RowPipeline.Row row = null;
+        boolean result;
+        if (pipelineFields != null) {
+            if (pipeline == null) {
+                pipeline = createPipeline();
+            }
+            row = pipeline.next();
+            result = row != null;
+        } else {
+            result = iterator.hasNext();
+        }
         if (result) {
-            current = new IMObjectDataSource(iterator.next(), fields, getArchetypeService(), getLookupService(),
-                                             getDocumentHandlers(), getFunctions());
+            FillGovernor governor = getGovernor();
+            if (governor != null) {
+                governor.next();
+            }
+            IMObject object = (row != null) ? row.getObject() : iterator.next();
+            ++index;
+            if (row == null && prefetcher != null && index >= prefetched && prefetcher.hasPaths()) {
+                prefetch();
+            }
+            if (current == null) {
+                current = new IMObjectDataSource(object, fields, getArchetypeService(), getLookupService(),
+                                                 getDocumentHandlers(), getFunctions());
+                current.setAccessorCache(getAccessorCache());
+                current.setContextFactory(getContextFactory());
+                current.setNameCache(getNameCache());
+                current.setLookupNameCache(getLookupNameCache());
+                current.setContentCache(getContentCache());
+            }
+            if (row != null) {
+                current.setObject(object, row.getValues());
+            } else {
+                current.setObject(object);
+            }
+            current.setGovernor(governor);
         }
         return result;
     }
 
+    /**
+     * Sets the cache of field accessors.
+     *
+     * @param accessors the cache
+     */
+    @Override
+    public void setAccessorCache(FieldAccessorCache accessors) {
+        super.setAccessorCache(accessors);
+        if (current != null) {
+            current.setAccessorCache(accessors);
+        }
+    }
+
+    /**
+     * Sets the factory for JXPath contexts.
+     *
+     * @param contexts the factory
+     */
+    @Override
+    public void setContextFactory(ExpressionContextFactory contexts) {
+        super.setContextFactory(contexts);
+        if (current != null) {
+            current.setContextFactory(contexts);
+        }
+    }
+
+    /**
+     * Sets the cache used to determine the display names of referenced objects.
+     *
+     * @param names the cache. May be {@code null}
+     */
+    @Override
+    public void setNameCache(DisplayNameCache names) {
+        super.setNameCache(names);
+        if (current != null) {
+            current.setNameCache(names);
+        }
+    }
+
+    /**
+     * Sets the cache used to determine the names of lookups referred to by lookup nodes.
+     *
+     * @param lookupNames the cache. May be {@code null}
+     */
+    @Override
+    public void setLookupNameCache(LookupNameCache lookupNames) {
+        super.setLookupNameCache(lookupNames);
+        if (current != null) {
+            current.setLookupNameCache(lookupNames);
+        }
+    }
+
+    /**
+     * Sets the cache used to read the content of document fields.
+     *
+     * @param contents the cache. May be {@code null}
+     */
+    @Override
+    public void setContentCache(DocumentContentCache contents) {
+        super.setContentCache(contents);
+        if (current != null) {
+            current.setContentCache(contents);
+        }
+    }
+
     /**
      * Returns a data source for a collection node.
      *
      * @param name      the collection node name
-     * @param sortNodes the list of nodes to sort on
+     * @param sortNodes the list of nodes to sort on, in the form supported by {@link SortCriteria}
      * @throws JRException for any error
      */
     public JRRewindableDataSource getDataSource(String name, String[] sortNodes) throws JRException {
         return current.getDataSource(name, sortNodes);
     }
 
+    /**
+     * Returns a data source for a collection node, limiting the no. of objects returned.
+     *
+     * @param name      the collection node name
+     * @param sortNodes the list of nodes to sort on, in the form supported by {@link SortCriteria}
+     * @param limit     the maximum no. of objects to return, or {@code <= 0} to return all objects
+     * @return the data source
+     * @throws JRException for any error
+     */
+    public JRRewindableDataSource getDataSource(String name, String[] sortNodes, int limit) throws JRException {
+        return current.getDataSource(name, sortNodes, limit);
+    }
+
     /**
      * Returns a data source for the given jxpath expression.
      *
@@ -162,9 +390,15 @@ public class IMObjectCollectionDataSource extends AbstractIMObjectDataSource imp
     public Object getFieldValue(JRField field) throws JRException {
         Object result = null;
         if (current != null) {
-            if (field.getName().equals("collectionDisplayName")) {
+            String name = field.getName();
+            if (name.equals("collectionDisplayName")) {
                 result = displayName;
             } else {
+                if (prefetcher != null && !name.startsWith("[") && (fields == null || !fields.exists(name))
+                    && prefetcher.addPath(name)) {
+                    // prefetch the new path from the next row on
+                    prefetched = Math.min(prefetched, index + 1);
+                }
                 result = current.getFieldValue(field);
             }
         }
@@ -176,72 +410,238 @@ public class IMObjectCollectionDataSource extends AbstractIMObjectDataSource imp
      */
     @Override
     public void moveFirst() {
+        close();
         iterator = collection.iterator();
+        index = -1;
     }
 
     /**
-     * Sorts a list of IMObjects on a node in the form specified by {@link NodeResolver}.
+     * Determines if rows should be retrieved and evaluated in a background thread.
+     * <p/>
+     * This overlaps retrieving objects and evaluating their fields with report layout. The pipeline is started
+     * on the first call to {@link #next()}, and must be invoked by the fill thread. Referenced objects are not
+     * prefetched when rows are pipelined.
+     * <p/>
+     * Rows are only pipelined if the objects are read from a query, so that the background thread loads each object
+     * itself. Objects held in memory may belong to the fill thread's session, and are always evaluated by the fill
+     * thread.
+     * <p/>
+     * The background thread runs with the security context of the fill thread, and retrieves and evaluates each row
+     * in its own read-only transaction. It therefore won't see changes made by any transaction the fill thread is
+     * running in.
+     * <p/>
+     * Any shared caches must be thread safe.
+     *
+     * @param fields             the fields to evaluate in the background. May be {@code null}
+     * @param capacity           the maximum no. of rows to evaluate ahead of the fill thread, or {@code <= 0} to
+     *                           disable pipelining
+     * @param transactionManager the transaction manager
+     */
+    public void setPipeline(JRField[] fields, int capacity, PlatformTransactionManager transactionManager) {
+        closePipeline();
+        if (capacity > 0 && isQueried()) {
+            pipelineFields = (fields != null) ? fields : new JRField[0];
+            pipelineSize = capacity;
+            this.transactionManager = transactionManager;
+        } else {
+            pipelineFields = null;
+            this.transactionManager = null;
+        }
+    }
+
+    /**
+     * Stops any background evaluation of rows, and releases the resources held by this and any child data source.
+     * <p/>
+     * This deletes the temporary files of externally sorted collections, and cancels any background retrieval of
+     * queried collections. It should be invoked once the report fill completes or is abandoned. The data source must
+     * be rewound via {@link #moveFirst()} before it is used again.
+     */
+    public void close() {
+        closePipeline();
+        if (current != null) {
+            current.close();
+        }
+        if (collection instanceof Closeable) {
+            IOUtils.closeQuietly((Closeable) collection);
+        }
+    }
+
+    /**
+     * Stops any background evaluation of rows.
+     */
+    private void closePipeline() {
+        if (pipeline != null) {
+            pipeline.close();
+            pipeline = null;
+        }
+    }
+
+    /**
+     * Creates and starts a pipeline to evaluate the remaining rows in the background.
+     *
+     * @return a new pipeline
+     */
+    private RowPipeline createPipeline() {
+        RowPipeline result = new RowPipeline(iterator, pipelineFields, pipelineSize, transactionManager) {
+            @Override
+            protected IMObjectDataSource createDataSource(IMObject object) {
+                IMObjectDataSource source = new IMObjectDataSource(
+                        object, IMObjectCollectionDataSource.this.fields, getArchetypeService(), getLookupService(),
+                        getDocumentHandlers(), getFunctions());
+                source.setAccessorCache(getAccessorCache());
+                source.setContextFactory(getContextFactory());
+                source.setNameCache(getNameCache());
+                source.setLookupNameCache(getLookupNameCache());
+                source.setContentCache(getContentCache());
+                return source;
+            }
+        };
+        result.start();
+        return result;
+    }
+
+    /**
+     * Prefetches the objects referred to by the fields of the rows in the window starting at the current row.
+     */
+    private void prefetch() {
+        List<IMObject> rows = (List<IMObject>) collection;
+        int end = Math.min(index + prefetcher.getWindow(), rows.size());
+        prefetcher.prefetch(rows.subList(index, end));
+        prefetched = end;
+    }
+
+    /**
+     * Creates a prefetcher for a collection, if the archetype service supports prefetching.
+     *
+     * @param service    the archetype service
+     * @param collection the collection
+     * @return a new prefetcher, or {@code null} if prefetching isn't supported
+     */
+    private static ReferencePrefetcher createPrefetcher(IArchetypeService service, Iterable<IMObject> collection) {
+        ReferencePrefetcher result = null;
+        if (service instanceof PrefetchingArchetypeService && collection instanceof List
+            && ((PrefetchingArchetypeService) service).getWindow() > 0) {
+            result = new ReferencePrefetcher((PrefetchingArchetypeService) service);
+        }
+        return result;
+    }
+
+    /**
+     * Sorts a list of IMObjects.
+     * <p/>
+     * The sort keys for each object are resolved once up front, and the objects sorted in a single stable pass.
+     * If a limit is specified, the first {@code limit} objects are selected using a bounded heap, so that only
+     * those objects are sorted.
      *
      * @param objects  the objects to sort
-     * @param sortNode the node to sort on
+     * @param criteria the sort criteria
+     * @param limit    the maximum no. of objects to return, or {@code <= 0} to return all objects
+     * @return the sorted objects
      */
-    @SuppressWarnings("unchecked")
-    private void sort(List<IMObject> objects, String sortNode) {
-        Comparator comparator = ComparatorUtils.naturalComparator();
-        comparator = ComparatorUtils.nullLowComparator(comparator);
+    private List<IMObject> sort(List<IMObject> objects, SortCriteria criteria, int limit) {
+        int size = objects.size();
+        if (size < 2) {
+            return objects;
+        }
+        int keys = criteria.size();
+        SortEntry[] entries = new SortEntry[size];
+        for (int i = 0; i < size; ++i) {
+            IMObject object = objects.get(i);
+            Object[] values = new Object[keys];
+            for (int j = 0; j < keys; ++j) {
+                values[j] = getSortKey(object, criteria.getNode(j), getArchetypeService());
+            }
+            entries[i] = new SortEntry(values, object, i);
+        }
+        final Comparator<Object[]> comparator = criteria.getComparator();
+        Comparator<SortEntry> entryComparator = new Comparator<SortEntry>() {
+            public int compare(SortEntry o1, SortEntry o2) {
+                int result = comparator.compare(o1.keys, o2.keys);
+                if (result == 0) {
+                    // preserve the collection order for equal keys, so the sort is stable with or without a limit
+                    result = (o1.index < o2.index) ? -1 : (o1.index == o2.index) ? 0 : 1;
+                }
+                return result;
+            }
+        };
+        if (limit > 0 && limit < size) {
+            // keep the first limit entries, discarding the greatest entry each time the heap is full
+            PriorityQueue<SortEntry> heap = new PriorityQueue<SortEntry>(limit,
+                                                                         Collections.reverseOrder(entryComparator));
+            for (SortEntry entry : entries) {
+                if (heap.size() < limit) {
+                    heap.add(entry);
+                } else if (entryComparator.compare(entry, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(entry);
+                }
+            }
+            entries = heap.toArray(new SortEntry[heap.size()]);
+        }
+        Arrays.sort(entries, entryComparator);
+        List<IMObject> result = new ArrayList<IMObject>(entries.length);
+        for (SortEntry entry : entries) {
+            result.add(entry.object);
+        }
+        return result;
+    }
 
-        Transformer transformer = new NodeTransformer(sortNode, getArchetypeService());
-        TransformingComparator transComparator = new TransformingComparator(transformer, comparator);
-        Collections.sort(objects, transComparator);
+    /**
+     * Returns the sort key for an object.
+     *
+     * @param object   the object
+     * @param sortNode the node to sort on
+     * @param service  the archetype service
+     * @return the value of the node, or {@code null} if the node doesn't exist or its value isn't {@code Comparable}
+     */
+    static Object getSortKey(IMObject object, String sortNode, IArchetypeService service) {
+        Object result;
+        NodeResolver resolver = new NodeResolver(object, service);
+        try {
+            result = resolver.getObject(sortNode);
+            if (!(result instanceof Comparable)) {
+                // not comparable so null to avoid class cast exceptions
+                result = null;
+            }
+        } catch (ReportException ignore) {
+            // node not found
+            result = null;
+        }
+        return result;
     }
 
-    private static class NodeTransformer implements Transformer {
+    /**
+     * An object and its sort keys.
+     */
+    private static class SortEntry {
 
         /**
-         * The field name.
+         * The sort keys. Elements may be {@code null}.
          */
-        private final String name;
+        private final Object[] keys;
 
         /**
-         * The archetype service.
+         * The object.
          */
-        private final IArchetypeService service;
-
+        private final IMObject object;
 
         /**
-         * Constructs a {@code NodeTransformer}.
-         *
-         * @param name    the field name
-         * @param service the archetype service
+         * The index of the object in the collection.
          */
-        public NodeTransformer(String name, IArchetypeService service) {
-            this.name = name;
-            this.service = service;
-        }
+        private final int index;
 
         /**
-         * Transforms the input object (leaving it unchanged) into some output
-         * object.
+         * Constructs a {@link SortEntry}.
          *
-         * @param input the object to be transformed, should be left unchanged
+         * @param keys   the sort keys
+         * @param object the object
+         * @param index  the index of the object in the collection
          */
-        public Object transform(Object input) {
-            Object result;
-            IMObject object = (IMObject) input;
-            NodeResolver resolver = new NodeResolver(object, service);
-            try {
-                result = resolver.getObject(name);
-                if (!(result instanceof Comparable)) {
-                    // not comparable so null to avoid class cast exceptions
-                    result = null;
-                }
-            } catch (ReportException ignore) {
-                // node node found
-                result = null;
-            }
-            return result;
+        public SortEntry(Object[] keys, IMObject object, int index) {
+            this.keys = keys;
+            this.object = object;
+            this.index = index;
         }
-
     }
 
 }
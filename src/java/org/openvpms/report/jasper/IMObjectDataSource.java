@@ -19,6 +19,7 @@ package org.openvpms.report.jasper;
 import net.sf.jasperreports.engine.JRException;
 import net.sf.jasperreports.engine.JRField;
 import net.sf.jasperreports.engine.JRRewindableDataSource;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.jxpath.Functions;
 import org.apache.commons.jxpath.JXPathContext;
 import org.openvpms.archetype.rules.doc.DocumentHandler;
@@ -28,14 +29,28 @@ import org.openvpms.component.business.domain.im.archetype.descriptor.NodeDescri
 import org.openvpms.component.business.domain.im.common.IMObject;
 import org.openvpms.component.business.domain.im.document.Document;
 import org.openvpms.component.business.service.archetype.IArchetypeService;
+import org.openvpms.component.business.service.archetype.helper.DescriptorHelper;
 import org.openvpms.component.business.service.archetype.helper.NodeResolver;
 import org.openvpms.component.business.service.archetype.helper.ResolvingPropertySet;
 import org.openvpms.component.business.service.lookup.ILookupService;
-import org.openvpms.component.system.common.jxpath.JXPathHelper;
+import org.openvpms.component.system.common.query.IArchetypeQuery;
 import org.openvpms.component.system.common.util.PropertySet;
-import org.openvpms.report.ExpressionEvaluator;
+import org.openvpms.report.DisplayNameCache;
+import org.openvpms.report.DocumentContentCache;
+import org.openvpms.report.ExpressionCache;
+import org.openvpms.report.ExpressionContextFactory;
+import org.openvpms.report.FieldAccessorCache;
 import org.openvpms.report.IMObjectExpressionEvaluator;
+import org.openvpms.report.LookupNameCache;
+import org.openvpms.report.PagedIMObjectIterable;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 
@@ -49,22 +64,17 @@ public class IMObjectDataSource extends AbstractIMObjectDataSource {
     /**
      * The source object.
      */
-    private final IMObject object;
+    private IMObject object;
 
     /**
      * Additional fields. May be {@code null}
      */
     private final PropertySet fields;
 
-    /**
-     * The node resolver.
-     */
-    private final NodeResolver resolver;
-
     /**
      * The expression evaluator.
      */
-    private final ExpressionEvaluator evaluator;
+    private final IMObjectExpressionEvaluator evaluator;
 
     /**
      * The document handlers.
@@ -76,6 +86,33 @@ public class IMObjectDataSource extends AbstractIMObjectDataSource {
      */
     private boolean next = true;
 
+    /**
+     * The field values for the current object, keyed on field name. Document content is stored as {@link Content}.
+     */
+    private final Map<String, Object> values = new HashMap<String, Object>();
+
+    /**
+     * The collection data sources returned for the current object, keyed on node name, sort nodes and limit. These
+     * are used to avoid re-reading and re-sorting a collection that is requested more than once.
+     */
+    private final Map<List<Object>, IMObjectCollectionDataSource> collections
+            = new HashMap<List<Object>, IMObjectCollectionDataSource>();
+
+    /**
+     * The collection data sources created for the current object, to be closed when the object changes.
+     */
+    private final List<IMObjectCollectionDataSource> children = new ArrayList<IMObjectCollectionDataSource>();
+
+    /**
+     * The maximum no. of collection objects to sort in memory.
+     */
+    private int sortRunSize = ExternalSort.DEFAULT_RUN_SIZE;
+
+    /**
+     * The no. of objects to retrieve at a time, when collections are queried.
+     */
+    private static final int PAGE_SIZE = 100;
+
     /**
      * Constructs an {@link IMObjectDataSource}.
      *
@@ -105,11 +142,105 @@ public class IMObjectDataSource extends AbstractIMObjectDataSource {
         super(service, lookups, handlers, functions);
         this.object = object;
         this.fields = fields;
-        resolver = new NodeResolver(object, service);
-        evaluator = new IMObjectExpressionEvaluator(object, resolver, fields, service, lookups, functions);
+        evaluator = new IMObjectExpressionEvaluator(object, new NodeResolver(object, service), fields, service,
+                                                    lookups, functions);
+        evaluator.setAccessorCache(getAccessorCache());
+        super.setContextFactory(evaluator.getContextFactory());
         this.handlers = handlers;
     }
 
+    /**
+     * Sets the cache of field accessors.
+     *
+     * @param accessors the cache
+     */
+    @Override
+    public void setAccessorCache(FieldAccessorCache accessors) {
+        super.setAccessorCache(accessors);
+        evaluator.setAccessorCache(accessors);
+    }
+
+    /**
+     * Sets the factory for JXPath contexts.
+     *
+     * @param contexts the factory
+     */
+    @Override
+    public void setContextFactory(ExpressionContextFactory contexts) {
+        super.setContextFactory(contexts);
+        evaluator.setContextFactory(contexts);
+    }
+
+    /**
+     * Sets the cache used to determine the display names of referenced objects.
+     *
+     * @param names the cache. May be {@code null}
+     */
+    @Override
+    public void setNameCache(DisplayNameCache names) {
+        super.setNameCache(names);
+        evaluator.setNameCache(names);
+    }
+
+    /**
+     * Sets the cache used to determine the names of lookups referred to by lookup nodes.
+     *
+     * @param lookupNames the cache. May be {@code null}
+     */
+    @Override
+    public void setLookupNameCache(LookupNameCache lookupNames) {
+        super.setLookupNameCache(lookupNames);
+        evaluator.setLookupNameCache(lookupNames);
+    }
+
+    /**
+     * Rebinds the data source to a new object.
+     * <p/>
+     * This allows a single data source to be used as a cursor over a collection, rather than creating one per object.
+     *
+     * @param object the source object
+     */
+    void setObject(IMObject object) {
+        close();
+        this.object = object;
+        evaluator.setObject(object);
+        values.clear();
+        collections.clear();
+        next = true;
+    }
+
+    /**
+     * Closes the collection data sources created for the current object.
+     * <p/>
+     * This deletes the temporary files of any externally sorted collection that hasn't been read to the end.
+     */
+    public void close() {
+        for (IMObjectCollectionDataSource child : children) {
+            child.close();
+        }
+        children.clear();
+    }
+
+    /**
+     * Rebinds the data source to a new object, whose field values have already been evaluated.
+     *
+     * @param object the source object
+     * @param values the field values, as returned by {@link #getValues()}
+     */
+    void setObject(IMObject object, Map<String, Object> values) {
+        setObject(object);
+        this.values.putAll(values);
+    }
+
+    /**
+     * Returns the field values evaluated for the current object.
+     *
+     * @return the field values, keyed on field name
+     */
+    Map<String, Object> getValues() {
+        return values;
+    }
+
     /**
      * Tries to position the cursor on the next element in the data source.
      *
@@ -124,19 +255,189 @@ public class IMObjectDataSource extends AbstractIMObjectDataSource {
 
     /**
      * Returns a data source for a collection node.
+     * <p/>
+     * The collection is always read from the object, so that any unsaved changes are included.
      *
      * @param name      the collection node name
-     * @param sortNodes the list of nodes to sort on
+     * @param sortNodes the list of nodes to sort on, in the form supported by {@link SortCriteria}
      * @throws JRException for any error
      */
     public JRRewindableDataSource getDataSource(String name, String[] sortNodes) throws JRException {
-        ArchetypeDescriptor archetype = resolver.getArchetype();
-        NodeDescriptor descriptor = archetype.getNodeDescriptor(name);
+        if (sortNodes == null) {
+            sortNodes = new String[0];
+        }
+        List<Object> key = getKey(name, sortNodes, -1); // distinct from the unlimited queried collection
+        IMObjectCollectionDataSource result = getView(key);
+        if (result == null) {
+            NodeDescriptor descriptor = getNode(name);
+            result = new IMObjectCollectionDataSource(object, fields, descriptor, getArchetypeService(),
+                                                      getLookupService(), getDocumentHandlers(), getFunctions(),
+                                                      sortNodes);
+            configure(result);
+            collections.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a data source for a collection node, limiting the no. of objects returned.
+     * <p/>
+     * Where the collection holds the relationships or participations of a saved object, and the sort nodes are
+     * nodes of the relationships themselves, the collection is queried from the database, sorted and limited by the
+     * query, and retrieved a page at a time. This avoids loading the entire collection. Note that the query returns
+     * the collection as last saved.
+     * <p/>
+     * Otherwise, the collection is sorted in memory, and the first {@code limit} objects returned. The exception is
+     * an unlimited, queryable collection with more objects than the {@link #setSortRunSize sort run size}; this is
+     * queried unsorted, and sorted using an {@link ExternalSort}, so that only the sort keys and references of its
+     * objects are held in memory while it is iterated. As with other queried collections, this returns the
+     * collection as last saved.
+     * <p/>
+     * Collections held in memory are only read and sorted once for the current object; subsequent requests for the
+     * same collection, sort nodes and limit return a new data source over the same objects.
+     *
+     * @param name      the collection node name
+     * @param sortNodes the list of nodes to sort on, in the form supported by {@link SortCriteria}
+     * @param limit     the maximum no. of objects to return, or {@code <= 0} to return all objects
+     * @return the data source
+     * @throws JRException for any error
+     */
+    public JRRewindableDataSource getDataSource(String name, String[] sortNodes, int limit) throws JRException {
+        if (sortNodes == null) {
+            sortNodes = new String[0];
+        }
+        List<Object> key = getKey(name, sortNodes, Math.max(limit, 0));
+        IMObjectCollectionDataSource result = getView(key);
+        if (result != null) {
+            return result;
+        }
+        NodeDescriptor descriptor = getNode(name);
+        IArchetypeQuery query = CollectionQueryFactory.create(object, descriptor, new SortCriteria(sortNodes),
+                                                            getArchetypeService());
+        if (query != null) {
+            int pageSize = (limit > 0) ? Math.min(limit, PAGE_SIZE) : PAGE_SIZE;
+            PagedIMObjectIterable objects = new PagedIMObjectIterable(getArchetypeService(), query, pageSize, null,
+                                                                      limit);
+            result = new IMObjectCollectionDataSource(objects, fields, getArchetypeService(), getLookupService(),
+                                                      getDocumentHandlers(), getFunctions());
+            result.setDisplayName(descriptor.getDisplayName());
+        } else {
+            if (limit <= 0) {
+                result = getExternallySorted(descriptor, sortNodes);
+            }
+            if (result == null) {
+                result = new IMObjectCollectionDataSource(object, fields, descriptor, getArchetypeService(),
+                                                          getLookupService(), getDocumentHandlers(), getFunctions(),
+                                                          limit, sortNodes);
+            }
+        }
+        configure(result);
+        if (result.isMaterialized()) {
+            collections.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Sets the maximum no. of collection objects to sort in memory.
+     * <p/>
+     * Larger collections returned by {@link #getDataSource(String, String[], int)} are sorted externally, in runs of
+     * this size.
+     *
+     * @param size the sort run size
+     */
+    void setSortRunSize(int size) {
+        sortRunSize = size;
+    }
+
+    /**
+     * Returns a data source that sorts a collection using an {@link ExternalSort}, if it is too large to sort in
+     * memory.
+     * <p/>
+     * The decision is based on the size of the collection held by the object. The collection is then queried
+     * unsorted, and only the sort keys and references of its objects are held in memory.
+     *
+     * @param descriptor the collection node descriptor
+     * @param sortNodes  the sort nodes
+     * @return a new data source, or {@code null} if the collection doesn't need to be sorted, can't be queried, or
+     *         is small enough to sort in memory
+     */
+    private IMObjectCollectionDataSource getExternallySorted(NodeDescriptor descriptor, String[] sortNodes) {
+        IMObjectCollectionDataSource result = null;
+        IArchetypeQuery unsorted = null;
+        if (sortNodes.length != 0 && descriptor.getChildren(object).size() > sortRunSize) {
+            unsorted = CollectionQueryFactory.create(object, descriptor, new SortCriteria(), getArchetypeService());
+        }
+        if (unsorted != null) {
+            PagedIMObjectIterable objects = new PagedIMObjectIterable(getArchetypeService(), unsorted, PAGE_SIZE,
+                                                                      null, 0);
+            ExternallySortedIterable sorted = new ExternallySortedIterable(objects, new SortCriteria(sortNodes),
+                                                                           sortRunSize, getArchetypeService());
+            result = new IMObjectCollectionDataSource(sorted, fields, getArchetypeService(), getLookupService(),
+                                                      getDocumentHandlers(), getFunctions());
+            result.setDisplayName(descriptor.getDisplayName());
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new view of a collection previously returned for the current object.
+     *
+     * @param key the collection key
+     * @return a new view of the collection, or {@code null} if the collection hasn't been returned before
+     */
+    private IMObjectCollectionDataSource getView(List<Object> key) {
+        IMObjectCollectionDataSource result = null;
+        IMObjectCollectionDataSource collection = collections.get(key);
+        if (collection != null) {
+            result = collection.newView();
+            configure(result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the key for a collection data source.
+     *
+     * @param name      the collection node name
+     * @param sortNodes the sort nodes
+     * @param limit     the maximum no. of objects to return, {@code 0} to return all objects, or {@code -1} if the
+     *                  collection is always read from the object
+     * @return the key
+     */
+    private List<Object> getKey(String name, String[] sortNodes, int limit) {
+        return Arrays.<Object>asList(name, Arrays.asList(sortNodes), limit);
+    }
+
+    /**
+     * Configures a child data source.
+     *
+     * @param result the data source
+     */
+    private void configure(IMObjectCollectionDataSource result) {
+        children.add(result);
+        result.setGovernor(getGovernor());
+        result.setAccessorCache(getAccessorCache());
+        result.setContextFactory(getContextFactory());
+        result.setNameCache(getNameCache());
+        result.setLookupNameCache(getLookupNameCache());
+        result.setContentCache(getContentCache());
+    }
+
+    /**
+     * Returns the descriptor for a collection node.
+     *
+     * @param name the node name
+     * @return the node descriptor
+     * @throws JRException if the node doesn't exist
+     */
+    private NodeDescriptor getNode(String name) throws JRException {
+        ArchetypeDescriptor archetype = DescriptorHelper.getArchetypeDescriptor(object, getArchetypeService());
+        NodeDescriptor descriptor = (archetype != null) ? archetype.getNodeDescriptor(name) : null;
         if (descriptor == null) {
             throw new JRException("No node found for field=" + name);
         }
-        return new IMObjectCollectionDataSource(object, fields, descriptor, getArchetypeService(), getLookupService(),
-                                                getDocumentHandlers(), getFunctions(), sortNodes);
+        return descriptor;
     }
 
     /**
@@ -149,8 +450,8 @@ public class IMObjectDataSource extends AbstractIMObjectDataSource {
     @Override
     @SuppressWarnings("unchecked")
     public JRRewindableDataSource getExpressionDataSource(String expression) throws JRException {
-        JXPathContext context = JXPathHelper.newContext(object, getFunctions());
-        Object value = context.getValue(expression);
+        JXPathContext context = getContextFactory().newContext(object);
+        Object value = ExpressionCache.getDefault().get(expression).getValue(context);
         Iterable<IMObject> iterable;
         if (value instanceof Iterable) {
             iterable = (Iterable<IMObject>) value;
@@ -158,28 +459,121 @@ public class IMObjectDataSource extends AbstractIMObjectDataSource {
             throw new JRException("Unsupported value type=" + ((value != null) ? value.getClass() : null)
                                   + " returned by expression=" + expression);
         }
-        return new IMObjectCollectionDataSource(iterable, fields, getArchetypeService(), getLookupService(),
-                                                getDocumentHandlers(), getFunctions());
+        IMObjectCollectionDataSource result = new IMObjectCollectionDataSource(
+                iterable, fields, getArchetypeService(), getLookupService(), getDocumentHandlers(), getFunctions());
+        configure(result);
+        return result;
     }
 
     /**
      * Gets the field value for the current position.
+     * <p/>
+     * Values are evaluated at most once per object, as JasperReports may request the same field several times when
+     * evaluating variables, print-when expressions and conditional styles.
      *
      * @return an object containing the field value. The object type must be the field object type.
      * @throws JRException for any error
      */
     public Object getFieldValue(JRField field) throws JRException {
-        Object value = evaluator.getValue(field.getName());
-        if (value instanceof Document) {
-            Document doc = (Document) value;
-            if (doc.getContents() != null && doc.getContents().length != 0) {
-                DocumentHandler handler = handlers.get(doc);
-                value = handler.getContent(doc);
-            } else {
-                value = null;
+        String name = field.getName();
+        Object value;
+        if (values.containsKey(name)) {
+            value = values.get(name);
+        } else {
+            value = evaluator.getValue(name);
+            if (value instanceof Document) {
+                value = getContent((Document) value);
             }
+            values.put(name, value);
+        }
+        if (value instanceof Content) {
+            value = ((Content) value).getStream();
         }
         return value;
     }
 
+    /**
+     * Evaluates a field for the current object, before it is requested via {@link #getFieldValue(JRField)}.
+     * <p/>
+     * This may be invoked by a thread other than the fill thread. The value is only recorded if the field evaluates
+     * successfully. A field that fails is evaluated again, and its failure reported, when it is requested.
+     * <p/>
+     * The outcome is not recorded in the shared accessor cache; see
+     * {@link IMObjectExpressionEvaluator#evaluateValue(String)}.
+     *
+     * @param field the field
+     * @throws Exception if the field fails to evaluate
+     */
+    void evaluate(JRField field) throws Exception {
+        String name = field.getName();
+        if (!values.containsKey(name)) {
+            Object value = evaluator.evaluateValue(name);
+            if (value instanceof Document) {
+                value = getContent((Document) value);
+            }
+            values.put(name, value);
+        }
+    }
+
+    /**
+     * Returns the content of a document.
+     * <p/>
+     * If a {@link DocumentContentCache} has been registered, this is used to avoid reading the same document for each
+     * object.
+     *
+     * @param document the document
+     * @return the document content, or {@code null} if the document is empty
+     * @throws JRException if the content cannot be read
+     */
+    private Content getContent(Document document) throws JRException {
+        Content result = null;
+        if (document.getContents() != null && document.getContents().length != 0) {
+            DocumentHandler handler = handlers.get(document);
+            DocumentContentCache contents = getContentCache();
+            InputStream stream = null;
+            try {
+                if (contents != null) {
+                    result = new Content(contents.getContent(document, handler));
+                } else {
+                    stream = handler.getContent(document);
+                    result = new Content(IOUtils.toByteArray(stream));
+                }
+            } catch (IOException exception) {
+                throw new JRException("Failed to read document " + document.getName(), exception);
+            } finally {
+                IOUtils.closeQuietly(stream);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Document content, read once per object and returned as a new stream each time it is accessed.
+     */
+    private static class Content {
+
+        /**
+         * The content.
+         */
+        private final byte[] content;
+
+        /**
+         * Constructs a {@link Content}.
+         *
+         * @param content the content
+         */
+        public Content(byte[] content) {
+            this.content = content;
+        }
+
+        /**
+         * Returns a stream to read the content.
+         *
+         * @return a new stream
+         */
+        public InputStream getStream() {
+            return new ByteArrayInputStream(content);
+        }
+    }
+
 }
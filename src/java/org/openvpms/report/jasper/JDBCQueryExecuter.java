@@ -31,6 +31,7 @@ import net.sf.jasperreports.engine.query.JRJdbcQueryExecuter;
 import org.openvpms.component.business.service.archetype.IArchetypeService;
 import org.openvpms.component.business.service.archetype.helper.ResolvingPropertySet;
 import org.openvpms.component.system.common.util.PropertySet;
+import org.openvpms.report.ReportException;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -48,6 +49,11 @@ public class JDBCQueryExecuter extends JRJdbcQueryExecuter {
      */
     private final PropertySet fields;
 
+    /**
+     * The fill governor. May be {@code null}.
+     */
+    private final FillGovernor governor;
+
     /**
      * Constructs an {@link JDBCQueryExecuter}.
      *
@@ -58,8 +64,23 @@ public class JDBCQueryExecuter extends JRJdbcQueryExecuter {
      */
     public JDBCQueryExecuter(JRDataset dataset, Map<String, Object> parameters, Map<String, Object> fields,
                              IArchetypeService service) {
+        this(dataset, parameters, fields, service, null);
+    }
+
+    /**
+     * Constructs an {@link JDBCQueryExecuter}.
+     *
+     * @param dataset    the report data set
+     * @param parameters the report parameters
+     * @param fields     a map of additional field names and their values, to pass to the report. May be {@code null}
+     * @param service    the archetype service
+     * @param governor   the governor used to limit the no. of rows read. May be {@code null}
+     */
+    public JDBCQueryExecuter(JRDataset dataset, Map<String, Object> parameters, Map<String, Object> fields,
+                             IArchetypeService service, FillGovernor governor) {
         super(DefaultJasperReportsContext.getInstance(), dataset, convert(dataset, parameters));
         this.fields = (fields != null) ? new ResolvingPropertySet(fields, service) : null;
+        this.governor = governor;
     }
 
     /**
@@ -73,7 +94,7 @@ public class JDBCQueryExecuter extends JRJdbcQueryExecuter {
     }
 
     /**
-     * Wraps an {@code JRDataSource}, in order to support {@link #fields}.
+     * Wraps an {@code JRDataSource}, in order to support {@link #fields} and {@link #governor}.
      */
     private class FieldDataSource implements JRDataSource {
 
@@ -95,11 +116,16 @@ public class JDBCQueryExecuter extends JRJdbcQueryExecuter {
          * Tries to position the cursor on the next element in the data source.
          *
          * @return true if there is a next record, false otherwise
-         * @throws JRException if any error occurs while trying to move to the next element
+         * @throws JRException     if any error occurs while trying to move to the next element
+         * @throws ReportException if the maximum no. of rows has been exceeded
          */
         @Override
         public boolean next() throws JRException {
-            return dataSource != null && dataSource.next();
+            boolean result = dataSource != null && dataSource.next();
+            if (result && governor != null) {
+                governor.next();
+            }
+            return result;
         }
 
         /**
@@ -0,0 +1,149 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.export.JRPrintServiceExporter;
+import net.sf.jasperreports.export.SimpleExporterInput;
+import net.sf.jasperreports.export.SimplePrintServiceExporterConfiguration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openvpms.report.PrintProperties;
+import org.openvpms.report.print.PrintJob;
+import org.openvpms.report.print.PrinterRegistry;
+
+import javax.print.PrintService;
+import javax.print.attribute.HashPrintRequestAttributeSet;
+import javax.print.attribute.HashPrintServiceAttributeSet;
+import javax.print.attribute.PrintRequestAttributeSet;
+import javax.print.attribute.PrintServiceAttributeSet;
+import javax.print.attribute.standard.Copies;
+import javax.print.attribute.standard.MediaSizeName;
+import javax.print.attribute.standard.MediaTray;
+import javax.print.attribute.standard.OrientationRequested;
+import javax.print.attribute.standard.PrinterName;
+import javax.print.attribute.standard.Sides;
+
+
+/**
+ * A {@link PrintJob} that prints a filled Jasper report.
+ *
+ * @author Tim Anderson
+ */
+public class JasperPrintJob extends PrintJob {
+
+    /**
+     * The report to print.
+     */
+    private final JasperPrint print;
+
+    /**
+     * The printer registry. May be {@code null}.
+     */
+    private final PrinterRegistry registry;
+
+    /**
+     * The logger.
+     */
+    private static final Log log = LogFactory.getLog(JasperPrintJob.class);
+
+
+    /**
+     * Constructs a {@link JasperPrintJob}.
+     *
+     * @param print      the report to print
+     * @param properties the print properties
+     */
+    public JasperPrintJob(JasperPrint print, PrintProperties properties) {
+        this(print, properties, null);
+    }
+
+    /**
+     * Constructs a {@link JasperPrintJob}.
+     *
+     * @param print      the report to print
+     * @param properties the print properties
+     * @param registry   the printer registry, used to avoid enumerating print services. May be {@code null}
+     */
+    public JasperPrintJob(JasperPrint print, PrintProperties properties, PrinterRegistry registry) {
+        super(print.getName(), properties);
+        this.print = print;
+        this.registry = registry;
+    }
+
+    /**
+     * Prints the report.
+     *
+     * @throws JRException for any error
+     */
+    @Override
+    public void print() throws JRException {
+        PrintProperties properties = getProperties();
+        if (log.isDebugEnabled()) {
+            log.debug("PrinterName: " + properties.getPrinterName());
+        }
+
+        JRPrintServiceExporter exporter = new JRPrintServiceExporter();
+        exporter.setExporterInput(new SimpleExporterInput(print));
+        PrintRequestAttributeSet aset = new HashPrintRequestAttributeSet();
+        aset.add(new Copies(properties.getCopies()));
+        MediaSizeName mediaSize = properties.getMediaSize();
+        OrientationRequested orientation = properties.getOrientation();
+        MediaTray tray = properties.getMediaTray();
+        Sides sides = properties.getSides();
+        if (mediaSize != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("MediaSizeName: " + mediaSize);
+            }
+            aset.add(mediaSize);
+        }
+        if (orientation != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Orientation: " + orientation);
+            }
+            aset.add(orientation);
+        }
+        if (tray != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("MediaTray: " + tray);
+            }
+            aset.add(tray);
+        }
+        if (sides != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Sides: " + sides);
+            }
+            aset.add(sides);
+        }
+        SimplePrintServiceExporterConfiguration printConfiguration = new SimplePrintServiceExporterConfiguration();
+        printConfiguration.setPrintRequestAttributeSet(aset);
+        PrintService service = (registry != null) ? registry.getService(properties.getPrinterName()) : null;
+        if (service != null) {
+            // use the cached service, rather than making the exporter look it up
+            printConfiguration.setPrintService(service);
+        } else {
+            // set the printer name
+            PrintServiceAttributeSet serviceAttributeSet = new HashPrintServiceAttributeSet();
+            serviceAttributeSet.add(new PrinterName(properties.getPrinterName(), null));
+            printConfiguration.setPrintServiceAttributeSet(serviceAttributeSet);
+        }
+        exporter.setConfiguration(printConfiguration);
+        // print it
+        exporter.exportReport();
+    }
+}
@@ -24,9 +24,16 @@ import org.openvpms.component.business.service.archetype.IArchetypeService;
 import org.openvpms.component.business.service.lookup.ILookupService;
 import org.openvpms.component.system.common.query.ObjectSet;
 import org.openvpms.component.system.common.util.PropertySet;
+import org.openvpms.report.DisplayNameCache;
+import org.openvpms.report.ExpressionContextFactory;
+import org.openvpms.report.FieldAccessorCache;
+import org.openvpms.report.LookupNameCache;
 import org.openvpms.report.ObjectSetExpressionEvaluator;
+import org.openvpms.report.ReportException;
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 
 /**
@@ -37,7 +44,7 @@ import java.util.Iterator;
 class ObjectSetDataSource implements JRRewindableDataSource {
 
     /**
-     * The current object.
+     * The evaluator for the current object. This is rebound to each object in turn.
      */
     private ObjectSetExpressionEvaluator current;
 
@@ -71,6 +78,36 @@ class ObjectSetDataSource implements JRRewindableDataSource {
      */
     private final Functions functions;
 
+    /**
+     * The fill governor. May be {@code null}.
+     */
+    private FillGovernor governor;
+
+    /**
+     * The display name cache. May be {@code null}.
+     */
+    private DisplayNameCache names;
+
+    /**
+     * The lookup name cache. May be {@code null}.
+     */
+    private LookupNameCache lookupNames;
+
+    /**
+     * The field accessor cache, shared by the evaluator for each row.
+     */
+    private final FieldAccessorCache accessors = new FieldAccessorCache();
+
+    /**
+     * The field values for the current row, keyed on field name.
+     */
+    private final Map<String, Object> values = new HashMap<String, Object>();
+
+    /**
+     * The factory for JXPath contexts, shared by the evaluator for each row.
+     */
+    private final ExpressionContextFactory contexts;
+
 
     /**
      * Constructs a {@link ObjectSetDataSource}.
@@ -89,21 +126,74 @@ class ObjectSetDataSource implements JRRewindableDataSource {
         this.service = service;
         this.lookups = lookups;
         this.functions = functions;
+        contexts = new ExpressionContextFactory(fields, service, lookups, functions);
+    }
+
+    /**
+     * Sets the governor used to limit the no. of rows read.
+     *
+     * @param governor the governor. May be {@code null}
+     */
+    public void setGovernor(FillGovernor governor) {
+        this.governor = governor;
+    }
+
+    /**
+     * Sets the cache used to determine the display names of referenced objects.
+     *
+     * @param names the cache. May be {@code null}
+     */
+    public void setNameCache(DisplayNameCache names) {
+        this.names = names;
+    }
+
+    /**
+     * Sets the cache used to determine the names of lookups referred to by lookup nodes.
+     *
+     * @param lookupNames the cache. May be {@code null}
+     */
+    public void setLookupNameCache(LookupNameCache lookupNames) {
+        this.lookupNames = lookupNames;
+    }
+
+    /**
+     * Returns the cache of field accessors.
+     *
+     * @return the cache
+     */
+    public FieldAccessorCache getAccessorCache() {
+        return accessors;
     }
 
     /**
      * Tries to position the cursor on the next element in the data source.
      *
      * @return true if there is a next record, false otherwise
-     * @throws JRException if any error occurs while trying to move to the next element
+     * @throws JRException     if any error occurs while trying to move to the next element
+     * @throws ReportException if the maximum no. of rows has been exceeded
      */
     public boolean next() throws JRException {
+        values.clear();
         try {
             if (iterator.hasNext()) {
-                current = new ObjectSetExpressionEvaluator(iterator.next(), fields, service, lookups, functions);
+                if (governor != null) {
+                    governor.next();
+                }
+                ObjectSet set = iterator.next();
+                if (current == null) {
+                    current = new ObjectSetExpressionEvaluator(set, fields, service, lookups, functions);
+                    current.setAccessorCache(accessors);
+                    current.setContextFactory(contexts);
+                } else {
+                    current.setObject(set);
+                }
+                current.setNameCache(names);
+                current.setLookupNameCache(lookupNames);
                 return true;
             }
             return false;
+        } catch (ReportException exception) {
+            throw exception;
         } catch (Throwable exception) {
             throw new JRException(exception);
         }
@@ -111,11 +201,22 @@ class ObjectSetDataSource implements JRRewindableDataSource {
 
     /**
      * Gets the field value for the current position.
+     * <p/>
+     * Values are evaluated at most once per row, as JasperReports may request the same field several times when
+     * evaluating variables, print-when expressions and conditional styles.
      *
      * @return an object containing the field value. The object type must be the field object type.
      */
     public Object getFieldValue(JRField field) throws JRException {
-        return current.getValue(field.getName());
+        String name = field.getName();
+        Object value;
+        if (values.containsKey(name)) {
+            value = values.get(name);
+        } else {
+            value = current.getValue(name);
+            values.put(name, value);
+        }
+        return value;
     }
 
     /**
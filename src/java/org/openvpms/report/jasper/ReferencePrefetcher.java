@@ -0,0 +1,212 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openvpms.component.business.domain.im.archetype.descriptor.ArchetypeDescriptor;
+import org.openvpms.component.business.domain.im.archetype.descriptor.NodeDescriptor;
+import org.openvpms.component.business.domain.im.common.EntityRelationship;
+import org.openvpms.component.business.domain.im.common.IMObject;
+import org.openvpms.component.business.domain.im.common.IMObjectReference;
+import org.openvpms.component.business.domain.im.common.Participation;
+import org.openvpms.component.business.service.archetype.helper.DescriptorHelper;
+import org.openvpms.report.PrefetchingArchetypeService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Prefetches the objects referred to by field paths, for a window of report rows.
+ * <p/>
+ * Each field path of the form <em>node1.node2.nodeN</em> is walked a level at a time across all of the rows, and
+ * the references encountered at each level retrieved in a single batch via
+ * {@link PrefetchingArchetypeService#prefetch(Collection)}. This avoids one query per row when the rows are
+ * subsequently evaluated.
+ *
+ * @author Tim Anderson
+ */
+class ReferencePrefetcher {
+
+    /**
+     * The archetype service.
+     */
+    private final PrefetchingArchetypeService service;
+
+    /**
+     * The field paths to prefetch.
+     */
+    private final Set<String> paths = new LinkedHashSet<String>();
+
+    /**
+     * Paths that couldn't be walked. These aren't prefetched.
+     */
+    private final Set<String> invalid = new LinkedHashSet<String>();
+
+    /**
+     * The logger.
+     */
+    private static final Log log = LogFactory.getLog(ReferencePrefetcher.class);
+
+
+    /**
+     * Constructs a {@link ReferencePrefetcher}.
+     *
+     * @param service the archetype service
+     */
+    public ReferencePrefetcher(PrefetchingArchetypeService service) {
+        this.service = service;
+    }
+
+    /**
+     * Returns the no. of rows to prefetch at a time.
+     *
+     * @return the no. of rows
+     */
+    public int getWindow() {
+        return service.getWindow();
+    }
+
+    /**
+     * Registers a field path to prefetch.
+     *
+     * @param path the field path
+     * @return {@code true} if the path wasn't already registered
+     */
+    public boolean addPath(String path) {
+        return !invalid.contains(path) && paths.add(path);
+    }
+
+    /**
+     * Determines if any field paths have been registered.
+     *
+     * @return {@code true} if field paths have been registered
+     */
+    public boolean hasPaths() {
+        return !paths.isEmpty();
+    }
+
+    /**
+     * Prefetches the objects referred to by the registered field paths, for a set of rows.
+     *
+     * @param rows the rows
+     */
+    public void prefetch(List<IMObject> rows) {
+        for (String path : new ArrayList<String>(paths)) {
+            try {
+                prefetch(rows, path.split("\\."));
+            } catch (RuntimeException exception) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Not prefetching " + path + ": " + exception.getMessage(), exception);
+                }
+                paths.remove(path);
+                invalid.add(path);
+            }
+        }
+    }
+
+    /**
+     * Prefetches the objects referred to by a field path.
+     *
+     * @param rows  the rows
+     * @param nodes the path nodes
+     */
+    private void prefetch(List<IMObject> rows, String[] nodes) {
+        List<IMObject> current = rows;
+        for (int i = 0; i < nodes.length && !current.isEmpty(); ++i) {
+            boolean last = (i == nodes.length - 1);
+            Set<IMObjectReference> references = new LinkedHashSet<IMObjectReference>();
+            List<IMObject> next = new ArrayList<IMObject>();
+            for (IMObject object : current) {
+                collect(object, nodes[i], last, references, next);
+            }
+            if (!references.isEmpty()) {
+                service.prefetch(references);
+                if (!last) {
+                    for (IMObjectReference reference : references) {
+                        IMObject object = service.get(reference);
+                        if (object != null) {
+                            next.add(object);
+                        }
+                    }
+                }
+            }
+            current = next;
+        }
+    }
+
+    /**
+     * Collects the value of a node.
+     *
+     * @param object     the object
+     * @param name       the node name
+     * @param last       if {@code true}, the node is the last in the path
+     * @param references collects references
+     * @param objects    collects objects
+     */
+    private void collect(IMObject object, String name, boolean last, Set<IMObjectReference> references,
+                         List<IMObject> objects) {
+        ArchetypeDescriptor archetype = DescriptorHelper.getArchetypeDescriptor(object, service);
+        NodeDescriptor node = (archetype != null) ? archetype.getNodeDescriptor(name) : null;
+        if (node != null) {
+            if (node.isCollection()) {
+                List<IMObject> children = node.getChildren(object);
+                if (last) {
+                    for (IMObject child : children) {
+                        collect(child, true, references, objects);
+                    }
+                } else if (!children.isEmpty()) {
+                    collect(children.get(0), false, references, objects);
+                }
+            } else {
+                collect(node.getValue(object), last, references, objects);
+            }
+        }
+    }
+
+    /**
+     * Collects a node value.
+     * <p/>
+     * For the last node in a path, the entities referred to by participations and entity relationships are also
+     * collected, as these are used to display the value.
+     *
+     * @param value      the value. May be {@code null}
+     * @param last       if {@code true}, the value is for the last node in the path
+     * @param references collects references
+     * @param objects    collects objects
+     */
+    private void collect(Object value, boolean last, Set<IMObjectReference> references, List<IMObject> objects) {
+        if (value instanceof IMObjectReference) {
+            references.add((IMObjectReference) value);
+        } else if (value instanceof IMObject) {
+            if (last) {
+                if (value instanceof Participation) {
+                    references.add(((Participation) value).getEntity());
+                } else if (value instanceof EntityRelationship) {
+                    references.add(((EntityRelationship) value).getTarget());
+                }
+            } else {
+                objects.add((IMObject) value);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,332 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper;
+
+import net.sf.jasperreports.engine.JRField;
+import net.sf.jasperreports.engine.JRRuntimeException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openvpms.component.business.domain.im.common.IMObject;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * Iterates over a collection of objects in a background thread, evaluating the fields of each row ahead of the
+ * report fill thread.
+ * <p/>
+ * Rows are passed to the fill thread via a bounded queue, so that retrieving objects and evaluating their fields
+ * overlaps with report layout.
+ * <p/>
+ * The producer thread runs with the security context of the thread that created the pipeline, and retrieves and
+ * evaluates each row in its own read-only transaction. A row is only handed to the fill thread once its transaction
+ * has completed, and the producer doesn't access it again, so the fill thread never uses objects attached to the
+ * producer's session. Conversely, the iterator must load each object itself, e.g. from a query, rather than return
+ * objects that belong to the fill thread's session.
+ * <p/>
+ * Closing the pipeline waits for the producer thread to terminate, so that the iterator's resources can be released
+ * safely.
+ * <p/>
+ * The pipeline uses its own {@link IMObjectDataSource} to evaluate fields, created via {@link #createDataSource}.
+ * Fields are evaluated using {@link IMObjectDataSource#evaluate(JRField)}, so the producer doesn't update the failure
+ * counts or constant values of the shared field accessors. Any field that fails to evaluate is omitted from the row,
+ * so that it is evaluated again, and its error reported, by the fill thread.
+ *
+ * @author Tim Anderson
+ */
+abstract class RowPipeline {
+
+    /**
+     * The objects to iterate over.
+     */
+    private final Iterator<IMObject> iterator;
+
+    /**
+     * The data source used to evaluate fields. Only accessed by the producer thread.
+     */
+    private IMObjectDataSource source;
+
+    /**
+     * The fields to evaluate.
+     */
+    private final JRField[] fields;
+
+    /**
+     * The evaluated rows.
+     */
+    private final BlockingQueue<Row> rows;
+
+    /**
+     * The template used to retrieve and evaluate each row in a transaction.
+     */
+    private final TransactionTemplate template;
+
+    /**
+     * The security context to run the producer thread with.
+     */
+    private final SecurityContext context;
+
+    /**
+     * The producer thread.
+     */
+    private Thread thread;
+
+    /**
+     * The error raised by the producer thread, if any.
+     */
+    private volatile Throwable error;
+
+    /**
+     * Determines if the end of the rows has been reached.
+     */
+    private volatile boolean done;
+
+    /**
+     * The maximum time to wait for the producer thread to terminate when the pipeline is closed, in milliseconds.
+     */
+    private static final long JOIN_TIMEOUT = 30000;
+
+    /**
+     * Marker for the end of the rows.
+     */
+    private static final Row END = new Row(null, Collections.<String, Object>emptyMap());
+
+    /**
+     * The logger.
+     */
+    private static final Log log = LogFactory.getLog(RowPipeline.class);
+
+
+    /**
+     * Constructs a {@link RowPipeline}.
+     * <p/>
+     * This must be invoked by the fill thread, as the producer thread inherits its security context.
+     *
+     * @param iterator           the objects to iterate over
+     * @param fields             the fields to evaluate
+     * @param capacity           the maximum no. of rows to evaluate ahead of the fill thread
+     * @param transactionManager the transaction manager
+     */
+    public RowPipeline(Iterator<IMObject> iterator, JRField[] fields, int capacity,
+                       PlatformTransactionManager transactionManager) {
+        this.iterator = iterator;
+        this.fields = fields;
+        rows = new ArrayBlockingQueue<Row>(capacity);
+        template = new TransactionTemplate(transactionManager);
+        template.setReadOnly(true);
+        context = SecurityContextHolder.getContext();
+    }
+
+    /**
+     * Starts the producer thread.
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(new Runnable() {
+                public void run() {
+                    produce();
+                }
+            }, "RowPipeline");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Returns the next row, blocking until it is available.
+     *
+     * @return the next row, or {@code null} if there are no more rows
+     * @throws JRRuntimeException if the fill thread is interrupted, or the producer thread failed with a checked
+     *                            exception. Runtime exceptions raised by the producer thread are rethrown as is
+     */
+    public Row next() {
+        Row result = null;
+        if (!done) {
+            try {
+                result = rows.take();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new JRRuntimeException(exception);
+            }
+            if (result == END) {
+                done = true;
+                result = null;
+                Throwable cause = error;
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else if (cause != null) {
+                    throw new JRRuntimeException(cause);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stops the producer thread, discarding any rows that haven't been consumed.
+     * <p/>
+     * This waits for the producer thread to terminate, so that the objects being iterated over may be released once
+     * it returns.
+     */
+    public synchronized void close() {
+        done = true;
+        if (thread != null) {
+            thread.interrupt();
+            rows.clear();
+            try {
+                thread.join(JOIN_TIMEOUT);
+                if (thread.isAlive()) {
+                    log.warn("Timed out waiting for " + thread.getName() + " to terminate");
+                }
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        rows.clear();
+    }
+
+    /**
+     * Creates the data source used to evaluate fields.
+     * <p/>
+     * This is invoked by the producer thread, and is rebound to each object in turn. It must not be used by any
+     * other thread.
+     *
+     * @param object the first object
+     * @return a new data source
+     */
+    protected abstract IMObjectDataSource createDataSource(IMObject object);
+
+    /**
+     * Iterates over the objects, evaluating the fields of each, until the end is reached or the thread is
+     * interrupted.
+     */
+    private void produce() {
+        SecurityContextHolder.setContext(context);
+        try {
+            TransactionCallback<Row> callback = new TransactionCallback<Row>() {
+                public Row doInTransaction(TransactionStatus status) {
+                    return nextRow();
+                }
+            };
+            Row row;
+            while (!done && !Thread.currentThread().isInterrupted() && (row = template.execute(callback)) != null) {
+                rows.put(row);
+            }
+        } catch (InterruptedException exception) {
+            // pipeline closed
+            return;
+        } catch (Throwable exception) {
+            error = exception;
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+        if (!done) {
+            try {
+                rows.put(END);
+            } catch (InterruptedException ignore) {
+                // pipeline closed
+            }
+        }
+    }
+
+    /**
+     * Retrieves the next object, and evaluates its fields.
+     *
+     * @return the next row, or {@code null} if there are no more objects
+     */
+    private Row nextRow() {
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        IMObject object = iterator.next();
+        if (source == null) {
+            source = createDataSource(object);
+        } else {
+            source.setObject(object);
+        }
+        for (JRField field : fields) {
+            try {
+                source.evaluate(field);
+            } catch (Exception exception) {
+                // leave it to the fill thread to evaluate and report the error
+                if (log.isDebugEnabled()) {
+                    log.debug("Failed to evaluate " + field.getName() + ": " + exception.getMessage(), exception);
+                }
+            }
+        }
+        return new Row(object, new HashMap<String, Object>(source.getValues()));
+    }
+
+    /**
+     * A row, and its evaluated field values.
+     */
+    static class Row {
+
+        /**
+         * The object.
+         */
+        private final IMObject object;
+
+        /**
+         * The field values, keyed on field name.
+         */
+        private final Map<String, Object> values;
+
+        /**
+         * Constructs a {@link Row}.
+         *
+         * @param object the object
+         * @param values the field values, keyed on field name
+         */
+        public Row(IMObject object, Map<String, Object> values) {
+            this.object = object;
+            this.values = values;
+        }
+
+        /**
+         * Returns the object.
+         *
+         * @return the object
+         */
+        public IMObject getObject() {
+            return object;
+        }
+
+        /**
+         * Returns the field values.
+         *
+         * @return the field values, keyed on field name
+         */
+        public Map<String, Object> getValues() {
+            return values;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper;
+
+import org.openvpms.report.ReportException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.openvpms.report.ReportException.ErrorCode.InvalidSortCriteria;
+
+
+/**
+ * Sort criteria for report collections.
+ * <p/>
+ * Each criterion has the form:
+ * <pre>
+ *     node [asc|desc] [nulls first|nulls last]
+ * </pre>
+ * where {@code node} is a node name in the form supported by {@code NodeResolver}. By default, nodes are sorted in
+ * ascending order, with nulls sorted low; i.e. first when ascending, and last when descending.
+ * <p/>
+ * The first criterion is the primary sort key. Subsequent criteria are only used to order objects whose preceding
+ * keys are equal.
+ *
+ * @author Tim Anderson
+ */
+public class SortCriteria {
+
+    /**
+     * The nodes to sort on.
+     */
+    private final String[] nodes;
+
+    /**
+     * Determines if each node is sorted in ascending order.
+     */
+    private final boolean[] ascending;
+
+    /**
+     * Determines if nulls sort first for each node.
+     */
+    private final boolean[] nullsFirst;
+
+
+    /**
+     * Constructs a {@link SortCriteria}.
+     *
+     * @param criteria the sort criteria
+     * @throws ReportException if a criterion is invalid
+     */
+    public SortCriteria(String... criteria) {
+        int size = criteria.length;
+        nodes = new String[size];
+        ascending = new boolean[size];
+        nullsFirst = new boolean[size];
+        for (int i = 0; i < size; ++i) {
+            parse(i, criteria[i]);
+        }
+    }
+
+    /**
+     * Returns the no. of sort keys.
+     *
+     * @return the no. of sort keys
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Returns the node of a sort key.
+     *
+     * @param index the sort key index
+     * @return the node name
+     */
+    public String getNode(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * Determines if a sort key is sorted in ascending order.
+     *
+     * @param index the sort key index
+     * @return {@code true} if the key is sorted in ascending order, {@code false} if it is sorted in descending order
+     */
+    public boolean isAscending(int index) {
+        return ascending[index];
+    }
+
+    /**
+     * Determines if nulls sort first for a sort key.
+     *
+     * @param index the sort key index
+     * @return {@code true} if nulls sort first, {@code false} if they sort last
+     */
+    public boolean isNullsFirst(int index) {
+        return nullsFirst[index];
+    }
+
+    /**
+     * Returns the node names.
+     *
+     * @return the node names
+     */
+    public List<String> getNodes() {
+        List<String> result = new ArrayList<String>();
+        Collections.addAll(result, nodes);
+        return result;
+    }
+
+    /**
+     * Returns a comparator for arrays of sort keys, one per criterion, in criteria order.
+     * <p/>
+     * Keys must be {@code null} or mutually {@code Comparable}.
+     *
+     * @return a new comparator
+     */
+    public Comparator<Object[]> getComparator() {
+        return new Comparator<Object[]>() {
+            @SuppressWarnings("unchecked")
+            public int compare(Object[] keys1, Object[] keys2) {
+                for (int i = 0; i < nodes.length; ++i) {
+                    Object key1 = keys1[i];
+                    Object key2 = keys2[i];
+                    int result;
+                    if (key1 == key2) {
+                        result = 0;
+                    } else if (key1 == null) {
+                        result = nullsFirst[i] ? -1 : 1;
+                    } else if (key2 == null) {
+                        result = nullsFirst[i] ? 1 : -1;
+                    } else {
+                        result = ((Comparable<Object>) key1).compareTo(key2);
+                        if (!ascending[i]) {
+                            result = -result;
+                        }
+                    }
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Parses a criterion.
+     *
+     * @param index     the criterion index
+     * @param criterion the criterion to parse
+     * @throws ReportException if the criterion is invalid
+     */
+    private void parse(int index, String criterion) {
+        String[] tokens = (criterion != null) ? criterion.trim().split("\\s+") : new String[0];
+        if (tokens.length == 0 || tokens[0].length() == 0) {
+            throw new ReportException(InvalidSortCriteria, criterion);
+        }
+        boolean asc = true;
+        Boolean nulls = null;
+        int pos = 1;
+        if (pos < tokens.length) {
+            if ("asc".equalsIgnoreCase(tokens[pos])) {
+                ++pos;
+            } else if ("desc".equalsIgnoreCase(tokens[pos])) {
+                asc = false;
+                ++pos;
+            }
+        }
+        if (pos + 1 < tokens.length && "nulls".equalsIgnoreCase(tokens[pos])) {
+            if ("first".equalsIgnoreCase(tokens[pos + 1])) {
+                nulls = true;
+            } else if ("last".equalsIgnoreCase(tokens[pos + 1])) {
+                nulls = false;
+            }
+            if (nulls != null) {
+                pos += 2;
+            }
+        }
+        if (pos != tokens.length) {
+            throw new ReportException(InvalidSortCriteria, criterion);
+        }
+        nodes[index] = tokens[0];
+        ascending[index] = asc;
+        nullsFirst[index] = (nulls != null) ? nulls : asc;
+    }
+
+}
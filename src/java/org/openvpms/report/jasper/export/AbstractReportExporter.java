@@ -0,0 +1,151 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper.export;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.export.Exporter;
+import net.sf.jasperreports.export.ExporterConfiguration;
+import net.sf.jasperreports.export.ExporterInput;
+import net.sf.jasperreports.export.OutputStreamExporterOutput;
+import net.sf.jasperreports.export.ReportExportConfiguration;
+import net.sf.jasperreports.export.SimpleExporterInput;
+import net.sf.jasperreports.export.SimpleOutputStreamExporterOutput;
+import net.sf.jasperreports.export.SimpleWriterExporterOutput;
+import net.sf.jasperreports.export.WriterExporterOutput;
+
+import java.io.OutputStream;
+
+
+/**
+ * Abstract implementation of the {@link ReportExporter} interface.
+ *
+ * @author Tim Anderson
+ */
+public abstract class AbstractReportExporter implements ReportExporter {
+
+    /**
+     * The mime type.
+     */
+    private final String mimeType;
+
+    /**
+     * The file name extension.
+     */
+    private final String extension;
+
+    /**
+     * Determines if the format requires a paginated report.
+     */
+    private final boolean paginated;
+
+    /**
+     * Determines if the exporter streams its output.
+     */
+    private final boolean streaming;
+
+
+    /**
+     * Constructs an {@link AbstractReportExporter}.
+     *
+     * @param mimeType  the mime type
+     * @param extension the file name extension
+     * @param paginated if {@code true}, the format requires a paginated report
+     * @param streaming if {@code true}, the exporter streams its output
+     */
+    public AbstractReportExporter(String mimeType, String extension, boolean paginated, boolean streaming) {
+        this.mimeType = mimeType;
+        this.extension = extension;
+        this.paginated = paginated;
+        this.streaming = streaming;
+    }
+
+    /**
+     * Returns the mime type that this exports to.
+     *
+     * @return the mime type
+     */
+    @Override
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Returns the file name extension of the exported format.
+     *
+     * @return the file name extension
+     */
+    @Override
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Determines if the format requires a paginated report.
+     *
+     * @return {@code true} if the report should be paginated, {@code false} if pagination should be ignored
+     */
+    @Override
+    public boolean isPaginated() {
+        return paginated;
+    }
+
+    /**
+     * Determines if the exporter streams its output.
+     *
+     * @return {@code true} if the exporter streams its output
+     */
+    @Override
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Exports a report using a stream.
+     *
+     * @param report   the report to export
+     * @param stream   the stream to export to
+     * @param exporter the exporter
+     * @throws JRException if the export fails
+     */
+    protected void exportStream(JasperPrint report, OutputStream stream,
+                                Exporter<ExporterInput, ? extends ReportExportConfiguration,
+                                        ? extends ExporterConfiguration, OutputStreamExporterOutput> exporter)
+            throws JRException {
+        exporter.setExporterInput(new SimpleExporterInput(report));
+        exporter.setExporterOutput(new SimpleOutputStreamExporterOutput(stream));
+        exporter.exportReport();
+    }
+
+    /**
+     * Exports a report using a writer.
+     *
+     * @param report   the report to export
+     * @param stream   the underlying stream to export to
+     * @param exporter the exporter
+     * @throws JRException if the export fails
+     */
+    protected void exportWriter(JasperPrint report, OutputStream stream,
+                                Exporter<ExporterInput, ? extends ReportExportConfiguration,
+                                        ? extends ExporterConfiguration, WriterExporterOutput> exporter)
+            throws JRException {
+        exporter.setExporterInput(new SimpleExporterInput(report));
+        exporter.setExporterOutput(new SimpleWriterExporterOutput(stream));
+        exporter.exportReport();
+    }
+
+}
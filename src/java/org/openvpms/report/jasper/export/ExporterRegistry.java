@@ -0,0 +1,156 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper.export;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+
+/**
+ * Registry of {@link ReportExporter}s, keyed on mime type.
+ * <p/>
+ * The {@link #getDefault() default} registry contains exporters for PDF, RTF, XLS, CSV, XML and plain text.
+ * These may be replaced by exporters declared as {@link ServiceLoader} services on the classpath, or by
+ * {@link #add(ReportExporter) adding} them directly.
+ * <p/>
+ * Only one exporter is registered per mime type; the most recently added takes precedence.
+ *
+ * @author Tim Anderson
+ */
+public class ExporterRegistry {
+
+    /**
+     * The exporters, keyed on mime type, in the order they were first registered.
+     */
+    private final Map<String, ReportExporter> exporters
+            = Collections.synchronizedMap(new LinkedHashMap<String, ReportExporter>());
+
+    /**
+     * The logger.
+     */
+    private static final Log log = LogFactory.getLog(ExporterRegistry.class);
+
+    /**
+     * The default registry.
+     */
+    private static final ExporterRegistry DEFAULT = createDefault();
+
+
+    /**
+     * Returns the default registry.
+     *
+     * @return the default registry
+     */
+    public static ExporterRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Adds an exporter, replacing any existing exporter for the same mime type.
+     *
+     * @param exporter the exporter
+     */
+    public void add(ReportExporter exporter) {
+        ReportExporter existing = exporters.put(exporter.getMimeType(), exporter);
+        if (existing != null && log.isDebugEnabled()) {
+            log.debug("Replaced " + existing.getClass().getName() + " with " + exporter.getClass().getName()
+                      + " for " + exporter.getMimeType());
+        }
+    }
+
+    /**
+     * Returns the exporter for a mime type.
+     *
+     * @param mimeType the mime type
+     * @return the exporter, or {@code null} if none is registered
+     */
+    public ReportExporter get(String mimeType) {
+        return (mimeType != null) ? exporters.get(mimeType) : null;
+    }
+
+    /**
+     * Determines if an exporter is registered for a mime type.
+     *
+     * @param mimeType the mime type
+     * @return {@code true} if an exporter is registered
+     */
+    public boolean supports(String mimeType) {
+        return get(mimeType) != null;
+    }
+
+    /**
+     * Returns the mime types that exporters are registered for.
+     * <p/>
+     * Mime types are returned in the order they were first registered, so the built-in PDF exporter is first.
+     *
+     * @return the mime types
+     */
+    public String[] getMimeTypes() {
+        synchronized (exporters) {
+            return exporters.keySet().toArray(new String[exporters.size()]);
+        }
+    }
+
+    /**
+     * Registers the built-in exporters.
+     */
+    protected void addDefaults() {
+        add(new PDFReportExporter());
+        add(new RTFReportExporter());
+        add(new XLSReportExporter());
+        add(new CSVReportExporter());
+        add(new XMLReportExporter());
+        add(new TextReportExporter());
+    }
+
+    /**
+     * Registers exporters declared as services on the classpath.
+     */
+    protected void addServices() {
+        Iterator<ReportExporter> iterator = ServiceLoader.load(ReportExporter.class).iterator();
+        while (true) {
+            try {
+                if (!iterator.hasNext()) {
+                    break;
+                }
+                add(iterator.next());
+            } catch (ServiceConfigurationError exception) {
+                log.error("Failed to load ReportExporter: " + exception.getMessage(), exception);
+            }
+        }
+    }
+
+    /**
+     * Creates the default registry.
+     *
+     * @return the default registry
+     */
+    private static ExporterRegistry createDefault() {
+        ExporterRegistry registry = new ExporterRegistry();
+        registry.addDefaults();
+        registry.addServices();
+        return registry;
+    }
+
+}
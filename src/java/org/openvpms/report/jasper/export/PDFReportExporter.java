@@ -0,0 +1,55 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper.export;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.export.JRPdfExporter;
+import org.openvpms.report.DocFormats;
+
+import java.io.OutputStream;
+import java.util.Map;
+
+
+/**
+ * Exports reports to PDF.
+ *
+ * @author Tim Anderson
+ */
+public class PDFReportExporter extends AbstractReportExporter {
+
+    /**
+     * Constructs a {@link PDFReportExporter}.
+     */
+    public PDFReportExporter() {
+        super(DocFormats.PDF_TYPE, DocFormats.PDF_EXT, true, true);
+    }
+
+    /**
+     * Exports a report.
+     *
+     * @param report     the report to export
+     * @param stream     the stream to write to
+     * @param parameters the report parameters
+     * @throws JRException if the export fails
+     */
+    @Override
+    public void export(JasperPrint report, OutputStream stream, Map<String, Object> parameters) throws JRException {
+        exportStream(report, stream, new JRPdfExporter());
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper.export;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperPrint;
+
+import java.io.OutputStream;
+import java.util.Map;
+
+
+/**
+ * Exports filled Jasper reports to a particular format.
+ * <p/>
+ * Exporters are registered with an {@link ExporterRegistry}, keyed on mime type. They are shared between reports, so
+ * must be thread safe.
+ *
+ * @author Tim Anderson
+ */
+public interface ReportExporter {
+
+    /**
+     * Returns the mime type that this exports to.
+     *
+     * @return the mime type
+     */
+    String getMimeType();
+
+    /**
+     * Returns the file name extension of the exported format.
+     *
+     * @return the file name extension
+     */
+    String getExtension();
+
+    /**
+     * Determines if the format requires a paginated report.
+     * <p/>
+     * If {@code false}, reports are filled with pagination disabled.
+     *
+     * @return {@code true} if the report should be paginated, {@code false} if pagination should be ignored
+     */
+    boolean isPaginated();
+
+    /**
+     * Determines if the exporter writes to the stream as the report is exported, rather than building the entire
+     * output in memory first.
+     * <p/>
+     * The output of streaming exporters may be spooled to disk rather than memory when large.
+     *
+     * @return {@code true} if the exporter streams its output
+     */
+    boolean isStreaming();
+
+    /**
+     * Exports a report.
+     *
+     * @param report     the report to export
+     * @param stream     the stream to write to
+     * @param parameters the report parameters
+     * @throws JRException if the export fails
+     */
+    void export(JasperPrint report, OutputStream stream, Map<String, Object> parameters) throws JRException;
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper.export;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.export.JRXlsExporter;
+import net.sf.jasperreports.export.SimpleXlsReportConfiguration;
+import org.openvpms.report.DocFormats;
+
+import java.io.OutputStream;
+import java.util.Map;
+
+
+/**
+ * Exports reports to XLS.
+ * <p/>
+ * Reports are filled without pagination. The workbook is built in memory before being written, so this doesn't stream.
+ *
+ * @author Tim Anderson
+ */
+public class XLSReportExporter extends AbstractReportExporter {
+
+    /**
+     * The export configuration.
+     */
+    private final SimpleXlsReportConfiguration configuration;
+
+
+    /**
+     * Constructs an {@link XLSReportExporter}.
+     */
+    public XLSReportExporter() {
+        super(DocFormats.XLS_TYPE, DocFormats.XLS_EXT, false, false);
+        configuration = new SimpleXlsReportConfiguration();
+        configuration.setDetectCellType(true);
+        configuration.setWhitePageBackground(false);
+        configuration.setIgnorePageMargins(true);
+        configuration.setCollapseRowSpan(true);
+        configuration.setRemoveEmptySpaceBetweenRows(true);
+        configuration.setRemoveEmptySpaceBetweenColumns(true);
+    }
+
+    /**
+     * Exports a report.
+     *
+     * @param report     the report to export
+     * @param stream     the stream to write to
+     * @param parameters the report parameters
+     * @throws JRException if the export fails
+     */
+    @Override
+    public void export(JasperPrint report, OutputStream stream, Map<String, Object> parameters) throws JRException {
+        JRXlsExporter exporter = new JRXlsExporter();
+        exporter.setConfiguration(configuration);
+        exportStream(report, stream, exporter);
+    }
+
+}
@@ -27,13 +27,21 @@ import org.openvpms.component.business.service.archetype.ArchetypeServiceExcepti
 import org.openvpms.component.business.service.archetype.IArchetypeService;
 import org.openvpms.component.business.service.lookup.ILookupService;
 import org.openvpms.component.system.common.exception.OpenVPMSException;
+import org.openvpms.report.DisplayNameCache;
 import org.openvpms.report.DocFormats;
 import org.openvpms.report.ExpressionEvaluator;
 import org.openvpms.report.ExpressionEvaluatorFactory;
+import org.openvpms.report.Formatters;
 import org.openvpms.report.IMReport;
+import org.openvpms.report.LookupNameCache;
 import org.openvpms.report.ParameterType;
 import org.openvpms.report.PrintProperties;
 import org.openvpms.report.ReportException;
+import org.openvpms.report.print.PDFPrintJob;
+import org.openvpms.report.print.PrintSpooler;
+import org.openvpms.report.print.PrinterRegistry;
+
+import javax.print.PrintException;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -85,6 +93,36 @@ public class OpenOfficeIMReport<T> implements IMReport<T> {
      */
     private final Functions functions;
 
+    /**
+     * The print spooler. May be {@code null}.
+     */
+    private PrintSpooler spooler;
+
+    /**
+     * Determines if documents are printed by exporting them to PDF, and sending the PDF to the printer.
+     */
+    private boolean printViaPDF;
+
+    /**
+     * The printer registry, used when printing via PDF. May be {@code null}.
+     */
+    private PrinterRegistry printers;
+
+    /**
+     * The formatters used to format user field values.
+     */
+    private Formatters formatters = Formatters.getDefault();
+
+    /**
+     * The cache of display names of referenced objects. May be {@code null}.
+     */
+    private DisplayNameCache names;
+
+    /**
+     * The cache of lookup names. May be {@code null}.
+     */
+    private LookupNameCache lookupNames;
+
     /**
      * The logger.
      */
@@ -116,6 +154,68 @@ public class OpenOfficeIMReport<T> implements IMReport<T> {
         this.functions = functions;
     }
 
+    /**
+     * Registers a spooler to print reports asynchronously.
+     * <p/>
+     * When set, the print methods return once the document has been merged and exported; the OpenOffice connection
+     * is released before the job is queued.
+     *
+     * @param spooler the spooler. May be {@code null} to print synchronously
+     */
+    public void setPrintSpooler(PrintSpooler spooler) {
+        this.spooler = spooler;
+    }
+
+    /**
+     * Determines if documents are printed by exporting them to PDF, and sending the PDF to the printer.
+     * <p/>
+     * This releases the OpenOffice connection as soon as the document has been rendered, rather than holding it while
+     * the printer spools the job. It requires printers that accept PDF, as CUPS does.
+     *
+     * @param printViaPDF if {@code true}, print via PDF, otherwise print using OpenOffice
+     */
+    public void setPrintViaPDF(boolean printViaPDF) {
+        this.printViaPDF = printViaPDF;
+    }
+
+    /**
+     * Registers a printer registry, used to avoid enumerating print services when printing via PDF.
+     *
+     * @param printers the printer registry. May be {@code null}
+     */
+    public void setPrinterRegistry(PrinterRegistry printers) {
+        this.printers = printers;
+    }
+
+    /**
+     * Sets the formatters used to format user field values.
+     * <p/>
+     * This allows the locale used to format dates and amounts to be specified for the report.
+     *
+     * @param formatters the formatters
+     */
+    public void setFormatters(Formatters formatters) {
+        this.formatters = formatters;
+    }
+
+    /**
+     * Sets the cache used to determine the display names of referenced objects when merging user fields.
+     *
+     * @param names the cache. May be {@code null}
+     */
+    public void setNameCache(DisplayNameCache names) {
+        this.names = names;
+    }
+
+    /**
+     * Sets the cache used to determine the names of lookups when merging user fields.
+     *
+     * @param lookupNames the cache. May be {@code null}
+     */
+    public void setLookupNameCache(LookupNameCache lookupNames) {
+        this.lookupNames = lookupNames;
+    }
+
     /**
      * Returns the set of parameter types that may be supplied to the report.
      *
@@ -319,10 +419,31 @@ public class OpenOfficeIMReport<T> implements IMReport<T> {
         OpenOfficeDocument doc = null;
         OOConnection connection = null;
         try {
-            PrintService service = OpenOfficeHelper.getPrintService();
-            connection = OpenOfficeHelper.getConnectionPool().getConnection();
-            doc = create(objects, parameters, fields, connection);
-            service.print(doc, properties, true);
+            if (printViaPDF) {
+                connection = OpenOfficeHelper.getConnectionPool().getConnection();
+                doc = create(objects, parameters, fields, connection);
+                byte[] content = doc.export(DocFormats.PDF_TYPE);
+                // release the connection before printing
+                close(doc, connection);
+                doc = null;
+                connection = null;
+                print(new PDFPrintJob(template.getName(), content, properties, printers));
+            } else {
+                PrintService service = OpenOfficeHelper.getPrintService();
+                connection = OpenOfficeHelper.getConnectionPool().getConnection();
+                doc = create(objects, parameters, fields, connection);
+                if (spooler != null) {
+                    // export the merged document and release the connection, rather than holding it while the job
+                    // is queued. The job acquires a connection when it is printed
+                    Document merged = doc.export(DocFormats.ODT_TYPE, template.getName());
+                    close(doc, connection);
+                    doc = null;
+                    connection = null;
+                    spooler.submit(new OpenOfficePrintJob(merged, properties, service));
+                } else {
+                    service.print(doc, properties, true);
+                }
+            }
         } catch (OpenOfficeException exception) {
             throw new ReportException(exception, FailedToPrintReport, exception.getMessage());
         } finally {
@@ -330,6 +451,24 @@ public class OpenOfficeIMReport<T> implements IMReport<T> {
         }
     }
 
+    /**
+     * Prints a PDF, queueing it with the spooler if one has been registered.
+     *
+     * @param job the job to print
+     * @throws ReportException if the job cannot be printed
+     */
+    private void print(PDFPrintJob job) {
+        if (spooler != null) {
+            spooler.submit(job);
+        } else {
+            try {
+                job.print();
+            } catch (PrintException exception) {
+                throw new ReportException(exception, FailedToPrintReport, exception.getMessage());
+            }
+        }
+    }
+
     /**
      * Creates an openoffice document from a collection of objects.
      * Note that the collection is limited to a single object.
@@ -427,7 +566,8 @@ public class OpenOfficeIMReport<T> implements IMReport<T> {
      */
     protected void populateUserFields(OpenOfficeDocument document, T object, Map<String, Object> parameters,
                                       Map<String, Object> fields) {
-        ExpressionEvaluator eval = ExpressionEvaluatorFactory.create(object, fields, service, lookups, functions);
+        ExpressionEvaluator eval = ExpressionEvaluatorFactory.create(object, fields, service, lookups, functions,
+                                                                     formatters, names, lookupNames);
         List<String> userFields = document.getUserFieldNames();
         for (String name : userFields) {
             String value = getParameter(name, parameters);
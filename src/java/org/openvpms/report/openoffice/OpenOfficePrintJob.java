@@ -0,0 +1,67 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.openoffice;
+
+import org.openvpms.component.business.domain.im.document.Document;
+import org.openvpms.report.PrintProperties;
+import org.openvpms.report.print.PrintJob;
+
+
+/**
+ * A {@link PrintJob} that prints a merged OpenOffice document.
+ * <p/>
+ * The job holds the exported document rather than an open one, so that no OpenOffice connection is held while the
+ * job is queued or waiting to be retried. A connection is acquired from the pool for each print attempt.
+ *
+ * @author Tim Anderson
+ */
+public class OpenOfficePrintJob extends PrintJob {
+
+    /**
+     * The document to print.
+     */
+    private final Document document;
+
+    /**
+     * The print service.
+     */
+    private final PrintService service;
+
+
+    /**
+     * Constructs an {@link OpenOfficePrintJob}.
+     *
+     * @param document   the document to print
+     * @param properties the print properties
+     * @param service    the print service
+     */
+    public OpenOfficePrintJob(Document document, PrintProperties properties, PrintService service) {
+        super(document.getName(), properties);
+        this.document = document;
+        this.service = service;
+    }
+
+    /**
+     * Prints the document.
+     *
+     * @throws OpenOfficeException for any error
+     */
+    @Override
+    public void print() {
+        service.printDocument(document, getProperties());
+    }
+}
@@ -23,6 +23,7 @@ import com.sun.star.view.XPrintable;
 import org.openvpms.archetype.rules.doc.DocumentHandlers;
 import org.openvpms.component.business.domain.im.document.Document;
 import org.openvpms.report.PrintProperties;
+import org.openvpms.report.print.PrintSpooler;
 
 import javax.print.attribute.standard.Sides;
 
@@ -46,6 +47,11 @@ public class PrintService {
      */
     private final DocumentHandlers handlers;
 
+    /**
+     * The print spooler. May be {@code null}.
+     */
+    private PrintSpooler spooler;
+
     /**
      * Constructs a {@link PrintService}.
      *
@@ -57,22 +63,38 @@ public class PrintService {
         this.handlers = handlers;
     }
 
+    /**
+     * Registers a spooler to print documents asynchronously.
+     *
+     * @param spooler the spooler. May be {@code null} to print synchronously
+     */
+    public void setPrintSpooler(PrintSpooler spooler) {
+        this.spooler = spooler;
+    }
+
+    /**
+     * Returns the spooler used to print documents asynchronously.
+     *
+     * @return the spooler. May be {@code null}
+     */
+    public PrintSpooler getPrintSpooler() {
+        return spooler;
+    }
+
     /**
      * Prints a document.
+     * <p/>
+     * If a {@link PrintSpooler} has been registered, the document is queued for printing and this returns immediately.
      *
      * @param document   the document to print
      * @param properties the print properties
      * @throws OpenOfficeException for any error
      */
     public void print(Document document, PrintProperties properties) {
-        OOConnection connection = null;
-        try {
-            connection = pool.getConnection();
-            OpenOfficeDocument doc = new OpenOfficeDocument(document, connection, handlers);
-            print(doc, properties, true);
-        } finally {
-            OpenOfficeHelper.close(connection);
-
+        if (spooler != null) {
+            spooler.submit(new OpenOfficePrintJob(document, properties, this));
+        } else {
+            printDocument(document, properties);
         }
     }
 
@@ -104,6 +126,24 @@ public class PrintService {
         }
     }
 
+    /**
+     * Prints a document synchronously, using a connection from the pool.
+     *
+     * @param document   the document to print
+     * @param properties the print properties
+     * @throws OpenOfficeException for any error
+     */
+    void printDocument(Document document, PrintProperties properties) {
+        OOConnection connection = null;
+        try {
+            connection = pool.getConnection();
+            OpenOfficeDocument doc = new OpenOfficeDocument(document, connection, handlers);
+            print(doc, properties, true);
+        } finally {
+            OpenOfficeHelper.close(connection);
+        }
+    }
+
     /**
      * Helper to create a new {@code PropertyValue}.
      *
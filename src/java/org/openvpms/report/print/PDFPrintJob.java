@@ -0,0 +1,159 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.print;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openvpms.report.PrintProperties;
+
+import javax.print.DocFlavor;
+import javax.print.DocPrintJob;
+import javax.print.PrintException;
+import javax.print.PrintService;
+import javax.print.PrintServiceLookup;
+import javax.print.SimpleDoc;
+import javax.print.attribute.HashPrintRequestAttributeSet;
+import javax.print.attribute.HashPrintServiceAttributeSet;
+import javax.print.attribute.PrintRequestAttributeSet;
+import javax.print.attribute.PrintServiceAttributeSet;
+import javax.print.attribute.standard.Copies;
+import javax.print.attribute.standard.JobName;
+import javax.print.attribute.standard.MediaPrintableArea;
+import javax.print.attribute.standard.MediaSize;
+import javax.print.attribute.standard.MediaSizeName;
+import javax.print.attribute.standard.MediaTray;
+import javax.print.attribute.standard.OrientationRequested;
+import javax.print.attribute.standard.PrinterName;
+import javax.print.attribute.standard.Sides;
+
+
+/**
+ * A {@link PrintJob} that sends a rendered PDF directly to a {@code javax.print} print service.
+ * <p/>
+ * This relies on the print service accepting PDF, as CUPS does. The job fails if the service doesn't advertise PDF
+ * support, rather than sending PDF to a printer that would print it as raw data.
+ *
+ * @author Tim Anderson
+ */
+public class PDFPrintJob extends PrintJob {
+
+    /**
+     * The PDF content.
+     */
+    private final byte[] content;
+
+    /**
+     * The printer registry. May be {@code null}.
+     */
+    private final PrinterRegistry registry;
+
+    /**
+     * The logger.
+     */
+    private static final Log log = LogFactory.getLog(PDFPrintJob.class);
+
+
+    /**
+     * Constructs a {@link PDFPrintJob}.
+     *
+     * @param name       the job name
+     * @param content    the PDF content
+     * @param properties the print properties
+     * @param registry   the printer registry, used to avoid enumerating print services. May be {@code null}
+     */
+    public PDFPrintJob(String name, byte[] content, PrintProperties properties, PrinterRegistry registry) {
+        super(name, properties);
+        this.content = content;
+        this.registry = registry;
+    }
+
+    /**
+     * Prints the PDF.
+     *
+     * @throws PrintException if the printer cannot be found, doesn't support PDF, or the PDF cannot be printed
+     */
+    @Override
+    public void print() throws PrintException {
+        PrintProperties properties = getProperties();
+        PrintService service = getService(properties.getPrinterName());
+        DocFlavor flavor = DocFlavor.BYTE_ARRAY.PDF;
+        if (!service.isDocFlavorSupported(flavor)) {
+            throw new PrintException("Printer " + service.getName() + " doesn't support " + flavor);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Printing " + getName() + " to " + service.getName() + " using " + flavor);
+        }
+        PrintRequestAttributeSet aset = new HashPrintRequestAttributeSet();
+        aset.add(new Copies(properties.getCopies()));
+        if (getName() != null) {
+            aset.add(new JobName(getName(), null));
+        }
+        MediaSizeName mediaSize = properties.getMediaSize();
+        OrientationRequested orientation = properties.getOrientation();
+        MediaTray tray = properties.getMediaTray();
+        Sides sides = properties.getSides();
+        if (tray != null) {
+            // the tray and media size share the Media category, so the size is specified as a printable area
+            aset.add(tray);
+            if (mediaSize != null) {
+                MediaSize size = MediaSize.getMediaSizeForName(mediaSize);
+                if (size != null) {
+                    aset.add(new MediaPrintableArea(0, 0, size.getX(MediaSize.MM), size.getY(MediaSize.MM),
+                                                    MediaPrintableArea.MM));
+                }
+            }
+        } else if (mediaSize != null) {
+            aset.add(mediaSize);
+        }
+        if (orientation != null) {
+            aset.add(orientation);
+        }
+        if (sides != null) {
+            aset.add(sides);
+        }
+        DocPrintJob job = service.createPrintJob();
+        job.print(new SimpleDoc(content, flavor, null), aset);
+    }
+
+    /**
+     * Returns the print service for a printer.
+     *
+     * @param printerName the printer name. If {@code null}, the default print service will be returned
+     * @return the print service
+     * @throws PrintException if the print service cannot be found
+     */
+    protected PrintService getService(String printerName) throws PrintException {
+        PrintService result = (registry != null) ? registry.getService(printerName) : null;
+        if (result == null) {
+            if (printerName == null) {
+                result = PrintServiceLookup.lookupDefaultPrintService();
+            } else {
+                PrintServiceAttributeSet attributes = new HashPrintServiceAttributeSet();
+                attributes.add(new PrinterName(printerName, null));
+                PrintService[] services = PrintServiceLookup.lookupPrintServices(null, attributes);
+                if (services.length != 0) {
+                    result = services[0];
+                }
+            }
+        }
+        if (result == null) {
+            throw new PrintException("No print service found for printer: " + printerName);
+        }
+        return result;
+    }
+
+}
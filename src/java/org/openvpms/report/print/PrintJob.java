@@ -0,0 +1,164 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.print;
+
+import org.openvpms.report.PrintProperties;
+
+
+/**
+ * A job submitted to the {@link PrintSpooler}.
+ * <p/>
+ * Jobs encapsulate already rendered print data, so that only the delivery to the printer is performed by the spooler.
+ *
+ * @author Tim Anderson
+ */
+public abstract class PrintJob {
+
+    /**
+     * Print job status.
+     */
+    public enum Status {
+        QUEUED,      // waiting to be printed
+        PRINTING,    // being sent to the printer
+        RETRYING,    // the last attempt failed, and the job is waiting to be retried
+        COMPLETED,   // the job was accepted by the printer
+        FAILED       // the job could not be printed
+    }
+
+    /**
+     * The job name.
+     */
+    private final String name;
+
+    /**
+     * The print properties.
+     */
+    private final PrintProperties properties;
+
+    /**
+     * The job status.
+     */
+    private volatile Status status;
+
+    /**
+     * The exception raised by the last print attempt. May be {@code null}.
+     */
+    private volatile Throwable exception;
+
+    /**
+     * The no. of print attempts.
+     */
+    private volatile int attempts;
+
+
+    /**
+     * Constructs a {@link PrintJob}.
+     *
+     * @param name       the job name
+     * @param properties the print properties
+     */
+    public PrintJob(String name, PrintProperties properties) {
+        this.name = name;
+        this.properties = properties;
+    }
+
+    /**
+     * Returns the job name.
+     *
+     * @return the job name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the print properties.
+     *
+     * @return the print properties
+     */
+    public PrintProperties getProperties() {
+        return properties;
+    }
+
+    /**
+     * Returns the name of the printer to print to.
+     *
+     * @return the printer name. May be {@code null}
+     */
+    public String getPrinterName() {
+        return properties.getPrinterName();
+    }
+
+    /**
+     * Returns the job status.
+     *
+     * @return the job status. May be {@code null} if the job hasn't been submitted
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the exception raised by the last print attempt.
+     *
+     * @return the exception. May be {@code null}
+     */
+    public Throwable getException() {
+        return exception;
+    }
+
+    /**
+     * Returns the no. of times the job has been sent to the printer.
+     *
+     * @return the no. of print attempts
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Sends the job to the printer.
+     * <p/>
+     * This may be invoked multiple times if an attempt fails.
+     *
+     * @throws Exception for any error
+     */
+    public abstract void print() throws Exception;
+
+    /**
+     * Releases any resources held by the job.
+     * <p/>
+     * This is invoked by the spooler once the job has completed or failed. This implementation is a no-op.
+     */
+    protected void dispose() {
+    }
+
+    /**
+     * Updates the job status.
+     *
+     * @param status    the status
+     * @param exception the exception raised by the last print attempt. May be {@code null}
+     */
+    void setStatus(Status status, Throwable exception) {
+        if (status == Status.PRINTING) {
+            ++attempts;
+        }
+        this.status = status;
+        this.exception = exception;
+    }
+
+}
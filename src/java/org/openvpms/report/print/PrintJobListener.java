@@ -0,0 +1,36 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.print;
+
+
+/**
+ * Listener for {@link PrintJob} status changes.
+ * <p/>
+ * Listeners are notified on the spooler's worker threads, so should not block.
+ *
+ * @author Tim Anderson
+ */
+public interface PrintJobListener {
+
+    /**
+     * Invoked when the status of a job changes.
+     *
+     * @param job the job. Use {@link PrintJob#getStatus()} and {@link PrintJob#getException()} to determine its state
+     */
+    void statusChanged(PrintJob job);
+
+}
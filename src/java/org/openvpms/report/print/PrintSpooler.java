@@ -0,0 +1,360 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.print;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Spools {@link PrintJob}s to printers asynchronously.
+ * <p/>
+ * Each printer has its own queue, serviced by a single worker thread, so that jobs are printed in the order they were
+ * submitted, and a slow or offline printer doesn't hold up jobs for other printers. Worker threads are released when
+ * their queue has been idle for {@link #setIdleTimeout(long) idleTimeout} seconds.
+ * <p/>
+ * Failed jobs are retried up to {@link #setRetries(int) retries} times, doubling the interval between each attempt,
+ * up to a maximum of {@link #setMaxRetryInterval(long) maxRetryInterval}.
+ *
+ * @author Tim Anderson
+ */
+public class PrintSpooler implements DisposableBean {
+
+    /**
+     * The print queues, keyed on printer name.
+     */
+    private final Map<String, ThreadPoolExecutor> queues = new HashMap<String, ThreadPoolExecutor>();
+
+    /**
+     * The listeners.
+     */
+    private final List<PrintJobListener> listeners = new CopyOnWriteArrayList<PrintJobListener>();
+
+    /**
+     * The no. of times to retry a failed job.
+     */
+    private volatile int retries = 2;
+
+    /**
+     * The initial interval between retries, in milliseconds.
+     */
+    private volatile long retryInterval = 5000;
+
+    /**
+     * The maximum interval between retries, in milliseconds.
+     */
+    private volatile long maxRetryInterval = 60000;
+
+    /**
+     * The time in seconds that a queue's worker thread may be idle before it terminates.
+     */
+    private volatile long idleTimeout = 60;
+
+    /**
+     * Determines if the spooler has been shut down.
+     */
+    private boolean shutdown;
+
+    /**
+     * The logger.
+     */
+    private static final Log log = LogFactory.getLog(PrintSpooler.class);
+
+
+    /**
+     * Sets the no. of times to retry a failed job.
+     *
+     * @param retries the no. of retries. A value {@code <= 0} indicates not to retry
+     */
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * Sets the initial interval between retries.
+     *
+     * @param interval the interval, in milliseconds
+     */
+    public void setRetryInterval(long interval) {
+        this.retryInterval = interval;
+    }
+
+    /**
+     * Sets the maximum interval between retries.
+     *
+     * @param interval the interval, in milliseconds
+     */
+    public void setMaxRetryInterval(long interval) {
+        this.maxRetryInterval = interval;
+    }
+
+    /**
+     * Sets the time that a queue's worker thread may be idle before it terminates.
+     * <p/>
+     * This only applies to queues created after the call.
+     *
+     * @param timeout the timeout, in seconds
+     */
+    public void setIdleTimeout(long timeout) {
+        this.idleTimeout = timeout;
+    }
+
+    /**
+     * Adds a listener to be notified of job status changes.
+     *
+     * @param listener the listener
+     */
+    public void addListener(PrintJobListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(PrintJobListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Submits a job for printing.
+     * <p/>
+     * This returns immediately; the job is printed after any jobs previously submitted to the same printer.
+     * <p/>
+     * If the job cannot be queued, it is marked as failed and disposed before the exception is thrown.
+     *
+     * @param job the job
+     * @return the job
+     * @throws IllegalStateException      if the spooler has been shut down
+     * @throws RejectedExecutionException if the job cannot be queued
+     */
+    public PrintJob submit(PrintJob job) {
+        try {
+            ThreadPoolExecutor queue = getQueue(job.getPrinterName());
+            update(job, PrintJob.Status.QUEUED, null);
+            queue.execute(new Task(job));
+        } catch (RuntimeException exception) {
+            update(job, PrintJob.Status.FAILED, exception);
+            dispose(job);
+            throw exception;
+        }
+        return job;
+    }
+
+    /**
+     * Returns the no. of jobs waiting to be printed on a printer.
+     *
+     * @param printerName the printer name. May be {@code null}
+     * @return the no. of waiting jobs
+     */
+    public int getQueued(String printerName) {
+        ThreadPoolExecutor queue;
+        synchronized (queues) {
+            queue = queues.get(getKey(printerName));
+        }
+        return (queue != null) ? queue.getQueue().size() : 0;
+    }
+
+    /**
+     * Shuts down the spooler.
+     * <p/>
+     * Queued jobs are marked as failed and disposed; jobs being printed are interrupted.
+     */
+    public void destroy() {
+        List<ThreadPoolExecutor> list;
+        synchronized (queues) {
+            shutdown = true;
+            list = new ArrayList<ThreadPoolExecutor>(queues.values());
+            queues.clear();
+        }
+        for (ThreadPoolExecutor queue : list) {
+            for (Runnable runnable : queue.shutdownNow()) {
+                PrintJob job = ((Task) runnable).getJob();
+                log.warn("Discarding print job queued at shutdown: " + job.getName() + " for " + job.getPrinterName());
+                update(job, PrintJob.Status.FAILED, new IllegalStateException("PrintSpooler has been shut down"));
+                dispose(job);
+            }
+        }
+    }
+
+    /**
+     * Prints a job, retrying on failure.
+     *
+     * @param job the job to print
+     */
+    protected void spool(PrintJob job) {
+        long interval = retryInterval;
+        try {
+            for (int attempt = 0; ; ++attempt) {
+                update(job, PrintJob.Status.PRINTING, null);
+                try {
+                    job.print();
+                    update(job, PrintJob.Status.COMPLETED, null);
+                    break;
+                } catch (Throwable exception) {
+                    if (attempt < retries && !Thread.currentThread().isInterrupted()) {
+                        log.warn("Failed to print " + job.getName() + " to " + job.getPrinterName() + ", retrying in "
+                                 + interval + "ms", exception);
+                        update(job, PrintJob.Status.RETRYING, exception);
+                        Thread.sleep(interval);
+                        interval = Math.min(interval * 2, maxRetryInterval);
+                    } else {
+                        log.error("Failed to print " + job.getName() + " to " + job.getPrinterName(), exception);
+                        update(job, PrintJob.Status.FAILED, exception);
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException exception) {
+            update(job, PrintJob.Status.FAILED, exception);
+            Thread.currentThread().interrupt();
+        } finally {
+            dispose(job);
+        }
+    }
+
+    /**
+     * Releases the resources held by a job.
+     *
+     * @param job the job
+     */
+    private void dispose(PrintJob job) {
+        try {
+            job.dispose();
+        } catch (Throwable exception) {
+            log.warn(exception, exception);
+        }
+    }
+
+    /**
+     * Returns the queue for a printer, creating it if required.
+     *
+     * @param printerName the printer name. May be {@code null}
+     * @return the queue
+     * @throws IllegalStateException if the spooler has been shut down
+     */
+    private ThreadPoolExecutor getQueue(String printerName) {
+        final String key = getKey(printerName);
+        synchronized (queues) {
+            if (shutdown) {
+                throw new IllegalStateException("PrintSpooler has been shut down");
+            }
+            ThreadPoolExecutor queue = queues.get(key);
+            if (queue == null) {
+                ThreadFactory factory = new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "PrintSpooler: " + key);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                };
+                queue = new ThreadPoolExecutor(1, 1, idleTimeout, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(), factory);
+                queue.allowCoreThreadTimeOut(true);
+                queues.put(key, queue);
+            }
+            return queue;
+        }
+    }
+
+    /**
+     * Updates the status of a job, notifying any listeners.
+     *
+     * @param job       the job
+     * @param status    the new status
+     * @param exception the exception raised by the last print attempt. May be {@code null}
+     */
+    private void update(PrintJob job, PrintJob.Status status, Throwable exception) {
+        job.setStatus(status, exception);
+        for (PrintJobListener listener : listeners) {
+            try {
+                listener.statusChanged(job);
+            } catch (Throwable error) {
+                log.warn("PrintJobListener failed: " + error.getMessage(), error);
+            }
+        }
+    }
+
+    /**
+     * Returns the queue key for a printer.
+     *
+     * @param printerName the printer name. May be {@code null}, indicating the default printer
+     * @return the queue key
+     */
+    private String getKey(String printerName) {
+        return (printerName != null) ? printerName : "";
+    }
+
+    /**
+     * Queued task to print a job.
+     */
+    private class Task implements Runnable {
+
+        /**
+         * The job to print.
+         */
+        private final PrintJob job;
+
+        /**
+         * Constructs a {@link Task}.
+         *
+         * @param job the job to print
+         */
+        public Task(PrintJob job) {
+            this.job = job;
+        }
+
+        /**
+         * Returns the job.
+         *
+         * @return the job
+         */
+        public PrintJob getJob() {
+            return job;
+        }
+
+        /**
+         * Prints the job.
+         */
+        public void run() {
+            spool(job);
+        }
+
+        /**
+         * Returns a string representation of the task, for logging purposes.
+         *
+         * @return the job name and printer
+         */
+        @Override
+        public String toString() {
+            return job.getName() + " for " + job.getPrinterName();
+        }
+    }
+}
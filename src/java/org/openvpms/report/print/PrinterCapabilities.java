@@ -0,0 +1,109 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.print;
+
+import javax.print.PrintService;
+import javax.print.attribute.standard.Media;
+import javax.print.attribute.standard.MediaSizeName;
+import javax.print.attribute.standard.MediaTray;
+import javax.print.attribute.standard.Sides;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+
+/**
+ * The media sizes, trays and sides supported by a printer.
+ * <p/>
+ * Instances are immutable.
+ *
+ * @author Tim Anderson
+ */
+public class PrinterCapabilities {
+
+    /**
+     * The supported media sizes.
+     */
+    private final Set<MediaSizeName> mediaSizes;
+
+    /**
+     * The supported media trays.
+     */
+    private final Set<MediaTray> trays;
+
+    /**
+     * The supported sides.
+     */
+    private final Set<Sides> sides;
+
+
+    /**
+     * Constructs a {@link PrinterCapabilities} by querying a print service.
+     *
+     * @param service the print service
+     */
+    public PrinterCapabilities(PrintService service) {
+        Set<MediaSizeName> mediaSizes = new LinkedHashSet<MediaSizeName>();
+        Set<MediaTray> trays = new LinkedHashSet<MediaTray>();
+        Set<Sides> sides = new LinkedHashSet<Sides>();
+        Object media = service.getSupportedAttributeValues(Media.class, null, null);
+        if (media instanceof Media[]) {
+            for (Media value : (Media[]) media) {
+                if (value instanceof MediaSizeName) {
+                    mediaSizes.add((MediaSizeName) value);
+                } else if (value instanceof MediaTray) {
+                    trays.add((MediaTray) value);
+                }
+            }
+        }
+        Object supportedSides = service.getSupportedAttributeValues(Sides.class, null, null);
+        if (supportedSides instanceof Sides[]) {
+            Collections.addAll(sides, (Sides[]) supportedSides);
+        }
+        this.mediaSizes = Collections.unmodifiableSet(mediaSizes);
+        this.trays = Collections.unmodifiableSet(trays);
+        this.sides = Collections.unmodifiableSet(sides);
+    }
+
+    /**
+     * Returns the supported media sizes.
+     *
+     * @return the media sizes
+     */
+    public Set<MediaSizeName> getMediaSizes() {
+        return mediaSizes;
+    }
+
+    /**
+     * Returns the supported media trays.
+     *
+     * @return the media trays
+     */
+    public Set<MediaTray> getMediaTrays() {
+        return trays;
+    }
+
+    /**
+     * Returns the supported sides.
+     *
+     * @return the sides
+     */
+    public Set<Sides> getSides() {
+        return sides;
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.print;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import javax.print.PrintService;
+import javax.print.PrintServiceLookup;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Caches {@code javax.print} print services and their capabilities.
+ * <p/>
+ * Enumerating print services can be slow where there are many printers (e.g. CUPS with dozens of queues), so the
+ * services are looked up once, and refreshed periodically in the background. Printers added between refreshes aren't
+ * visible until the next refresh, or an explicit call to {@link #refresh()}.
+ *
+ * @author Tim Anderson
+ */
+public class PrinterRegistry implements DisposableBean {
+
+    /**
+     * The print services, keyed on name. Replaced on each refresh.
+     */
+    private volatile Map<String, PrintService> services;
+
+    /**
+     * The default print service. May be {@code null}.
+     */
+    private volatile PrintService defaultService;
+
+    /**
+     * The capabilities, keyed on print service. These are determined on demand.
+     */
+    private final Map<PrintService, PrinterCapabilities> capabilities
+            = new ConcurrentHashMap<PrintService, PrinterCapabilities>();
+
+    /**
+     * The executor used to refresh the services. May be {@code null}.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * The default refresh interval, in seconds.
+     */
+    public static final long DEFAULT_REFRESH_INTERVAL = 300;
+
+    /**
+     * The logger.
+     */
+    private static final Log log = LogFactory.getLog(PrinterRegistry.class);
+
+
+    /**
+     * Constructs a {@link PrinterRegistry} that refreshes every {@link #DEFAULT_REFRESH_INTERVAL} seconds.
+     */
+    public PrinterRegistry() {
+        this(DEFAULT_REFRESH_INTERVAL);
+    }
+
+    /**
+     * Constructs a {@link PrinterRegistry}.
+     *
+     * @param refreshInterval the interval between refreshes, in seconds. If {@code <= 0}, the services are only
+     *                        refreshed when {@link #refresh()} is invoked
+     */
+    public PrinterRegistry(long refreshInterval) {
+        if (refreshInterval > 0) {
+            executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PrinterRegistry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        refresh();
+                    } catch (Throwable exception) {
+                        log.warn("Failed to refresh print services: " + exception.getMessage(), exception);
+                    }
+                }
+            }, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Returns a print service given its name.
+     *
+     * @param name the printer name. If {@code null}, the default print service will be returned
+     * @return the corresponding print service, or {@code null} if none is found
+     */
+    public PrintService getService(String name) {
+        Map<String, PrintService> map = getServices();
+        return (name != null) ? map.get(name) : defaultService;
+    }
+
+    /**
+     * Returns the names of the available printers.
+     *
+     * @return the printer names
+     */
+    public List<String> getPrinters() {
+        List<String> result = new ArrayList<String>(getServices().keySet());
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns the capabilities of a printer.
+     *
+     * @param name the printer name. If {@code null}, the capabilities of the default print service will be returned
+     * @return the capabilities, or {@code null} if the printer is not found
+     */
+    public PrinterCapabilities getCapabilities(String name) {
+        PrintService service = getService(name);
+        if (service == null) {
+            return null;
+        }
+        PrinterCapabilities result = capabilities.get(service);
+        if (result == null) {
+            result = new PrinterCapabilities(service);
+            capabilities.put(service, result);
+        }
+        return result;
+    }
+
+    /**
+     * Refreshes the print services.
+     * <p/>
+     * Cached capabilities are discarded for services that are no longer available.
+     */
+    public void refresh() {
+        Map<String, PrintService> map = new HashMap<String, PrintService>();
+        for (PrintService service : lookupServices()) {
+            map.put(service.getName(), service);
+        }
+        PrintService defaultService = lookupDefaultService();
+        capabilities.keySet().retainAll(map.values());
+        this.defaultService = defaultService;
+        services = map;
+        if (log.isDebugEnabled()) {
+            log.debug("Refreshed print services: " + map.keySet() + ", default="
+                      + ((defaultService != null) ? defaultService.getName() : null));
+        }
+    }
+
+    /**
+     * Stops background refreshes.
+     */
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Looks up the available print services.
+     *
+     * @return the print services
+     */
+    protected PrintService[] lookupServices() {
+        return PrintServiceLookup.lookupPrintServices(null, null);
+    }
+
+    /**
+     * Looks up the default print service.
+     *
+     * @return the default print service. May be {@code null}
+     */
+    protected PrintService lookupDefaultService() {
+        return PrintServiceLookup.lookupDefaultPrintService();
+    }
+
+    /**
+     * Returns the print services, loading them if required.
+     *
+     * @return the print services, keyed on name
+     */
+    private Map<String, PrintService> getServices() {
+        Map<String, PrintService> map = services;
+        if (map == null) {
+            synchronized (this) {
+                if (services == null) {
+                    refresh();
+                }
+                map = services;
+            }
+        }
+        return map;
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.junit.Test;
+import org.openvpms.component.business.domain.im.common.IMObjectReference;
+import org.openvpms.component.business.domain.im.party.Party;
+import org.openvpms.component.business.service.archetype.helper.IMObjectBean;
+import org.openvpms.component.system.common.query.IArchetypeQuery;
+import org.openvpms.component.system.common.query.IPage;
+import org.openvpms.component.system.common.query.ObjectSet;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+/**
+ * Tests the {@link DisplayNameCache} class.
+ *
+ * @author Tim Anderson
+ */
+public class DisplayNameCacheTestCase extends AbstractReportTest {
+
+    /**
+     * Verifies that names are cached for the life of the cache when no time-to-live is specified.
+     */
+    @Test
+    public void testGetName() {
+        Party customer = createCustomer("J", "Bloggs");
+        IMObjectReference ref = customer.getObjectReference();
+        DisplayNameCache cache = new DisplayNameCache(getArchetypeService());
+        assertEquals("Bloggs,J", cache.getName(ref));
+
+        rename(customer, "Smith");
+        assertEquals("Bloggs,J", cache.getName(ref));
+        assertEquals("Smith,J", new DisplayNameCache(getArchetypeService()).getName(ref));
+
+        cache.clear();
+        assertEquals("Smith,J", cache.getName(ref));
+    }
+
+    /**
+     * Verifies that names are reloaded once they expire.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testTimeToLive() throws Exception {
+        Party customer = createCustomer("J", "Bloggs");
+        IMObjectReference ref = customer.getObjectReference();
+        DisplayNameCache cache = new DisplayNameCache(getArchetypeService(), 50);
+        assertEquals("Bloggs,J", cache.getName(ref));
+
+        rename(customer, "Smith");
+        Thread.sleep(100);
+        assertEquals("Smith,J", cache.getName(ref));
+    }
+
+    /**
+     * Verifies that the least recently used names are discarded when the cache is full.
+     */
+    @Test
+    public void testMaxSize() {
+        IMObjectReference ref1 = createCustomer("J", "Bloggs").getObjectReference();
+        Party customer2 = createCustomer("J", "Smith");
+        IMObjectReference ref2 = customer2.getObjectReference();
+        IMObjectReference ref3 = createCustomer("J", "Jones").getObjectReference();
+        DisplayNameCache cache = new DisplayNameCache(getArchetypeService(), 0, 2);
+        assertEquals("Bloggs,J", cache.getName(ref1));
+        assertEquals("Smith,J", cache.getName(ref2));
+        assertEquals("Bloggs,J", cache.getName(ref1)); // ref2 is now the least recently used
+        assertEquals("Jones,J", cache.getName(ref3));
+        assertEquals(2, cache.size());
+
+        // ref2 should have been discarded, so the new name is retrieved
+        rename(customer2, "Brown");
+        assertEquals("Brown,J", cache.getName(ref2));
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * Verifies that expired names are discarded as other names are cached.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testExpiredNamesDiscarded() throws Exception {
+        IMObjectReference ref1 = createCustomer("J", "Bloggs").getObjectReference();
+        IMObjectReference ref2 = createCustomer("J", "Smith").getObjectReference();
+        DisplayNameCache cache = new DisplayNameCache(getArchetypeService(), 50);
+        cache.getName(ref1);
+        Thread.sleep(100);
+        cache.getName(ref2);
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Verifies that {@code null} is returned for objects that don't exist.
+     */
+    @Test
+    public void testMissingObject() {
+        Party customer = createCustomer("J", "Bloggs");
+        IMObjectReference ref = customer.getObjectReference();
+        getArchetypeService().remove(customer);
+        assertNull(new DisplayNameCache(getArchetypeService()).getName(ref));
+    }
+
+    /**
+     * Verifies that names of objects already retrieved by a {@link PrefetchingArchetypeService} run are taken from
+     * the objects, rather than being queried.
+     */
+    @Test
+    public void testPrefetchedObject() {
+        IMObjectReference ref = createCustomer("J", "Bloggs").getObjectReference();
+        final AtomicInteger queries = new AtomicInteger();
+        PrefetchingArchetypeService service = new PrefetchingArchetypeService(getArchetypeService(), 10) {
+            @Override
+            public IPage<ObjectSet> getObjects(IArchetypeQuery query) {
+                queries.incrementAndGet();
+                return super.getObjects(query);
+            }
+        };
+        service.begin();
+        try {
+            service.prefetch(Arrays.asList(ref));
+            assertEquals("Bloggs,J", new DisplayNameCache(service).getName(ref));
+            assertEquals(0, queries.get());
+        } finally {
+            service.end();
+        }
+
+        // outside of a run, the name is queried
+        assertEquals("Bloggs,J", new DisplayNameCache(service).getName(ref));
+        assertEquals(1, queries.get());
+    }
+
+    /**
+     * Changes the last name of a customer.
+     *
+     * @param customer the customer
+     * @param lastName the new last name
+     */
+    private void rename(Party customer, String lastName) {
+        IMObjectBean bean = new IMObjectBean(customer);
+        bean.setValue("lastName", lastName);
+        bean.save();
+    }
+}
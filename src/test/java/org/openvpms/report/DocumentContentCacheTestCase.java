@@ -0,0 +1,127 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.junit.Test;
+import org.openvpms.archetype.rules.doc.DocumentHandler;
+import org.openvpms.component.business.domain.im.document.Document;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+
+/**
+ * Tests the {@link DocumentContentCache} class.
+ *
+ * @author Tim Anderson
+ */
+public class DocumentContentCacheTestCase extends AbstractReportTest {
+
+    /**
+     * The image used for testing.
+     */
+    private static final String IMAGE = "src/test/images/openvpms.gif";
+
+
+    /**
+     * Verifies that the content of saved documents is cached, and re-read when the document changes.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testGetContent() throws Exception {
+        DocumentContentCache cache = new DocumentContentCache();
+        Document document = createDocument();
+        DocumentHandler handler = getHandlers().get(document);
+
+        byte[] content1 = cache.getContent(document, handler);
+        assertEquals(new File(IMAGE).length(), content1.length);
+        assertSame(content1, cache.getContent(document, handler));
+        assertEquals(1, cache.size());
+        assertEquals(content1.length, cache.getBytes());
+
+        // update the document. The content should be read again
+        document.setName("changed.gif");
+        getArchetypeService().save(document);
+        byte[] content2 = cache.getContent(document, handler);
+        assertNotSame(content1, content2);
+        assertArrayEquals(content1, content2);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    /**
+     * Verifies that unsaved documents are not cached.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testUnsavedDocumentNotCached() throws Exception {
+        DocumentContentCache cache = new DocumentContentCache();
+        Document document = getDocument(IMAGE, "image/gif");
+        DocumentHandler handler = getHandlers().get(document);
+
+        byte[] content = cache.getContent(document, handler);
+        assertEquals(new File(IMAGE).length(), content.length);
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Verifies that the least recently used content is discarded when the size limit is exceeded, and that content
+     * larger than the limit is not cached.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testLimit() throws Exception {
+        long length = new File(IMAGE).length();
+        DocumentContentCache cache = new DocumentContentCache(length + length / 2);
+        Document document1 = createDocument();
+        Document document2 = createDocument();
+        DocumentHandler handler = getHandlers().get(document1);
+
+        byte[] content1 = cache.getContent(document1, handler);
+        cache.getContent(document2, handler);
+        assertEquals(1, cache.size());
+        assertEquals(length, cache.getBytes());
+
+        // document1 should have been discarded
+        assertNotSame(content1, cache.getContent(document1, handler));
+
+        DocumentContentCache small = new DocumentContentCache(length - 1);
+        small.getContent(document1, handler);
+        assertEquals(0, small.size());
+        assertEquals(0, small.getBytes());
+    }
+
+    /**
+     * Creates and saves a document.
+     *
+     * @return a new document
+     */
+    private Document createDocument() {
+        Document document = getDocument(IMAGE, "image/gif");
+        getArchetypeService().save(document);
+        return document;
+    }
+}
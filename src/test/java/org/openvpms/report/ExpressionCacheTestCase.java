@@ -0,0 +1,79 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.apache.commons.jxpath.CompiledExpression;
+import org.apache.commons.jxpath.JXPathContext;
+import org.apache.commons.jxpath.JXPathException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Tests the {@link ExpressionCache} class.
+ *
+ * @author Tim Anderson
+ */
+public class ExpressionCacheTestCase {
+
+    /**
+     * Verifies that expressions are compiled once, and that the compiled expressions evaluate correctly.
+     */
+    @Test
+    public void testGet() {
+        ExpressionCache cache = new ExpressionCache(10);
+        CompiledExpression expression = cache.get("1 + 1");
+        assertSame(expression, cache.get("1 + 1"));
+        assertEquals(1, cache.size());
+        Number value = (Number) expression.getValue(JXPathContext.newContext(new Object()));
+        assertEquals(2, value.intValue());
+    }
+
+    /**
+     * Verifies that the least recently used expression is discarded when the cache is full.
+     */
+    @Test
+    public void testEviction() {
+        ExpressionCache cache = new ExpressionCache(2);
+        CompiledExpression one = cache.get("1");
+        CompiledExpression two = cache.get("2");
+        assertSame(one, cache.get("1"));   // make "2" the least recently used
+        cache.get("3");
+        assertEquals(2, cache.size());
+        assertSame(one, cache.get("1"));
+        assertNotSame(two, cache.get("2"));
+    }
+
+    /**
+     * Verifies that invalid expressions are rejected, and not cached.
+     */
+    @Test
+    public void testInvalidExpression() {
+        ExpressionCache cache = new ExpressionCache(10);
+        try {
+            cache.get("1 +");
+            fail("Expected JXPathException");
+        } catch (JXPathException expected) {
+            // expected
+        }
+        assertEquals(0, cache.size());
+    }
+}
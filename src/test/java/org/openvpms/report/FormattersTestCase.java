@@ -0,0 +1,94 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Tests the {@link Formatters} class.
+ *
+ * @author Tim Anderson
+ */
+public class FormattersTestCase {
+
+    /**
+     * Verifies that values are formatted according to the locale.
+     */
+    @Test
+    public void testFormat() {
+        Date date = java.sql.Date.valueOf("2006-08-04");
+        Formatters uk = new Formatters(Locale.UK);
+        Formatters germany = new Formatters(Locale.GERMANY);
+
+        assertEquals(DateFormat.getDateInstance(DateFormat.MEDIUM, Locale.UK).format(date), uk.formatDate(date));
+        assertEquals(DateFormat.getDateInstance(DateFormat.MEDIUM, Locale.GERMANY).format(date),
+                     germany.formatDate(date));
+
+        assertEquals("\u00a31,234.50", uk.formatCurrency(new BigDecimal("1234.5")));
+        assertEquals("1,234.50", uk.formatDecimal(new BigDecimal("1234.5")));
+        assertEquals("-1,234.50", uk.formatDecimal(new BigDecimal("-1234.5")));
+        assertEquals("1.234,50", germany.formatDecimal(new BigDecimal("1234.5")));
+    }
+
+    /**
+     * Verifies that formatters can be used concurrently.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testConcurrentFormat() throws Exception {
+        final Formatters formatters = new Formatters(Locale.UK);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 8; ++i) {
+                final int offset = i;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        for (int j = 0; j < 1000; ++j) {
+                            BigDecimal value = new BigDecimal(offset * 1000 + j);
+                            String expected = String.format(Locale.UK, "%,.2f", value);
+                            if (!expected.equals(formatters.formatDecimal(value))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertEquals(true, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
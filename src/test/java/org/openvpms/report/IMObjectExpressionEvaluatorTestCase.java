@@ -30,6 +30,11 @@ import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 
 /**
@@ -141,4 +146,176 @@ public class IMObjectExpressionEvaluatorTestCase extends AbstractReportTest {
                                                           "'No current supplier')]"));
     }
 
+    /**
+     * Verifies that field accessors are cached by archetype and field name, and that cached accessors are applied
+     * correctly when the evaluator is rebound to another object.
+     */
+    @Test
+    public void testAccessorCache() {
+        Party party1 = createCustomer("J", "Bloggs");
+        Party party2 = createCustomer("F", "Smith");
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("OpenVPMS.customer", party1);
+
+        Functions functions = applicationContext.getBean(Functions.class);
+        FieldAccessorCache cache = new FieldAccessorCache();
+        IMObjectExpressionEvaluator eval = new IMObjectExpressionEvaluator(party1, fields, getArchetypeService(),
+                                                                           getLookupService(), functions);
+        eval.setAccessorCache(cache);
+        for (int i = 0; i < 2; ++i) {
+            assertEquals("Bloggs", eval.getValue("lastName"));
+            assertEquals("Bloggs,J", eval.getValue("[openvpms:get(., 'name')]"));
+            assertEquals("Bloggs,J", eval.getValue("OpenVPMS.customer.name"));
+            assertEquals("Invalid property name: foo", eval.getValue("foo"));
+        }
+
+        String shortName = party1.getArchetypeId().getShortName();
+        FieldAccessor lastName = cache.get(shortName, "lastName");
+        assertEquals(FieldAccessor.Type.NODE, lastName.getType());
+        assertNotNull(lastName.getNode());
+        FieldAccessor name = cache.get(shortName, "[openvpms:get(., 'name')]");
+        assertEquals(FieldAccessor.Type.EXPRESSION, name.getType());
+        assertEquals("openvpms:get(., 'name')", name.getName());
+        assertEquals(FieldAccessor.Type.FIELD, cache.get(shortName, "OpenVPMS.customer.name").getType());
+        FieldAccessor foo = cache.get(shortName, "foo");
+        assertEquals(FieldAccessor.Type.NODE, foo.getType());
+        assertNull(foo.getNode());
+
+        eval.setObject(party2);
+        assertEquals("Smith", eval.getValue("lastName"));
+        assertEquals("Smith,F", eval.getValue("[openvpms:get(., 'name')]"));
+        assertEquals("Bloggs,J", eval.getValue("OpenVPMS.customer.name"));
+    }
+
+    /**
+     * Verifies that when an accessor cache is registered, expressions that repeatedly fail are no longer evaluated,
+     * and their failures are counted.
+     */
+    @Test
+    public void testFailingExpression() {
+        Party party = createCustomer();
+        Functions functions = applicationContext.getBean(Functions.class);
+        FieldAccessorCache cache = new FieldAccessorCache();
+        IMObjectExpressionEvaluator eval = new IMObjectExpressionEvaluator(party, null, getArchetypeService(),
+                                                                           getLookupService(), functions);
+        eval.setAccessorCache(cache);
+        String shortName = party.getArchetypeId().getShortName();
+        int count = FieldAccessor.FAILURE_THRESHOLD + 2;
+        for (int i = 0; i < count; ++i) {
+            assertEquals("Expression Error", eval.getValue("[$OpenVPMS.patient]")); // undefined variable
+            assertEquals("Zoo", eval.getValue("lastName"));
+            FieldAccessor accessor = cache.get(shortName, "[$OpenVPMS.patient]");
+            assertEquals(i + 1 >= FieldAccessor.FAILURE_THRESHOLD, accessor.isFailing());
+        }
+        FieldAccessor accessor = cache.get(shortName, "[$OpenVPMS.patient]");
+        assertTrue(accessor.isFailing());
+        assertEquals(count, accessor.getFailures());
+        Throwable failure = accessor.getFailure();
+        assertNotNull(failure);
+
+        // verify the exception is that of the first failure
+        eval.getValue("[$OpenVPMS.patient]");
+        assertSame(failure, accessor.getFailure());
+
+        assertEquals(0, cache.get(shortName, "lastName").getFailures());
+        assertEquals(1, cache.logFailures());
+    }
+
+    /**
+     * Verifies that a field that fails for one object, but succeeds for the next, is never treated as failing.
+     */
+    @Test
+    public void testDataDependentFailure() {
+        Party party = createCustomer();
+        Functions functions = applicationContext.getBean(Functions.class);
+        FieldAccessorCache cache = new FieldAccessorCache();
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("foo", "bar");
+
+        // the first evaluator has no foo variable, so the expression fails for it
+        IMObjectExpressionEvaluator eval1 = new IMObjectExpressionEvaluator(party, null, getArchetypeService(),
+                                                                            getLookupService(), functions);
+        eval1.setAccessorCache(cache);
+        IMObjectExpressionEvaluator eval2 = new IMObjectExpressionEvaluator(party, fields, getArchetypeService(),
+                                                                            getLookupService(), functions);
+        eval2.setAccessorCache(cache);
+
+        assertEquals("Expression Error", eval1.getValue("[concat(lastName, $foo)]"));
+        assertEquals("Zoobar", eval2.getValue("[concat(lastName, $foo)]"));
+
+        // once the field has succeeded, it is always evaluated, no matter how many times it fails
+        for (int i = 0; i < FieldAccessor.FAILURE_THRESHOLD + 1; ++i) {
+            assertEquals("Expression Error", eval1.getValue("[concat(lastName, $foo)]"));
+        }
+        FieldAccessor accessor = cache.get(party.getArchetypeId().getShortName(), "[concat(lastName, $foo)]");
+        assertFalse(accessor.isFailing());
+        assertEquals(FieldAccessor.FAILURE_THRESHOLD + 2, accessor.getFailures());
+        assertEquals("Zoobar", eval2.getValue("[concat(lastName, $foo)]"));
+    }
+
+    /**
+     * Verifies that fields and expressions that don't refer to the object being evaluated are only evaluated once
+     * when an accessor cache is registered.
+     */
+    @Test
+    public void testInvariantExpressions() {
+        Party party1 = createCustomer("J", "Bloggs");
+        Party party2 = createCustomer("F", "Smith");
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("OpenVPMS.customer", party1);
+
+        Functions functions = applicationContext.getBean(Functions.class);
+        FieldAccessorCache cache = new FieldAccessorCache();
+        IMObjectExpressionEvaluator eval = new IMObjectExpressionEvaluator(party1, fields, getArchetypeService(),
+                                                                           getLookupService(), functions);
+        eval.setAccessorCache(cache);
+        assertEquals("Bloggs,J", eval.getValue("[$OpenVPMS.customer.name]"));
+        assertEquals("Bloggs,J", eval.getValue("OpenVPMS.customer.name"));
+        assertEquals(new BigDecimal(2), eval.getValue("[1 + 1]"));
+        assertEquals("Bloggs,J", eval.getValue("[openvpms:get(., 'name')]"));
+
+        String shortName = party1.getArchetypeId().getShortName();
+        assertTrue(cache.get(shortName, "[$OpenVPMS.customer.name]").isInvariant());
+        assertTrue(cache.get(shortName, "OpenVPMS.customer.name").isInvariant());
+        assertTrue(cache.get(shortName, "[1 + 1]").isInvariant());
+        assertFalse(cache.get(shortName, "[openvpms:get(., 'name')]").isInvariant());
+
+        // change the customer name. The invariant values shouldn't be re-evaluated
+        party1.setName("Changed");
+        eval.setObject(party2);
+        assertEquals("Bloggs,J", eval.getValue("[$OpenVPMS.customer.name]"));
+        assertEquals("Bloggs,J", eval.getValue("OpenVPMS.customer.name"));
+        assertEquals("Smith,F", eval.getValue("[openvpms:get(., 'name')]"));
+    }
+
+    /**
+     * Verifies that evaluators can share an {@link ExpressionContextFactory}, and that each evaluates expressions
+     * against its own object.
+     */
+    @Test
+    public void testSharedContextFactory() {
+        Party party1 = createCustomer("J", "Bloggs");
+        Party party2 = createCustomer("F", "Smith");
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("OpenVPMS.customer", party1);
+
+        Functions functions = applicationContext.getBean(Functions.class);
+        IMObjectExpressionEvaluator eval1 = new IMObjectExpressionEvaluator(party1, fields, getArchetypeService(),
+                                                                            getLookupService(), functions);
+        IMObjectExpressionEvaluator eval2 = new IMObjectExpressionEvaluator(party2, fields, getArchetypeService(),
+                                                                            getLookupService(), functions);
+        eval2.setContextFactory(eval1.getContextFactory());
+
+        assertEquals("Bloggs", eval1.getValue("[openvpms:get(., 'lastName')]"));
+        assertEquals("Smith", eval2.getValue("[openvpms:get(., 'lastName')]"));
+        assertEquals("Bloggs,J", eval1.getValue("[$OpenVPMS.customer.name]"));
+        assertEquals("Bloggs,J", eval2.getValue("[$OpenVPMS.customer.name]"));
+        assertEquals("Expression Error", eval2.getValue("[$OpenVPMS.patient]")); // undefined variable
+
+        // rebind to another object
+        eval1.setObject(party2);
+        assertEquals("Smith", eval1.getValue("[openvpms:get(., 'lastName')]"));
+        assertEquals("Bloggs,J", eval1.getValue("[$OpenVPMS.customer.name]"));
+    }
+
 }
@@ -0,0 +1,76 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.junit.Test;
+import org.openvpms.component.business.domain.im.archetype.descriptor.NodeDescriptor;
+import org.openvpms.component.business.domain.im.common.IMObject;
+import org.openvpms.component.business.domain.im.party.Contact;
+import org.openvpms.component.business.domain.im.party.Party;
+import org.openvpms.component.business.service.archetype.helper.DescriptorHelper;
+import org.openvpms.component.business.service.archetype.helper.IMObjectBean;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Tests the {@link LookupNameCache} class.
+ *
+ * @author Tim Anderson
+ */
+public class LookupNameCacheTestCase extends AbstractReportTest {
+
+    /**
+     * Verifies that lookup names are returned for lookup nodes.
+     */
+    @Test
+    public void testGetName() {
+        Party customer = createCustomer();
+        Contact contact = customer.getContacts().iterator().next();
+        NodeDescriptor suburb = getNode(contact, "suburb");
+        NodeDescriptor state = getNode(contact, "state");
+
+        LookupNameCache cache = new LookupNameCache(getArchetypeService(), getLookupService());
+        try {
+            for (int i = 0; i < 2; ++i) {
+                assertEquals("Melbourne", cache.getName(contact, suburb));
+                assertEquals("VIC", cache.getName(contact, state));
+            }
+
+            // verify codes are cached by archetype and node, not by object
+            IMObjectBean bean = createBean("contact.location");
+            bean.setValue("suburb", "MELBOURNE");
+            assertEquals("Melbourne", cache.getName(bean.getObject(), suburb));
+
+            cache.clear();
+            assertEquals("Melbourne", cache.getName(contact, suburb));
+        } finally {
+            cache.destroy();
+        }
+    }
+
+    /**
+     * Returns a node descriptor.
+     *
+     * @param object the object
+     * @param name   the node name
+     * @return the node descriptor
+     */
+    private NodeDescriptor getNode(IMObject object, String name) {
+        return DescriptorHelper.getArchetypeDescriptor(object, getArchetypeService()).getNodeDescriptor(name);
+    }
+}
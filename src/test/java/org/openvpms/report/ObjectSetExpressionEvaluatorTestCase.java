@@ -113,4 +113,49 @@ public class ObjectSetExpressionEvaluatorTestCase extends AbstractReportTest {
         assertEquals("2.00", eval.getFormattedValue("[1 + 1]"));
     }
 
+    /**
+     * Verifies that node paths are split into object names and node paths once, and that the split paths are
+     * applied correctly when the evaluator is rebound to another set.
+     */
+    @Test
+    public void testAccessorCache() {
+        ObjectSet set1 = new ObjectSet();
+        set1.set("act.customer", createCustomer("Foo", "Bar"));
+        set1.set("amount", 10);
+        ObjectSet set2 = new ObjectSet();
+        set2.set("act.customer", createCustomer("Baz", "Qux"));
+        set2.set("amount", null);
+
+        Functions functions = applicationContext.getBean(Functions.class);
+        FieldAccessorCache cache = new FieldAccessorCache();
+        ObjectSetExpressionEvaluator eval = new ObjectSetExpressionEvaluator(set1, (PropertySet) null,
+                                                                             getArchetypeService(), getLookupService(),
+                                                                             functions);
+        eval.setAccessorCache(cache);
+        assertEquals("Foo", eval.getValue("act.customer.firstName"));
+        assertEquals("Bar", eval.getValue("act.customer.lastName"));
+        assertEquals(10, eval.getValue("amount"));
+        assertEquals("Invalid object/node name: foo.bar", eval.getValue("foo.bar"));
+
+        FieldAccessor firstName = cache.get(null, "act.customer.firstName");
+        assertEquals("act.customer", firstName.getObjectName());
+        assertEquals("firstName", firstName.getNodePath());
+        FieldAccessor amount = cache.get(null, "amount");
+        assertEquals("amount", amount.getObjectName());
+        assertEquals("", amount.getNodePath());
+        assertNull(cache.get(null, "foo.bar").getObjectName());
+
+        eval.setObject(set2);
+        assertEquals("Baz", eval.getValue("act.customer.firstName"));
+        assertEquals("Qux", eval.getValue("act.customer.lastName"));
+        assertNull(eval.getValue("amount"));
+        assertEquals("Invalid object/node name: foo.bar", eval.getValue("foo.bar"));
+
+        // verify sets with different names are handled
+        ObjectSet set3 = new ObjectSet();
+        set3.set("act.customer.firstName", "Fred");
+        eval.setObject(set3);
+        assertEquals("Fred", eval.getValue("act.customer.firstName"));
+    }
+
 }
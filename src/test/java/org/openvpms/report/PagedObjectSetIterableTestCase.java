@@ -0,0 +1,165 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.junit.Test;
+import org.openvpms.component.business.domain.im.party.Party;
+import org.openvpms.component.system.common.query.ArchetypeQuery;
+import org.openvpms.component.system.common.query.Constraints;
+import org.openvpms.component.system.common.query.NodeSelectConstraint;
+import org.openvpms.component.system.common.query.ObjectSet;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests the {@link PagedObjectSetIterable} class.
+ *
+ * @author Tim Anderson
+ */
+public class PagedObjectSetIterableTestCase extends AbstractReportTest {
+
+    /**
+     * Verifies that results are retrieved a page at a time, with and without prefetching, and that the query is
+     * re-executed for each iterator.
+     */
+    @Test
+    public void testIterate() {
+        String firstName = "J" + System.nanoTime();
+        List<Long> ids = new ArrayList<Long>();
+        for (int i = 0; i < 5; ++i) {
+            Party customer = createCustomer(firstName, "Zoo" + i);
+            ids.add(customer.getId());
+        }
+        checkIterate(firstName, ids, 2, true, 3);
+        checkIterate(firstName, ids, 2, false, 3);
+        checkIterate(firstName, ids, 5, true, 2);   // the last page is empty
+        checkIterate(firstName, ids, 10, false, 1);
+    }
+
+    /**
+     * Verifies that pages retrieved in the background are retrieved with the security context of the caller, and
+     * that {@link PagedObjectSetIterable#close()} cancels their retrieval.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testClose() throws Exception {
+        String firstName = "J" + System.nanoTime();
+        for (int i = 0; i < 3; ++i) {
+            createCustomer(firstName, "Zoo" + i);
+        }
+        final List<String> users = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        PagedObjectSetIterable iterable = new PagedObjectSetIterable(getArchetypeService(), createQuery(firstName), 2,
+                                                                     getTransactionManager()) {
+            @Override
+            protected List<ObjectSet> getPage(int firstResult) {
+                if (firstResult != 0) {
+                    Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+                    users.add(authentication != null ? authentication.getName() : null);
+                    started.countDown();
+                    try {
+                        Thread.sleep(60000);
+                    } catch (InterruptedException exception) {
+                        interrupted.countDown();
+                    }
+                }
+                return super.getPage(firstResult);
+            }
+        };
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("foo", "bar"));
+        try {
+            Iterator<ObjectSet> iterator = iterable.iterator();
+            assertTrue(iterator.hasNext());
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            iterable.close();
+            assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("foo"), users);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    /**
+     * Iterates over customers with the specified first name, twice, verifying the expected results are returned.
+     *
+     * @param firstName the customer first name
+     * @param ids       the expected customer ids
+     * @param pageSize  the page size
+     * @param prefetch  if {@code true}, retrieve pages in the background
+     * @param pages     the expected no. of pages retrieved per iteration
+     */
+    private void checkIterate(String firstName, List<Long> ids, int pageSize, boolean prefetch, int pages) {
+        ArchetypeQuery query = createQuery(firstName);
+        final List<Integer> firstResults = Collections.synchronizedList(new ArrayList<Integer>());
+        PlatformTransactionManager transactionManager = (prefetch) ? getTransactionManager() : null;
+        PagedObjectSetIterable iterable = new PagedObjectSetIterable(getArchetypeService(), query, pageSize,
+                                                                     transactionManager) {
+            @Override
+            protected List<ObjectSet> getPage(int firstResult) {
+                firstResults.add(firstResult);
+                return super.getPage(firstResult);
+            }
+        };
+        for (int i = 0; i < 2; ++i) {
+            List<Long> actual = new ArrayList<Long>();
+            for (ObjectSet set : iterable) {
+                actual.add(set.getLong("c.id"));
+            }
+            assertEquals(ids, actual);
+        }
+        assertEquals(pages * 2, firstResults.size());
+    }
+
+    /**
+     * Creates a query for the ids of customers with the specified first name.
+     *
+     * @param firstName the customer first name
+     * @return a new query
+     */
+    private ArchetypeQuery createQuery(String firstName) {
+        ArchetypeQuery query = new ArchetypeQuery(Constraints.shortName("c", "party.customerperson"));
+        query.add(new NodeSelectConstraint("c.id"));
+        query.add(Constraints.eq("c.firstName", firstName));
+        query.add(Constraints.sort("c.id"));
+        return query;
+    }
+
+    /**
+     * Returns the transaction manager.
+     *
+     * @return the transaction manager
+     */
+    private PlatformTransactionManager getTransactionManager() {
+        return applicationContext.getBean(PlatformTransactionManager.class);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report;
+
+import org.junit.Test;
+import org.openvpms.component.business.domain.im.common.IMObject;
+import org.openvpms.component.business.domain.im.common.IMObjectReference;
+import org.openvpms.component.business.domain.im.party.Party;
+import org.openvpms.component.business.service.archetype.IArchetypeService;
+import org.openvpms.component.business.service.archetype.ReadOnlyArchetypeService;
+import org.openvpms.component.system.common.query.IArchetypeQuery;
+import org.openvpms.component.system.common.query.IPage;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests the {@link PrefetchingArchetypeService} class.
+ *
+ * @author Tim Anderson
+ */
+public class PrefetchingArchetypeServiceTestCase extends AbstractReportTest {
+
+    /**
+     * Verifies that prefetched objects are returned by {@link PrefetchingArchetypeService#get(IMObjectReference)},
+     * and that the same instance is returned for each call.
+     */
+    @Test
+    public void testPrefetch() {
+        Party customer1 = createCustomer("J", "Bloggs");
+        Party customer2 = createCustomer("F", "Smith");
+        IMObjectReference ref1 = customer1.getObjectReference();
+        IMObjectReference ref2 = customer2.getObjectReference();
+
+        PrefetchingArchetypeService service = new PrefetchingArchetypeService(getArchetypeService(), 10);
+        assertEquals(10, service.getWindow());
+        assertTrue(service.begin());
+        assertFalse(service.begin()); // already in a run
+        service.prefetch(Arrays.asList(ref1, ref2, ref1, null));
+
+        IMObject object1 = service.get(ref1);
+        IMObject object2 = service.get(ref2);
+        assertEquals(customer1, object1);
+        assertEquals(customer2, object2);
+        assertNotSame(customer1, object1);
+        assertSame(object1, service.get(ref1));
+        assertSame(object2, service.get(ref2));
+
+        // prefetching again shouldn't replace the existing instances
+        service.prefetch(Arrays.asList(ref1, ref2));
+        assertSame(object1, service.get(ref1));
+        assertSame(object2, service.get(ref2));
+
+        // objects aren't retained once the run ends
+        service.end();
+        assertNotSame(object1, service.get(ref1));
+    }
+
+    /**
+     * Verifies that objects aren't cached outside of a run.
+     */
+    @Test
+    public void testNoRun() {
+        Party customer = createCustomer();
+        IMObjectReference ref = customer.getObjectReference();
+        PrefetchingArchetypeService service = new PrefetchingArchetypeService(getArchetypeService(), 10);
+        service.prefetch(Arrays.asList(ref));
+        IMObject object = service.get(ref);
+        assertEquals(customer, object);
+        assertNotSame(object, service.get(ref));
+    }
+
+    /**
+     * Verifies that references that don't resolve are only queried once per run.
+     */
+    @Test
+    public void testMissing() {
+        Party customer1 = createCustomer();
+        Party customer2 = createCustomer();
+        IMObjectReference ref1 = customer1.getObjectReference();
+        IMObjectReference ref2 = customer2.getObjectReference();
+        getArchetypeService().remove(customer1);
+        getArchetypeService().remove(customer2);
+
+        // count the queries made of the underlying service
+        final int[] queries = {0};
+        IArchetypeService counting = new ReadOnlyArchetypeService(getArchetypeService()) {
+            @Override
+            public IMObject get(IMObjectReference reference) {
+                ++queries[0];
+                return super.get(reference);
+            }
+
+            @Override
+            public IPage<IMObject> get(IArchetypeQuery query) {
+                ++queries[0];
+                return super.get(query);
+            }
+        };
+        PrefetchingArchetypeService service = new PrefetchingArchetypeService(counting, 10);
+        service.begin();
+        try {
+            // ref1 is missed by a prefetch, ref2 by a get
+            service.prefetch(Arrays.asList(ref1));
+            assertEquals(1, queries[0]);
+            assertNull(service.get(ref1));
+            assertEquals(1, queries[0]);
+            assertNull(service.get(ref2));
+            assertEquals(2, queries[0]);
+
+            // neither should be queried again
+            assertNull(service.get(ref2));
+            assertNull(service.get(ref1));
+            service.prefetch(Arrays.asList(ref1, ref2));
+            assertEquals(2, queries[0]);
+        } finally {
+            service.end();
+        }
+    }
+
+    /**
+     * Verifies that objects not prefetched are retrieved from the underlying service, and cached.
+     */
+    @Test
+    public void testGet() {
+        Party customer = createCustomer();
+        IMObjectReference ref = customer.getObjectReference();
+        PrefetchingArchetypeService service = new PrefetchingArchetypeService(getArchetypeService(), 10);
+        service.begin();
+        IMObject object = service.get(ref);
+        assertEquals(customer, object);
+        assertSame(object, service.get(ref));
+
+        getArchetypeService().remove(customer);
+        assertSame(object, service.get(ref));
+        service.end();
+
+        // a new run doesn't see objects from the previous one
+        service.begin();
+        assertNull(service.get(ref));
+        service.end();
+    }
+}
@@ -37,7 +37,7 @@ public class ReportExceptionTestCase {
     @Test
     public void testMessages() {
         assertEquals("Need to update tests to incorporate new messages",
-                     12, ReportException.ErrorCode.values().length);
+                     15, ReportException.ErrorCode.values().length);
         checkException(FailedToCreateReport, "Failed to create report: foo",
                        "foo");
         checkException(FailedToFindSubReport, "There is no sub-report named: foo\nThis is needed by report: bar",
@@ -61,6 +61,9 @@ public class ReportExceptionTestCase {
         checkException(ReportException.ErrorCode.UnsupportedTemplate,
                        "Unsupported document template: foo", "foo");
         checkException(ReportException.ErrorCode.NoPagesToPrint, "Report has no pages to print");
+        checkException(ReportException.ErrorCode.MaxPagesExceeded, "Report exceeded the maximum of 10 pages", 10);
+        checkException(ReportException.ErrorCode.MaxRowsExceeded, "Report exceeded the maximum of 10 rows", 10);
+        checkException(ReportException.ErrorCode.InvalidSortCriteria, "Invalid sort criteria: foo", "foo");
     }
 
     /**
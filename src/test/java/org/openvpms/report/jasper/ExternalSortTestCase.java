@@ -0,0 +1,169 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper;
+
+import org.junit.Test;
+import org.openvpms.component.business.domain.archetype.ArchetypeId;
+import org.openvpms.component.business.domain.im.common.IMObjectReference;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+
+/**
+ * Tests the {@link ExternalSort} class.
+ *
+ * @author Tim Anderson
+ */
+public class ExternalSortTestCase {
+
+    /**
+     * The archetype identifier used to create references.
+     */
+    private final ArchetypeId archetypeId = new ArchetypeId("party.customerperson");
+
+
+    /**
+     * Verifies that references are sorted in memory when they fit in a single run.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testInMemory() throws Exception {
+        checkSort(100, 0);
+    }
+
+    /**
+     * Verifies that references are merged from temporary files when they exceed the run size.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testSpill() throws Exception {
+        checkSort(4, 7);
+        checkSort(1, 25);
+    }
+
+    /**
+     * Verifies that keys that aren't serializable are sorted on their values when the references fit in memory.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testNonSerializableKeyInMemory() throws Exception {
+        ExternalSort sort = new ExternalSort(new SortCriteria("a"), 10);
+        try {
+            sort.add(new Object[]{new NotSerializable("B")}, new IMObjectReference(archetypeId, 1));
+            sort.add(new Object[]{new NotSerializable("C")}, new IMObjectReference(archetypeId, 2));
+            sort.add(new Object[]{new NotSerializable("A")}, new IMObjectReference(archetypeId, 3));
+            checkOrder(sort.iterator(), 3, 1, 2);
+            assertEquals(0, sort.getRuns());
+        } finally {
+            sort.close();
+        }
+    }
+
+    /**
+     * Verifies that keys that aren't serializable are sorted as nulls when runs are written to temporary files.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testNonSerializableKey() throws Exception {
+        ExternalSort sort = new ExternalSort(new SortCriteria("a nulls first"), 1);
+        try {
+            sort.add(new Object[]{"B"}, new IMObjectReference(archetypeId, 1));
+            sort.add(new Object[]{new NotSerializable("Z")}, new IMObjectReference(archetypeId, 2));
+            sort.add(new Object[]{"A"}, new IMObjectReference(archetypeId, 3));
+            checkOrder(sort.iterator(), 2, 3, 1);
+        } finally {
+            sort.close();
+        }
+    }
+
+    /**
+     * Sorts 25 references on a descending primary key and ascending secondary key, and verifies the order matches
+     * that expected. References with equal keys must be returned in the order they were added.
+     *
+     * @param runSize the run size
+     * @param runs    the expected no. of runs written to temporary files
+     * @throws Exception for any error
+     */
+    private void checkSort(int runSize, int runs) throws Exception {
+        ExternalSort sort = new ExternalSort(new SortCriteria("a desc", "b"), runSize);
+        try {
+            for (int i = 0; i < 25; ++i) {
+                // ids 0..24 have primary keys 0..4 and secondary keys 0..1
+                sort.add(new Object[]{i % 5, (i / 5) % 2}, new IMObjectReference(archetypeId, i));
+            }
+            Iterator<IMObjectReference> iterator = sort.iterator();
+            assertEquals(runs, sort.getRuns());
+            checkOrder(iterator, 4, 14, 24, 9, 19, 3, 13, 23, 8, 18, 2, 12, 22, 7, 17, 1, 11, 21, 6, 16, 0, 10, 20, 5,
+                       15);
+        } finally {
+            sort.close();
+        }
+        assertEquals(0, sort.getRuns());
+    }
+
+    /**
+     * Verifies an iterator returns references with the expected ids.
+     *
+     * @param iterator the iterator
+     * @param ids      the expected ids
+     */
+    private void checkOrder(Iterator<IMObjectReference> iterator, long... ids) {
+        List<Long> actual = new ArrayList<Long>();
+        while (iterator.hasNext()) {
+            actual.add(iterator.next().getId());
+        }
+        List<Long> expected = new ArrayList<Long>();
+        for (long id : ids) {
+            expected.add(id);
+        }
+        assertEquals(expected, actual);
+        assertFalse(iterator.hasNext());
+    }
+
+    /**
+     * A comparable key that isn't serializable.
+     */
+    private static class NotSerializable implements Comparable<NotSerializable> {
+
+        /**
+         * The value.
+         */
+        private final String value;
+
+        /**
+         * Constructs a {@link NotSerializable}.
+         *
+         * @param value the value
+         */
+        public NotSerializable(String value) {
+            this.value = value;
+        }
+
+        public int compareTo(NotSerializable o) {
+            return value.compareTo(o.value);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper;
+
+import org.junit.Test;
+import org.openvpms.component.business.domain.im.common.IMObject;
+import org.openvpms.component.business.domain.im.party.Party;
+import org.openvpms.component.system.common.query.IArchetypeQuery;
+import org.openvpms.component.system.common.query.IPage;
+import org.openvpms.report.AbstractReportTest;
+import org.openvpms.report.PrefetchingArchetypeService;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests the {@link ExternallySortedIterable} class.
+ *
+ * @author Tim Anderson
+ */
+public class ExternallySortedIterableTestCase extends AbstractReportTest {
+
+    /**
+     * Verifies that objects are returned in sort order, retrieved in batches, and that objects removed since the
+     * sort are skipped.
+     */
+    @Test
+    public void testIterate() {
+        Party customer1 = createCustomer("J", "Smith");
+        Party customer2 = createCustomer("J", "Bloggs");
+        Party customer3 = createCustomer("J", "Jones");
+        Party customer4 = createCustomer("J", "Aardvark");
+        List<IMObject> objects = Arrays.<IMObject>asList(customer1, customer2, customer3, customer4);
+        final int[] queries = {0};
+        PrefetchingArchetypeService service = new PrefetchingArchetypeService(getArchetypeService(), 10) {
+            @Override
+            public IPage<IMObject> get(IArchetypeQuery query) {
+                ++queries[0];
+                return super.get(query);
+            }
+        };
+        ExternallySortedIterable iterable = new ExternallySortedIterable(objects, new SortCriteria("lastName"), 1,
+                                                                         service);
+        Iterator<IMObject> iterator = iterable.iterator();
+        getArchetypeService().remove(customer3);
+        checkNext(iterator, customer4);
+        checkNext(iterator, customer2);
+        checkNext(iterator, customer1);
+        assertFalse(iterator.hasNext());
+
+        // the objects should have been retrieved in a single query
+        assertEquals(1, queries[0]);
+    }
+
+    /**
+     * Verifies that {@link ExternallySortedIterable#close()} deletes the temporary files of an iterator that hasn't
+     * been exhausted.
+     */
+    @Test
+    public void testClose() {
+        List<IMObject> objects = new ArrayList<IMObject>();
+        for (int i = 0; i < 5; ++i) {
+            objects.add(createCustomer("J", "Smith" + i));
+        }
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        int files = countRuns(dir);
+        ExternallySortedIterable iterable = new ExternallySortedIterable(objects, new SortCriteria("lastName"), 2,
+                                                                         getArchetypeService());
+        Iterator<IMObject> iterator = iterable.iterator();
+        checkNext(iterator, objects.get(0));
+        assertEquals(files + 3, countRuns(dir));
+
+        // abandon the iteration
+        iterable.close();
+        assertEquals(files, countRuns(dir));
+
+        // verify exhausted iterators delete their files
+        iterator = iterable.iterator();
+        for (IMObject object : objects) {
+            checkNext(iterator, object);
+        }
+        assertFalse(iterator.hasNext());
+        assertEquals(files, countRuns(dir));
+    }
+
+    /**
+     * Verifies the next object returned by an iterator matches that expected.
+     *
+     * @param iterator the iterator
+     * @param expected the expected object
+     */
+    private void checkNext(Iterator<IMObject> iterator, IMObject expected) {
+        assertTrue(iterator.hasNext());
+        assertEquals(expected, iterator.next());
+    }
+
+    /**
+     * Counts the sort run files in a directory.
+     *
+     * @param dir the directory
+     * @return the no. of run files
+     */
+    private int countRuns(File dir) {
+        String[] names = dir.list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith("ExternalSort") && name.endsWith(".run");
+            }
+        });
+        return (names != null) ? names.length : 0;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper;
+
+import org.junit.Test;
+import org.openvpms.report.ReportException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Tests the {@link FillGovernor} class.
+ *
+ * @author Tim Anderson
+ */
+public class FillGovernorTestCase {
+
+    /**
+     * Verifies that a {@link ReportException} is thrown when the maximum no. of rows is exceeded, and that it is
+     * rethrown by subsequent calls.
+     */
+    @Test
+    public void testMaxRows() {
+        FillGovernor governor = new FillGovernor(0, 2);
+        governor.next();
+        governor.next();
+        assertFalse(governor.isExceeded());
+        try {
+            governor.next();
+            fail("Expected ReportException");
+        } catch (ReportException expected) {
+            assertEquals(ReportException.ErrorCode.MaxRowsExceeded, expected.getErrorCode());
+        }
+        assertTrue(governor.isExceeded());
+        try {
+            governor.check();
+            fail("Expected ReportException");
+        } catch (ReportException expected) {
+            assertEquals(ReportException.ErrorCode.MaxRowsExceeded, expected.getErrorCode());
+        }
+    }
+
+    /**
+     * Verifies that a {@link ReportException} is thrown when the maximum no. of pages is exceeded.
+     */
+    @Test
+    public void testMaxPages() {
+        FillGovernor governor = new FillGovernor(2, 0);
+        governor.pageGenerated(null, 0);
+        governor.pageGenerated(null, 1);
+        assertFalse(governor.isExceeded());
+        try {
+            governor.pageGenerated(null, 2);
+            fail("Expected ReportException");
+        } catch (ReportException expected) {
+            assertEquals(ReportException.ErrorCode.MaxPagesExceeded, expected.getErrorCode());
+        }
+        assertTrue(governor.isExceeded());
+    }
+
+    /**
+     * Verifies that limits {@code <= 0} are ignored.
+     */
+    @Test
+    public void testNoLimits() {
+        FillGovernor governor = new FillGovernor(0, -1);
+        for (int i = 0; i < 1000; ++i) {
+            governor.next();
+            governor.pageGenerated(null, i);
+        }
+        assertEquals(1000, governor.getRows());
+        assertFalse(governor.isExceeded());
+        governor.check();
+    }
+}
@@ -16,19 +16,41 @@
 
 package org.openvpms.report.jasper;
 
+import net.sf.jasperreports.engine.JRField;
+import org.apache.commons.jxpath.ClassFunctions;
+import org.apache.commons.jxpath.FunctionLibrary;
 import org.apache.commons.jxpath.Functions;
 import org.junit.Test;
 import org.openvpms.archetype.test.TestHelper;
+import org.openvpms.component.business.domain.im.archetype.descriptor.NodeDescriptor;
 import org.openvpms.component.business.domain.im.common.IMObject;
 import org.openvpms.component.business.domain.im.party.Party;
+import org.openvpms.component.business.service.archetype.helper.ActBean;
+import org.openvpms.component.business.service.archetype.helper.DescriptorHelper;
+import org.openvpms.component.business.service.archetype.helper.IMObjectBean;
 import org.openvpms.component.business.service.archetype.helper.ResolvingPropertySet;
+import org.openvpms.component.system.common.query.ArchetypeQuery;
+import org.openvpms.component.system.common.query.Constraints;
+import org.openvpms.component.system.common.query.IArchetypeQuery;
+import org.openvpms.component.system.common.query.IPage;
 import org.openvpms.component.system.common.util.PropertySet;
+import org.openvpms.report.FieldAccessor;
+import org.openvpms.report.FieldAccessorCache;
+import org.openvpms.report.PagedIMObjectIterable;
+import org.openvpms.report.PrefetchingArchetypeService;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -59,4 +81,365 @@ public class IMObjectCollectionDataSourceTestCase extends AbstractIMObjectDataSo
         checkExpressionDataSource(ds, f);
     }
 
+    /**
+     * Verifies that fields are evaluated against the correct object as the data source moves between rows, and when
+     * it is rewound.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testNext() throws Exception {
+        Party customer1 = createCustomer("J", "Bloggs");
+        Party customer2 = createCustomer("F", "Smith");
+        List<IMObject> objects = Arrays.<IMObject>asList(customer1, customer2);
+        Functions functions = applicationContext.getBean(Functions.class);
+        IMObjectCollectionDataSource ds = new IMObjectCollectionDataSource(objects, null, getArchetypeService(),
+                                                                           getLookupService(), handlers, functions);
+        for (int i = 0; i < 2; ++i) {
+            assertTrue(ds.next());
+            checkCustomer(ds, customer1, "J", "Bloggs");
+            assertTrue(ds.next());
+            checkCustomer(ds, customer2, "F", "Smith");
+            assertFalse(ds.next());
+            ds.moveFirst();
+        }
+    }
+
+    /**
+     * Verifies that rows can be evaluated in a background thread, and that fields that weren't evaluated in the
+     * background are evaluated on demand.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testPipeline() throws Exception {
+        Party customer1 = createCustomer("J", "Bloggs");
+        Party customer2 = createCustomer("F", "Smith");
+        Iterable<IMObject> objects = createIterable(customer1, customer2);
+        Functions functions = applicationContext.getBean(Functions.class);
+        IMObjectCollectionDataSource ds = new IMObjectCollectionDataSource(objects, null, getArchetypeService(),
+                                                                           getLookupService(), handlers, functions);
+        ds.setPipeline(new JRField[]{createField("firstName", String.class)}, 1,
+                       applicationContext.getBean(PlatformTransactionManager.class));
+        for (int i = 0; i < 2; ++i) {
+            assertTrue(ds.next());
+            checkCustomer(ds, customer1, "J", "Bloggs");
+            assertTrue(ds.next());
+            checkCustomer(ds, customer2, "F", "Smith");
+            assertFalse(ds.next());
+            ds.moveFirst();
+        }
+
+        // verify the pipeline can be abandoned before all rows are read
+        assertTrue(ds.next());
+        checkCustomer(ds, customer1, "J", "Bloggs");
+        ds.close();
+    }
+
+    /**
+     * Verifies that pipelined rows are evaluated in the background thread, with the security context of the fill
+     * thread.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testPipelineSecurityContext() throws Exception {
+        Party customer = createCustomer("J", "Bloggs");
+        checkPipelineThread(createIterable(customer), "RowPipeline:foo");
+    }
+
+    /**
+     * Verifies that objects held in memory aren't pipelined, as they may belong to the fill thread's session.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testInMemoryObjectsNotPipelined() throws Exception {
+        Party customer = createCustomer("J", "Bloggs");
+        checkPipelineThread(Arrays.<IMObject>asList(customer), Thread.currentThread().getName() + ":foo");
+    }
+
+    /**
+     * Verifies that a field that fails in the pipeline's background thread is evaluated again by the fill thread,
+     * and that the failure isn't recorded against the shared field accessor.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testPipelineFieldFailsInBackground() throws Exception {
+        Party customer1 = createCustomer("J", "Bloggs");
+        Party customer2 = createCustomer("F", "Smith");
+        Iterable<IMObject> objects = createIterable(customer1, customer2);
+        FunctionLibrary functions = new FunctionLibrary();
+        functions.addFunctions(applicationContext.getBean(Functions.class));
+        functions.addFunctions(new ClassFunctions(PipelineFunctions.class, "test"));
+        IMObjectCollectionDataSource ds = new IMObjectCollectionDataSource(objects, null, getArchetypeService(),
+                                                                           getLookupService(), handlers, functions);
+        FieldAccessorCache accessors = new FieldAccessorCache();
+        ds.setAccessorCache(accessors);
+        JRField field = createField("[test:foreground(lastName)]", String.class);
+        ds.setPipeline(new JRField[]{field}, 2, applicationContext.getBean(PlatformTransactionManager.class));
+
+        assertTrue(ds.next());
+        assertEquals("Bloggs", ds.getFieldValue(field));
+        assertTrue(ds.next());
+        assertEquals("Smith", ds.getFieldValue(field));
+        assertFalse(ds.next());
+
+        FieldAccessor accessor = accessors.get(customer1.getArchetypeId().getShortName(), field.getName());
+        assertEquals(0, accessor.getFailures());
+        assertFalse(accessor.isFailing());
+        assertEquals(0, accessors.logFailures());
+    }
+
+    /**
+     * Verifies that the no. of objects returned can be limited, after sorting.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testLimit() throws Exception {
+        Party customer = createCustomer("J", "Bloggs");  // has a location with address "1234 Foo St"
+        IMObjectBean bean = new IMObjectBean(customer);
+        bean.addValue("contacts", createLocation("9 Zebra St"));
+        bean.addValue("contacts", createLocation("1 Aardvark St"));
+        bean.save();
+
+        NodeDescriptor descriptor = DescriptorHelper.getArchetypeDescriptor(customer, getArchetypeService())
+                .getNodeDescriptor("contacts");
+        Functions functions = applicationContext.getBean(Functions.class);
+        JRField address = createField("address", String.class);
+
+        IMObjectCollectionDataSource ds1 = new IMObjectCollectionDataSource(customer, null, descriptor,
+                                                                            getArchetypeService(), getLookupService(),
+                                                                            handlers, functions, 2, "address DESC");
+        assertTrue(ds1.next());
+        assertEquals("9 Zebra St", ds1.getFieldValue(address));
+        assertTrue(ds1.next());
+        assertEquals("1234 Foo St", ds1.getFieldValue(address));
+        assertFalse(ds1.next());
+
+        // unsorted
+        IMObjectCollectionDataSource ds2 = new IMObjectCollectionDataSource(customer, null, descriptor,
+                                                                            getArchetypeService(), getLookupService(),
+                                                                            handlers, functions, 1);
+        assertTrue(ds2.next());
+        assertFalse(ds2.next());
+    }
+
+    /**
+     * Verifies that collections are sorted on the specified node.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testSort() throws Exception {
+        Party customer = createCustomer("J", "Bloggs");  // has a location with address "1234 Foo St"
+        IMObjectBean bean = new IMObjectBean(customer);
+        bean.addValue("contacts", createLocation("9 Zebra St"));
+        bean.addValue("contacts", createLocation("1 Aardvark St"));
+        bean.save();
+
+        NodeDescriptor descriptor = DescriptorHelper.getArchetypeDescriptor(customer, getArchetypeService())
+                .getNodeDescriptor("contacts");
+        Functions functions = applicationContext.getBean(Functions.class);
+        IMObjectCollectionDataSource ds = new IMObjectCollectionDataSource(customer, null, descriptor,
+                                                                           getArchetypeService(), getLookupService(),
+                                                                           handlers, functions, "address");
+        JRField address = createField("address", String.class);
+        assertTrue(ds.next());
+        assertEquals("1 Aardvark St", ds.getFieldValue(address));
+        assertTrue(ds.next());
+        assertEquals("1234 Foo St", ds.getFieldValue(address));
+        assertTrue(ds.next());
+        assertEquals("9 Zebra St", ds.getFieldValue(address));
+        assertFalse(ds.next());
+    }
+
+    /**
+     * Verifies that objects with equal sort keys are returned in collection order, with and without a limit.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testSortIsStable() throws Exception {
+        Party customer = createCustomer("J", "Bloggs");  // has a location with address "1234 Foo St"
+        IMObjectBean bean = new IMObjectBean(customer);
+        for (int i = 0; i < 10; ++i) {
+            bean.addValue("contacts", createLocation(i + " Zebra St"));
+        }
+        NodeDescriptor descriptor = DescriptorHelper.getArchetypeDescriptor(customer, getArchetypeService())
+                .getNodeDescriptor("contacts");
+        List<String> expected = new ArrayList<String>();
+        for (IMObject contact : descriptor.getChildren(customer)) {
+            expected.add(new IMObjectBean(contact).getString("address"));
+        }
+        Functions functions = applicationContext.getBean(Functions.class);
+        JRField address = createField("address", String.class);
+
+        // the node doesn't exist, so every object has a null sort key
+        IMObjectCollectionDataSource all = new IMObjectCollectionDataSource(customer, null, descriptor,
+                                                                            getArchetypeService(), getLookupService(),
+                                                                            handlers, functions, "nonexistent");
+        IMObjectCollectionDataSource limited = new IMObjectCollectionDataSource(customer, null, descriptor,
+                                                                                getArchetypeService(),
+                                                                                getLookupService(), handlers,
+                                                                                functions, 4, "nonexistent");
+        for (String value : expected) {
+            assertTrue(all.next());
+            assertEquals(value, all.getFieldValue(address));
+        }
+        assertFalse(all.next());
+        for (String value : expected.subList(0, 4)) {
+            assertTrue(limited.next());
+            assertEquals(value, limited.getFieldValue(address));
+        }
+        assertFalse(limited.next());
+    }
+
+    /**
+     * Verifies that when the archetype service supports prefetching, the objects referred to by fields are retrieved
+     * in batches.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testPrefetch() throws Exception {
+        String[] names = {"Bloggs", "Smith", "Jones", "Brown"};
+        List<IMObject> objects = new ArrayList<IMObject>();
+        for (String name : names) {
+            ActBean act = createAct("act.customerEstimation");
+            act.setParticipant("participation.customer", createCustomer("J", name));
+            objects.add(act.getAct());
+        }
+        final int[] queries = {0};
+        PrefetchingArchetypeService service = new PrefetchingArchetypeService(getArchetypeService(), 10) {
+            @Override
+            public IPage<IMObject> get(IArchetypeQuery query) {
+                ++queries[0];
+                return super.get(query);
+            }
+        };
+        Functions functions = applicationContext.getBean(Functions.class);
+        IMObjectCollectionDataSource ds = new IMObjectCollectionDataSource(objects, null, service, getLookupService(),
+                                                                           handlers, functions);
+        JRField lastName = createField("customer.entity.lastName", String.class);
+        service.begin();
+        try {
+            for (String name : names) {
+                assertTrue(ds.next());
+                assertEquals(name, ds.getFieldValue(lastName));
+            }
+            assertFalse(ds.next());
+        } finally {
+            service.end();
+        }
+
+        // the first row is resolved on demand. The remaining rows should be retrieved in a single query
+        assertEquals(1, queries[0]);
+    }
+
+    /**
+     * Creates a new location contact.
+     *
+     * @param address the address
+     * @return a new contact
+     */
+    private IMObject createLocation(String address) {
+        IMObjectBean bean = createBean("contact.location");
+        bean.setValue("address", address);
+        return bean.getObject();
+    }
+
+    /**
+     * Verifies the current row of a data source matches the expected customer.
+     *
+     * @param ds        the data source
+     * @param customer  the expected customer
+     * @param firstName the expected first name
+     * @param lastName  the expected last name
+     * @throws Exception for any error
+     */
+    private void checkCustomer(IMObjectCollectionDataSource ds, Party customer, String firstName, String lastName)
+            throws Exception {
+        assertEquals(firstName, ds.getFieldValue(createField("firstName", String.class)));
+        assertEquals(lastName, ds.getFieldValue(createField("lastName", String.class)));
+        assertEquals(customer.getName(), ds.getFieldValue(createField("[name]", String.class)));
+    }
+
+    /**
+     * Creates an iterable that reads customers from a query, a page at a time.
+     *
+     * @param customers the customers
+     * @return a new iterable
+     */
+    private Iterable<IMObject> createIterable(Party... customers) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Party customer : customers) {
+            ids.add(customer.getId());
+        }
+        ArchetypeQuery query = new ArchetypeQuery(customers[0].getArchetypeId().getShortName(), false, false);
+        query.add(Constraints.in("id", ids.toArray()));
+        query.add(Constraints.sort("id"));
+        return new PagedIMObjectIterable(getArchetypeService(), query, 1, null, 0);
+    }
+
+    /**
+     * Evaluates a single row with pipelining enabled, verifying the thread that evaluated it and its security context.
+     *
+     * @param objects  the objects. Must contain a single object
+     * @param expected the expected thread and user names, separated by a colon
+     * @throws Exception for any error
+     */
+    private void checkPipelineThread(Iterable<IMObject> objects, String expected) throws Exception {
+        FunctionLibrary functions = new FunctionLibrary();
+        functions.addFunctions(applicationContext.getBean(Functions.class));
+        functions.addFunctions(new ClassFunctions(PipelineFunctions.class, "test"));
+        IMObjectCollectionDataSource ds = new IMObjectCollectionDataSource(objects, null, getArchetypeService(),
+                                                                           getLookupService(), handlers, functions);
+        JRField field = createField("[test:user(.)]", String.class);
+        ds.setPipeline(new JRField[]{field}, 1, applicationContext.getBean(PlatformTransactionManager.class));
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("foo", "bar"));
+        try {
+            assertTrue(ds.next());
+            assertEquals(expected, ds.getFieldValue(field));
+            assertFalse(ds.next());
+        } finally {
+            SecurityContextHolder.clearContext();
+            ds.close();
+        }
+    }
+
+    /**
+     * JXPath extension functions used to verify the behaviour of pipelined rows.
+     */
+    public static class PipelineFunctions {
+
+        /**
+         * Returns the name of the current thread, and the name of its authenticated user.
+         *
+         * @param object the object being evaluated. Ignored
+         * @return the thread and user names, separated by a colon
+         */
+        public static String user(Object object) {
+            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+            String user = (authentication != null) ? authentication.getName() : null;
+            return Thread.currentThread().getName() + ":" + user;
+        }
+
+        /**
+         * Returns the supplied value, failing if invoked by the pipeline's background thread.
+         *
+         * @param value the value
+         * @return the value
+         * @throws IllegalStateException if invoked by the background thread
+         */
+        public static String foreground(String value) {
+            if ("RowPipeline".equals(Thread.currentThread().getName())) {
+                throw new IllegalStateException("Invoked by the background thread");
+            }
+            return value;
+        }
+    }
+
 }
@@ -17,13 +17,17 @@
 package org.openvpms.report.jasper;
 
 import net.sf.jasperreports.engine.JRField;
+import net.sf.jasperreports.engine.JRRewindableDataSource;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.jxpath.Functions;
 import org.junit.Test;
 import org.openvpms.archetype.rules.doc.DocumentHelper;
 import org.openvpms.archetype.test.TestHelper;
 import org.openvpms.component.business.domain.im.common.IMObject;
 import org.openvpms.component.business.domain.im.document.Document;
+import org.openvpms.component.business.domain.im.party.Party;
 import org.openvpms.component.business.service.archetype.helper.ActBean;
+import org.openvpms.component.business.service.archetype.helper.IMObjectBean;
 import org.openvpms.component.business.service.archetype.helper.ResolvingPropertySet;
 
 import java.io.File;
@@ -34,6 +38,7 @@ import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 
 
@@ -90,6 +95,153 @@ public class IMObjectDataSourceTestCase extends AbstractIMObjectDataSourceTestCa
         assertEquals(-1, stream.read());
         expectedStream.close();
         stream.close();
+
+        // verify the content is available each time the field is accessed
+        InputStream stream2 = (InputStream) ds.getFieldValue(document);
+        assertNotSame(stream, stream2);
+        assertEquals(file.length(), IOUtils.toByteArray(stream2).length);
+    }
+
+    /**
+     * Verifies that field values are only evaluated once for each object.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testFieldValuesEvaluatedOncePerObject() throws Exception {
+        Party object = createCustomer("Foo", "Bar");
+        IMObjectDataSource ds = createDataSource(object);
+        JRField firstName = createField("firstName", String.class);
+
+        assertTrue(ds.next());
+        assertEquals("Foo", ds.getFieldValue(firstName));
+
+        // change the name. The cached value should be returned until the data source is rebound
+        IMObjectBean bean = new IMObjectBean(object);
+        bean.setValue("firstName", "Changed");
+        assertEquals("Foo", ds.getFieldValue(firstName));
+
+        ds.setObject(object);
+        assertTrue(ds.next());
+        assertEquals("Changed", ds.getFieldValue(firstName));
+    }
+
+    /**
+     * Tests the {@link IMObjectDataSource#getDataSource(String, String[], int)} method, for saved and unsaved objects.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testLimitedDataSource() throws Exception {
+        ActBean act = createAct("act.customerEstimation");
+        act.setParticipant("participation.customer", createCustomer("J", "Bloggs"));
+        JRField lastName = createField("entity.lastName", String.class);
+        JRField displayName = createField("collectionDisplayName", String.class);
+
+        // unsaved, so the collection is read from the object
+        checkLimitedDataSource(act, lastName, displayName);
+
+        // saved, so the collection is queried
+        act.save();
+        checkLimitedDataSource(act, lastName, displayName);
+    }
+
+    /**
+     * Verifies that a limited data source is only queried when the null ordering of its sort criteria matches that
+     * of the database, i.e. nulls sort low.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testLimitedDataSourceNullOrdering() throws Exception {
+        ActBean act = createAct("act.customerEstimation");
+        act.setParticipant("participation.customer", createCustomer("J", "Bloggs"));
+        act.save();
+        checkMaterialized(act, false, "id");
+        checkMaterialized(act, false, "id desc nulls last");
+        checkMaterialized(act, true, "id nulls last");
+        checkMaterialized(act, true, "id desc nulls first");
+    }
+
+    /**
+     * Verifies that a collection is only read once for the current object, and that each request returns an
+     * independent data source.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testCollectionsMemoizedPerObject() throws Exception {
+        Party customer = createCustomer("J", "Bloggs");  // has a location with address "1234 Foo St"
+        IMObjectBean bean = new IMObjectBean(customer);
+        bean.addValue("contacts", createLocation("9 Zebra St"));
+        JRField address = createField("address", String.class);
+
+        IMObjectDataSource ds = createDataSource(customer);
+        assertTrue(ds.next());
+        JRRewindableDataSource contacts1 = ds.getDataSource("contacts", new String[]{"address"});
+        JRRewindableDataSource contacts2 = ds.getDataSource("contacts", new String[]{"address"});
+        assertNotSame(contacts1, contacts2);
+
+        // verify the data sources can be iterated independently
+        assertTrue(contacts1.next());
+        assertEquals("1234 Foo St", contacts1.getFieldValue(address));
+        assertTrue(contacts2.next());
+        assertEquals("1234 Foo St", contacts2.getFieldValue(address));
+        assertTrue(contacts1.next());
+        assertEquals("9 Zebra St", contacts1.getFieldValue(address));
+        assertFalse(contacts1.next());
+        assertTrue(contacts2.next());
+        assertEquals("9 Zebra St", contacts2.getFieldValue(address));
+        assertFalse(contacts2.next());
+
+        // add a contact. The collection should not be re-read until the data source is rebound
+        bean.addValue("contacts", createLocation("1 Aardvark St"));
+        checkAddresses(ds.getDataSource("contacts", new String[]{"address"}), address, "1234 Foo St", "9 Zebra St");
+
+        // a different sort returns a different collection
+        checkAddresses(ds.getDataSource("contacts", new String[]{"address DESC"}), address, "9 Zebra St",
+                       "1234 Foo St", "1 Aardvark St");
+
+        ds.setObject(customer);
+        assertTrue(ds.next());
+        checkAddresses(ds.getDataSource("contacts", new String[]{"address"}), address, "1 Aardvark St", "1234 Foo St",
+                       "9 Zebra St");
+    }
+
+    /**
+     * Verifies that a collection larger than the sort run size is sorted externally, when the sort nodes prevent the
+     * query from sorting it, and that collections requested without a limit are always read from the object.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testExternallySortedDataSource() throws Exception {
+        ActBean act = createAct("act.customerEstimation");
+        act.setParticipant("participation.customer", createCustomer("J", "Bloggs"));
+        act.save();
+        JRField lastName = createField("entity.lastName", String.class);
+        JRField displayName = createField("collectionDisplayName", String.class);
+
+        IMObjectDataSource ds = createDataSource(act.getAct());
+        ds.setSortRunSize(0);
+        assertTrue(ds.next());
+        JRRewindableDataSource customers = ds.getDataSource("customer", new String[]{"entity.lastName"}, 0);
+        assertTrue(customers.next());
+        assertEquals("Bloggs", customers.getFieldValue(lastName));
+        assertEquals("Customer", customers.getFieldValue(displayName));
+        assertFalse(customers.next());
+
+        customers.moveFirst();
+        assertTrue(customers.next());
+        assertEquals("Bloggs", customers.getFieldValue(lastName));
+        assertFalse(((IMObjectCollectionDataSource) customers).isMaterialized());
+
+        JRRewindableDataSource unlimited = ds.getDataSource("customer", new String[]{"entity.lastName"});
+        assertTrue(((IMObjectCollectionDataSource) unlimited).isMaterialized());
+        assertTrue(unlimited.next());
+        assertEquals("Bloggs", unlimited.getFieldValue(lastName));
+        assertFalse(unlimited.next());
+        ds.close();
     }
 
     /**
@@ -152,6 +304,74 @@ public class IMObjectDataSourceTestCase extends AbstractIMObjectDataSourceTestCa
 
     }
 
+    /**
+     * Verifies the customer of an act can be accessed via a limited data source.
+     *
+     * @param act         the act
+     * @param lastName    the customer last name field
+     * @param displayName the collection display name field
+     * @throws Exception for any error
+     */
+    private void checkLimitedDataSource(ActBean act, JRField lastName, JRField displayName) throws Exception {
+        IMObjectDataSource ds = createDataSource(act.getAct());
+        assertTrue(ds.next());
+        JRRewindableDataSource customers = ds.getDataSource("customer", new String[0], 10);
+        assertTrue(customers.next());
+        assertEquals("Bloggs", customers.getFieldValue(lastName));
+        assertEquals("Customer", customers.getFieldValue(displayName));
+        assertFalse(customers.next());
+
+        customers.moveFirst();
+        assertTrue(customers.next());
+        assertEquals("Bloggs", customers.getFieldValue(lastName));
+    }
+
+    /**
+     * Verifies if the customer data source of an act is held in memory, or read from a query.
+     *
+     * @param act          the act
+     * @param materialized if {@code true}, expect the data source to be held in memory
+     * @param sortNode     the sort node
+     * @throws Exception for any error
+     */
+    private void checkMaterialized(ActBean act, boolean materialized, String sortNode) throws Exception {
+        IMObjectDataSource ds = createDataSource(act.getAct());
+        assertTrue(ds.next());
+        JRRewindableDataSource customers = ds.getDataSource("customer", new String[]{sortNode}, 10);
+        assertEquals(materialized, ((IMObjectCollectionDataSource) customers).isMaterialized());
+        assertTrue(customers.next());
+        assertFalse(customers.next());
+        ds.close();
+    }
+
+    /**
+     * Verifies a data source returns the expected addresses.
+     *
+     * @param ds        the data source
+     * @param address   the address field
+     * @param addresses the expected addresses
+     * @throws Exception for any error
+     */
+    private void checkAddresses(JRRewindableDataSource ds, JRField address, String... addresses) throws Exception {
+        for (String expected : addresses) {
+            assertTrue(ds.next());
+            assertEquals(expected, ds.getFieldValue(address));
+        }
+        assertFalse(ds.next());
+    }
+
+    /**
+     * Creates a new location contact.
+     *
+     * @param address the address
+     * @return a new contact
+     */
+    private IMObject createLocation(String address) {
+        IMObjectBean bean = createBean("contact.location");
+        bean.setValue("address", address);
+        return bean.getObject();
+    }
+
     /**
      * Helper to create a new data source.
      *
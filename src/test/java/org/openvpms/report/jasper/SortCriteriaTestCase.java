@@ -0,0 +1,110 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper;
+
+import org.junit.Test;
+import org.openvpms.report.ReportException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Tests the {@link SortCriteria} class.
+ *
+ * @author Tim Anderson
+ */
+public class SortCriteriaTestCase {
+
+    /**
+     * Tests parsing of sort criteria.
+     */
+    @Test
+    public void testParse() {
+        SortCriteria criteria = new SortCriteria("startTime", "product.entity.name DESC", "a asc nulls last",
+                                                 "b desc nulls first");
+        assertEquals(4, criteria.size());
+        checkCriterion(criteria, 0, "startTime", true, true);
+        checkCriterion(criteria, 1, "product.entity.name", false, false);
+        checkCriterion(criteria, 2, "a", true, false);
+        checkCriterion(criteria, 3, "b", false, true);
+        assertEquals(Arrays.asList("startTime", "product.entity.name", "a", "b"), criteria.getNodes());
+
+        checkInvalid("");
+        checkInvalid("a b");
+        checkInvalid("a asc nulls");
+        checkInvalid("a nulls middle");
+    }
+
+    /**
+     * Verifies that the first criterion is the primary key, and that direction and null ordering apply per key.
+     */
+    @Test
+    public void testComparator() {
+        Comparator<Object[]> comparator = new SortCriteria("a", "b desc").getComparator();
+        Object[] a1b2 = {1, 2};
+        Object[] a1b1 = {1, 1};
+        Object[] a2b3 = {2, 3};
+        Object[] aNullb1 = {null, 1};
+        Object[] a1bNull = {1, null};
+
+        List<Object[]> list = Arrays.asList(a2b3, a1b1, a1bNull, aNullb1, a1b2);
+        Collections.sort(list, comparator);
+        assertEquals(Arrays.asList(aNullb1, a1b2, a1b1, a1bNull, a2b3), list);
+
+        assertTrue(comparator.compare(a1b1, a1b1.clone()) == 0);
+        assertTrue(comparator.compare(a1b2, a2b3) < 0);
+        assertFalse(comparator.compare(a1b1, a1b2) < 0);
+    }
+
+    /**
+     * Verifies a criterion matches that expected.
+     *
+     * @param criteria   the criteria
+     * @param index      the criterion index
+     * @param node       the expected node
+     * @param ascending  the expected direction
+     * @param nullsFirst the expected null ordering
+     */
+    private void checkCriterion(SortCriteria criteria, int index, String node, boolean ascending,
+                                boolean nullsFirst) {
+        assertEquals(node, criteria.getNode(index));
+        assertEquals(ascending, criteria.isAscending(index));
+        assertEquals(nullsFirst, criteria.isNullsFirst(index));
+    }
+
+    /**
+     * Verifies a criterion is invalid.
+     *
+     * @param criterion the criterion
+     */
+    private void checkInvalid(String criterion) {
+        try {
+            new SortCriteria(criterion);
+            fail("Expected '" + criterion + "' to be invalid");
+        } catch (ReportException expected) {
+            assertEquals(ReportException.ErrorCode.InvalidSortCriteria, expected.getErrorCode());
+        }
+    }
+}
@@ -26,15 +26,21 @@ import org.openvpms.component.business.domain.im.document.Document;
 import org.openvpms.component.business.domain.im.party.Party;
 import org.openvpms.report.AbstractReportTest;
 import org.openvpms.report.DocFormats;
+import org.openvpms.report.ReportException;
+import org.openvpms.report.jasper.export.CSVReportExporter;
+import org.openvpms.report.jasper.export.ExporterRegistry;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 /**
  * Tests the {@link TemplatedJasperIMObjectReport} class.
@@ -70,6 +76,58 @@ public class TemplatedJasperIMObjectReportTestCase extends AbstractReportTest {
         assertEquals("Foo,Bar,Main Clinic", string.trim());
     }
 
+    /**
+     * Verifies that the supported mime types are those of the exporter registry.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testMimeTypes() throws Exception {
+        Document document = getDocument("src/test/reports/party.customerperson.jrxml", DocFormats.XML_TYPE);
+        Functions functions = applicationContext.getBean(Functions.class);
+        TemplatedJasperIMObjectReport report = new TemplatedJasperIMObjectReport(document, getArchetypeService(),
+                                                                                 getLookupService(), getHandlers(),
+                                                                                 functions);
+        assertArrayEquals(ExporterRegistry.getDefault().getMimeTypes(), report.getMimeTypes());
+
+        ExporterRegistry registry = new ExporterRegistry();
+        registry.add(new CSVReportExporter());
+        report.setExporterRegistry(registry);
+        assertArrayEquals(new String[]{DocFormats.CSV_TYPE}, report.getMimeTypes());
+    }
+
+    /**
+     * Verifies that a fill is aborted when the no. of rows exceeds the maximum.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testMaxRowsExceeded() throws Exception {
+        Document document = getDocument("src/test/reports/party.customerperson.jrxml", DocFormats.XML_TYPE);
+        Functions functions = applicationContext.getBean(Functions.class);
+        TemplatedJasperIMObjectReport report = new TemplatedJasperIMObjectReport(document, getArchetypeService(),
+                                                                                 getLookupService(), getHandlers(),
+                                                                                 functions);
+        List<IMObject> list = new ArrayList<IMObject>();
+        for (int i = 0; i < 5; ++i) {
+            list.add(createCustomer("Foo" + i, "Bar"));
+        }
+
+        // verify the report can be generated when the no. of rows doesn't exceed the limit
+        report.setMaxRows(5);
+        Document csv = report.generate(list, null, null, DocFormats.CSV_TYPE);
+        String string = IOUtils.toString(getHandlers().get(document).getContent(csv), "UTF-8");
+        assertEquals(5, string.trim().split("\\r?\\n").length);
+
+        report.setMaxRows(3);
+        try {
+            report.generate(list, null, null, DocFormats.CSV_TYPE);
+            fail("Expected the fill to be aborted");
+        } catch (ReportException expected) {
+            assertEquals(ReportException.ErrorCode.MaxRowsExceeded, expected.getErrorCode());
+        }
+    }
+
     /**
      * Verifies that SQL reports are supported.
      */
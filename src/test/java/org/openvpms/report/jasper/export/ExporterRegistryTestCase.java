@@ -0,0 +1,105 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.jasper.export;
+
+import net.sf.jasperreports.engine.JasperPrint;
+import org.junit.Test;
+import org.openvpms.report.DocFormats;
+
+import java.io.OutputStream;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests the {@link ExporterRegistry} class.
+ *
+ * @author Tim Anderson
+ */
+public class ExporterRegistryTestCase {
+
+    /**
+     * Verifies the default registry contains the built-in exporters.
+     */
+    @Test
+    public void testDefaults() {
+        ExporterRegistry registry = ExporterRegistry.getDefault();
+        checkExporter(registry, DocFormats.PDF_TYPE, DocFormats.PDF_EXT, true);
+        checkExporter(registry, DocFormats.RTF_TYPE, DocFormats.RTF_EXT, true);
+        checkExporter(registry, DocFormats.XLS_TYPE, DocFormats.XLS_EXT, false);
+        checkExporter(registry, DocFormats.CSV_TYPE, DocFormats.CSV_EXT, false);
+        checkExporter(registry, DocFormats.XML_TYPE, DocFormats.XML_EXT, true);
+        checkExporter(registry, DocFormats.TEXT_TYPE, DocFormats.TEXT_EXT, true);
+        assertFalse(registry.supports(DocFormats.ODT_TYPE));
+        assertNull(registry.get(DocFormats.ODT_TYPE));
+        assertNull(registry.get(null));
+        assertArrayEquals(new String[]{DocFormats.PDF_TYPE, DocFormats.RTF_TYPE, DocFormats.XLS_TYPE,
+                                       DocFormats.CSV_TYPE, DocFormats.XML_TYPE, DocFormats.TEXT_TYPE},
+                          registry.getMimeTypes());
+    }
+
+    /**
+     * Verifies that an exporter can be added, and replaces any existing exporter for the same mime type.
+     */
+    @Test
+    public void testAdd() {
+        ExporterRegistry registry = new ExporterRegistry();
+        assertFalse(registry.supports(DocFormats.CSV_TYPE));
+
+        ReportExporter exporter1 = new TestExporter();
+        registry.add(exporter1);
+        assertSame(exporter1, registry.get(DocFormats.CSV_TYPE));
+
+        ReportExporter exporter2 = new TestExporter();
+        registry.add(exporter2);
+        assertSame(exporter2, registry.get(DocFormats.CSV_TYPE));
+        assertArrayEquals(new String[]{DocFormats.CSV_TYPE}, registry.getMimeTypes());
+    }
+
+    /**
+     * Verifies an exporter is registered for a mime type.
+     *
+     * @param registry  the registry
+     * @param mimeType  the mime type
+     * @param extension the expected file name extension
+     * @param paginated the expected pagination requirement
+     */
+    private void checkExporter(ExporterRegistry registry, String mimeType, String extension, boolean paginated) {
+        assertTrue(registry.supports(mimeType));
+        ReportExporter exporter = registry.get(mimeType);
+        assertEquals(mimeType, exporter.getMimeType());
+        assertEquals(extension, exporter.getExtension());
+        assertEquals(paginated, exporter.isPaginated());
+    }
+
+    private static class TestExporter extends AbstractReportExporter {
+
+        public TestExporter() {
+            super(DocFormats.CSV_TYPE, DocFormats.CSV_EXT, false, true);
+        }
+
+        @Override
+        public void export(JasperPrint report, OutputStream stream, Map<String, Object> parameters) {
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.print;
+
+import org.junit.Test;
+import org.openvpms.report.PrintProperties;
+
+import javax.print.Doc;
+import javax.print.DocFlavor;
+import javax.print.DocPrintJob;
+import javax.print.PrintException;
+import javax.print.PrintService;
+import javax.print.attribute.PrintRequestAttributeSet;
+import javax.print.attribute.standard.Copies;
+import javax.print.attribute.standard.JobName;
+import javax.print.attribute.standard.Media;
+import javax.print.attribute.standard.MediaPrintableArea;
+import javax.print.attribute.standard.MediaSize;
+import javax.print.attribute.standard.MediaSizeName;
+import javax.print.attribute.standard.MediaTray;
+import javax.print.attribute.standard.Sides;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Tests the {@link PDFPrintJob} class.
+ *
+ * @author Tim Anderson
+ */
+public class PDFPrintJobTestCase {
+
+    /**
+     * The printed document.
+     */
+    private Doc printed;
+
+    /**
+     * The attributes the document was printed with.
+     */
+    private PrintRequestAttributeSet attributes;
+
+
+    /**
+     * Verifies that the PDF is submitted with the PDF flavor, if the service supports it, and that the print
+     * properties are passed to the service.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testPrintPDF() throws Exception {
+        byte[] content = {1, 2, 3};
+        PrintProperties properties = new PrintProperties("printer1");
+        properties.setCopies(2);
+        properties.setSides(Sides.DUPLEX);
+        properties.setMediaSize(MediaSizeName.ISO_A5);
+        print(content, properties, true);
+
+        assertSame(content, printed.getPrintData());
+        assertEquals(DocFlavor.BYTE_ARRAY.PDF, printed.getDocFlavor());
+        assertEquals(new Copies(2), attributes.get(Copies.class));
+        assertEquals(Sides.DUPLEX, attributes.get(Sides.class));
+        assertEquals(MediaSizeName.ISO_A5, attributes.get(MediaSizeName.ISO_A5.getCategory()));
+        assertEquals("job", ((JobName) attributes.get(JobName.class)).getValue());
+    }
+
+    /**
+     * Verifies that printing fails if the service doesn't advertise PDF support.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testPDFNotSupported() throws Exception {
+        try {
+            print(new byte[0], new PrintProperties("printer1"), false);
+            fail("Expected PrintException");
+        } catch (PrintException expected) {
+            assertTrue(expected.getMessage().contains(DocFlavor.BYTE_ARRAY.PDF.toString()));
+        }
+        assertNull(printed);
+    }
+
+    /**
+     * Verifies that both the media size and tray are passed to the service when both are specified.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testMediaSizeAndTray() throws Exception {
+        PrintProperties properties = new PrintProperties("printer1");
+        properties.setMediaSize(MediaSizeName.ISO_A5);
+        properties.setMediaTray(MediaTray.MANUAL);
+        print(new byte[0], properties, true);
+
+        assertEquals(MediaTray.MANUAL, attributes.get(Media.class));
+        MediaPrintableArea area = (MediaPrintableArea) attributes.get(MediaPrintableArea.class);
+        MediaSize size = MediaSize.ISO.A5;
+        assertEquals(size.getX(MediaSize.MM), area.getWidth(MediaPrintableArea.MM), 0.01);
+        assertEquals(size.getY(MediaSize.MM), area.getHeight(MediaPrintableArea.MM), 0.01);
+    }
+
+    /**
+     * Prints a PDF to a test print service.
+     *
+     * @param content    the PDF content
+     * @param properties the print properties
+     * @param pdf        if {@code true}, the service supports the PDF flavor
+     * @throws Exception for any error
+     */
+    private void print(byte[] content, PrintProperties properties, boolean pdf) throws Exception {
+        final PrintService service = createService(pdf);
+        PDFPrintJob job = new PDFPrintJob("job", content, properties, null) {
+            @Override
+            protected PrintService getService(String printerName) {
+                return service;
+            }
+        };
+        job.print();
+    }
+
+    /**
+     * Creates a print service that records the documents it is asked to print.
+     *
+     * @param pdf if {@code true}, the service supports the PDF flavor
+     * @return a new print service
+     */
+    private PrintService createService(final boolean pdf) {
+        final DocPrintJob job = (DocPrintJob) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{DocPrintJob.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("print".equals(method.getName())) {
+                            printed = (Doc) args[0];
+                            attributes = (PrintRequestAttributeSet) args[1];
+                        }
+                        return null;
+                    }
+                });
+        return (PrintService) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{PrintService.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if ("isDocFlavorSupported".equals(name)) {
+                            return pdf && DocFlavor.BYTE_ARRAY.PDF.equals(args[0]);
+                        } else if ("createPrintJob".equals(name)) {
+                            return job;
+                        } else if ("getName".equals(name)) {
+                            return "printer1";
+                        }
+                        return null;
+                    }
+                });
+    }
+}
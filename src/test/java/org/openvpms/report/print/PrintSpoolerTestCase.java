@@ -0,0 +1,243 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.print;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openvpms.report.PrintProperties;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Tests the {@link PrintSpooler} class.
+ *
+ * @author Tim Anderson
+ */
+public class PrintSpoolerTestCase {
+
+    /**
+     * The spooler.
+     */
+    private PrintSpooler spooler;
+
+    /**
+     * The names of the printed jobs, in the order they were printed.
+     */
+    private final List<String> printed = Collections.synchronizedList(new ArrayList<String>());
+
+
+    /**
+     * Sets up the test case.
+     */
+    @Before
+    public void setUp() {
+        spooler = new PrintSpooler();
+        spooler.setRetryInterval(10);
+    }
+
+    /**
+     * Cleans up after the test case.
+     */
+    @After
+    public void tearDown() {
+        spooler.destroy();
+    }
+
+    /**
+     * Verifies that jobs submitted to the same printer are printed in order.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testOrdering() throws Exception {
+        CountDownLatch latch = new CountDownLatch(10);
+        List<TestJob> jobs = new ArrayList<TestJob>();
+        for (int i = 0; i < 10; ++i) {
+            TestJob job = new TestJob("job" + i, "printer1", 0, latch);
+            jobs.add(job);
+            spooler.submit(job);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; ++i) {
+            assertEquals("job" + i, printed.get(i));
+            checkStatus(jobs.get(i), PrintJob.Status.COMPLETED, 1);
+        }
+    }
+
+    /**
+     * Verifies that a failing job is retried, and that the listener is notified of each status change.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testRetry() throws Exception {
+        final List<PrintJob.Status> statuses = Collections.synchronizedList(new ArrayList<PrintJob.Status>());
+        spooler.addListener(new PrintJobListener() {
+            public void statusChanged(PrintJob job) {
+                statuses.add(job.getStatus());
+            }
+        });
+        CountDownLatch latch = new CountDownLatch(1);
+        TestJob job = new TestJob("job", "printer1", 1, latch);
+        spooler.submit(job);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        checkStatus(job, PrintJob.Status.COMPLETED, 2);
+        assertEquals(5, statuses.size());
+        assertEquals(PrintJob.Status.QUEUED, statuses.get(0));
+        assertEquals(PrintJob.Status.PRINTING, statuses.get(1));
+        assertEquals(PrintJob.Status.RETRYING, statuses.get(2));
+        assertEquals(PrintJob.Status.PRINTING, statuses.get(3));
+        assertEquals(PrintJob.Status.COMPLETED, statuses.get(4));
+    }
+
+    /**
+     * Verifies that a job fails once the no. of retries is exhausted.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testFailure() throws Exception {
+        spooler.setRetries(2);
+        CountDownLatch latch = new CountDownLatch(1);
+        TestJob job = new TestJob("job", "printer1", 10, latch);
+        spooler.submit(job);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(PrintJob.Status.FAILED, job.getStatus());
+        assertEquals(3, job.getAttempts());
+        assertTrue(job.getException() instanceof IllegalStateException);
+        assertTrue(printed.isEmpty());
+    }
+
+    /**
+     * Verifies that a failing printer doesn't block jobs for other printers.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testPrintersAreIndependent() throws Exception {
+        spooler.setRetries(1);
+        spooler.setRetryInterval(2000);
+        TestJob failing = new TestJob("job1", "printer1", 10, new CountDownLatch(1));
+        CountDownLatch latch = new CountDownLatch(1);
+        TestJob job = new TestJob("job2", "printer2", 0, latch);
+        spooler.submit(failing);
+        spooler.submit(job);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        checkStatus(job, PrintJob.Status.COMPLETED, 1);
+    }
+
+    /**
+     * Verifies that jobs still queued when the spooler is shut down are failed and disposed, and that jobs submitted
+     * after shut down are rejected, failed and disposed.
+     *
+     * @throws Exception for any error
+     */
+    @Test
+    public void testDestroyDisposesQueuedJobs() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch disposed = new CountDownLatch(3);
+        TestJob blocking = new TestJob("job1", "printer1", 0, disposed) {
+            @Override
+            public void print() {
+                started.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException exception) {
+                    // restore the interrupt so the spooler doesn't retry
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(exception);
+                }
+            }
+        };
+        TestJob queued1 = new TestJob("job2", "printer1", 0, disposed);
+        TestJob queued2 = new TestJob("job3", "printer1", 0, disposed);
+        spooler.submit(blocking);
+        spooler.submit(queued1);
+        spooler.submit(queued2);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(2, spooler.getQueued("printer1"));
+
+        spooler.destroy();
+        assertTrue(disposed.await(10, TimeUnit.SECONDS));
+        assertEquals(PrintJob.Status.FAILED, queued1.getStatus());
+        assertEquals(PrintJob.Status.FAILED, queued2.getStatus());
+        assertEquals(0, queued1.getAttempts());
+        assertTrue(printed.isEmpty());
+
+        CountDownLatch rejected = new CountDownLatch(1);
+        TestJob job = new TestJob("job4", "printer1", 0, rejected);
+        try {
+            spooler.submit(job);
+            fail("Expected submit to fail");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        assertEquals(0, rejected.getCount());
+        assertEquals(PrintJob.Status.FAILED, job.getStatus());
+    }
+
+    /**
+     * Verifies a job matches that expected.
+     *
+     * @param job      the job
+     * @param status   the expected status
+     * @param attempts the expected no. of print attempts
+     */
+    private void checkStatus(PrintJob job, PrintJob.Status status, int attempts) {
+        assertEquals(status, job.getStatus());
+        assertEquals(attempts, job.getAttempts());
+        assertNull(job.getException());
+    }
+
+    private class TestJob extends PrintJob {
+
+        private int failures;
+
+        private final CountDownLatch latch;
+
+        public TestJob(String name, String printer, int failures, CountDownLatch latch) {
+            super(name, new PrintProperties(printer));
+            this.failures = failures;
+            this.latch = latch;
+        }
+
+        @Override
+        public void print() {
+            if (failures > 0) {
+                --failures;
+                throw new IllegalStateException("Printer offline");
+            }
+            printed.add(getName());
+        }
+
+        @Override
+        protected void dispose() {
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Version: 1.0
+ *
+ * The contents of this file are subject to the OpenVPMS License Version
+ * 1.0 (the 'License'); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.openvpms.org/license/
+ *
+ * Software distributed under the License is distributed on an 'AS IS' basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * Copyright 2015 (C) OpenVPMS Ltd. All Rights Reserved.
+ */
+
+package org.openvpms.report.print;
+
+import org.junit.Test;
+
+import javax.print.PrintService;
+import javax.print.attribute.standard.Media;
+import javax.print.attribute.standard.MediaSizeName;
+import javax.print.attribute.standard.MediaTray;
+import javax.print.attribute.standard.Sides;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests the {@link PrinterRegistry} class.
+ *
+ * @author Tim Anderson
+ */
+public class PrinterRegistryTestCase {
+
+    /**
+     * Verifies that services are looked up once, and only reloaded on refresh.
+     */
+    @Test
+    public void testCaching() {
+        PrintService printer1 = createService("printer1");
+        PrintService printer2 = createService("printer2");
+        TestRegistry registry = new TestRegistry(printer1, printer2);
+
+        assertSame(printer1, registry.getService("printer1"));
+        assertSame(printer2, registry.getService("printer2"));
+        assertSame(printer1, registry.getService(null));
+        assertNull(registry.getService("printer3"));
+        assertEquals(Arrays.asList("printer1", "printer2"), registry.getPrinters());
+        assertEquals(1, registry.lookups.get());
+
+        PrintService printer3 = createService("printer3");
+        registry.services = new PrintService[]{printer3};
+        assertNull(registry.getService("printer3"));
+        registry.refresh();
+        assertEquals(2, registry.lookups.get());
+        assertSame(printer3, registry.getService("printer3"));
+        assertNull(registry.getService("printer1"));
+        registry.destroy();
+    }
+
+    /**
+     * Tests the {@link PrinterRegistry#getCapabilities(String)} method.
+     */
+    @Test
+    public void testCapabilities() {
+        PrintService printer1 = createService("printer1");
+        TestRegistry registry = new TestRegistry(printer1);
+
+        PrinterCapabilities capabilities = registry.getCapabilities("printer1");
+        assertEquals(2, capabilities.getMediaSizes().size());
+        assertTrue(capabilities.getMediaSizes().contains(MediaSizeName.ISO_A4));
+        assertTrue(capabilities.getMediaSizes().contains(MediaSizeName.ISO_A5));
+        assertEquals(1, capabilities.getMediaTrays().size());
+        assertTrue(capabilities.getMediaTrays().contains(MediaTray.MAIN));
+        assertEquals(2, capabilities.getSides().size());
+        assertTrue(capabilities.getSides().contains(Sides.DUPLEX));
+
+        assertSame(capabilities, registry.getCapabilities("printer1"));
+        assertNull(registry.getCapabilities("printer2"));
+        registry.destroy();
+    }
+
+    /**
+     * Creates a print service that supports A4 and A5 media, the main tray, and one-sided and duplex printing.
+     *
+     * @param name the printer name
+     * @return a new print service
+     */
+    private PrintService createService(final String name) {
+        InvocationHandler handler = new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String methodName = method.getName();
+                if ("getName".equals(methodName) || "toString".equals(methodName)) {
+                    return name;
+                } else if ("hashCode".equals(methodName)) {
+                    return System.identityHashCode(proxy);
+                } else if ("equals".equals(methodName)) {
+                    return proxy == args[0];
+                } else if ("getSupportedAttributeValues".equals(methodName)) {
+                    if (args[0] == Media.class) {
+                        return new Media[]{MediaSizeName.ISO_A4, MediaSizeName.ISO_A5, MediaTray.MAIN};
+                    } else if (args[0] == Sides.class) {
+                        return new Sides[]{Sides.ONE_SIDED, Sides.DUPLEX};
+                    }
+                }
+                return null;
+            }
+        };
+        return (PrintService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{PrintService.class},
+                                                     handler);
+    }
+
+    private static class TestRegistry extends PrinterRegistry {
+
+        private PrintService[] services;
+
+        private final AtomicInteger lookups = new AtomicInteger();
+
+        public TestRegistry(PrintService... services) {
+            super(0);
+            this.services = services;
+        }
+
+        @Override
+        protected PrintService[] lookupServices() {
+            lookups.incrementAndGet();
+            return services;
+        }
+
+        @Override
+        protected PrintService lookupDefaultService() {
+            return services.length != 0 ? services[0] : null;
+        }
+    }
+}